@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.ConcurrentGraphBuilder;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.StacktraceGraphModel;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator.FrameCategorization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the contention when several producer threads feed a single shared graph through the
+ * {@link ConcurrentGraphBuilder}, compared with building separate graphs in a fork/join pool and
+ * merging them. The 64 chunks of the synthetic recording are distributed round robin over the
+ * producer threads.
+ * <p>
+ * Thread counts above the number of available processors mostly measure the scheduler. Use, for
+ * example, -p threads=1,2,4,8 to only run the lower thread counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConcurrentBuildBenchmark {
+	@Param({"1000000"})
+	public long traceCount;
+
+	@Param({"1", "2", "4", "8", "16", "32", "64"})
+	public int threads;
+
+	@Param({"METHOD"})
+	public FrameCategorization categorization;
+
+	private SyntheticRecording recording;
+	private List<List<IItemIterable>> chunksPerThread;
+	private FrameSeparator frameSeparator;
+	private ExecutorService executor;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() {
+		recording = Recordings.createSynthetic(traceCount);
+		frameSeparator = new FrameSeparator(categorization, false);
+		chunksPerThread = new ArrayList<>(threads);
+		for (int i = 0; i < threads; i++) {
+			chunksPerThread.add(new ArrayList<>());
+		}
+		int chunk = 0;
+		for (IItemIterable iterable : recording) {
+			chunksPerThread.get(chunk++ % threads).add(iterable);
+		}
+		executor = Executors.newFixedThreadPool(threads);
+		pool = new ForkJoinPool(threads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public StacktraceGraphModel concurrent() throws InterruptedException, ExecutionException {
+		ConcurrentGraphBuilder builder = new ConcurrentGraphBuilder(frameSeparator, null);
+		List<Future<?>> producers = new ArrayList<>(threads);
+		for (List<IItemIterable> chunks : chunksPerThread) {
+			producers.add(executor.submit(() -> {
+				for (IItemIterable iterable : chunks) {
+					builder.addItems(iterable);
+				}
+			}));
+		}
+		for (Future<?> producer : producers) {
+			producer.get();
+		}
+		return builder.freeze();
+	}
+
+	@Benchmark
+	public StacktraceGraphModel forkJoin() {
+		return new StacktraceGraphModel(frameSeparator, recording, null, pool);
+	}
+}
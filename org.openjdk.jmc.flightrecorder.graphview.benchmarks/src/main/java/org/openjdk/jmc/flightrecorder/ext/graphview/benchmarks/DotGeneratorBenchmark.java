@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.DotGenerator;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.DotGenerator.ConfigurationKey;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.StacktraceGraphModel;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator.FrameCategorization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures rendering a {@link StacktraceGraphModel} in DOT format, for each frame categorization,
+ * both to a String and streamed to a channel.
+ * <p>
+ * To get the steady state allocation per element, run with the gc profiler and divide
+ * gc.alloc.rate.norm for writeDot by the number of elements printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DotGeneratorBenchmark {
+	@Param({"1000000"})
+	public long traceCount;
+
+	@Param({"PACKAGE", "CLASS", "METHOD", "LINE", "BCI"})
+	public FrameCategorization categorization;
+
+	private StacktraceGraphModel model;
+	private Map<ConfigurationKey, String> configuration;
+
+	@Setup
+	public void setup() {
+		model = new StacktraceGraphModel(new FrameSeparator(categorization, false),
+				Recordings.createSynthetic(traceCount), null);
+		configuration = DotGenerator.getDefaultConfiguration();
+		System.out.println(
+				"Elements (nodes + edges): " + (model.getNodes().size() + model.getEdges().size()));
+	}
+
+	@Benchmark
+	public String toDot() {
+		return DotGenerator.toDot(model, configuration);
+	}
+
+	@Benchmark
+	public long writeDot() throws IOException {
+		DiscardingChannel channel = new DiscardingChannel();
+		DotGenerator.writeDot(model, configuration, channel);
+		return channel.written;
+	}
+
+	/**
+	 * Counts and drops everything written to it, to measure the streaming output without any I/O.
+	 */
+	private static final class DiscardingChannel implements WritableByteChannel {
+		private long written;
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			int length = src.remaining();
+			src.position(src.limit());
+			written += length;
+			return length;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.StacktraceGraphModel;
+import org.openjdk.jmc.flightrecorder.jdk.JdkFilters;
+
+/**
+ * Helpers for getting hold of the recordings to benchmark.
+ */
+final class Recordings {
+	/**
+	 * The recording used by the graph view tests.
+	 */
+	private static final String DEFAULT_RECORDING = "hotmethods.jfr";
+
+	private Recordings() {
+	}
+
+	/**
+	 * Loads the execution samples from a recording.
+	 * 
+	 * @param recording
+	 *            the path to the recording, or an empty string for the hotmethods.jfr recording from
+	 *            the graph view tests.
+	 * @return the execution samples.
+	 */
+	static IItemCollection loadExecutionSamples(String recording) throws IOException, CouldNotLoadRecordingException {
+		IItemCollection items;
+		if (recording == null || recording.isEmpty()) {
+			try (InputStream in = StacktraceGraphModel.class.getResourceAsStream(DEFAULT_RECORDING)) {
+				items = JfrLoaderToolkit.loadEvents(in);
+			}
+		} else {
+			items = JfrLoaderToolkit.loadEvents(new File(recording));
+		}
+		return items.apply(JdkFilters.EXECUTION_SAMPLE);
+	}
+
+	/**
+	 * Creates a synthetic recording with a shape similar to a long running server application.
+	 * 
+	 * @param traceCount
+	 *            the number of stack traces in the recording.
+	 * @return the synthetic recording.
+	 */
+	static SyntheticRecording createSynthetic(long traceCount) {
+		return new SyntheticRecording(traceCount, 10_000, 5_000, 64, 64, 4711);
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.openjdk.jmc.common.IDescribable;
+import org.openjdk.jmc.common.IMCFrame;
+import org.openjdk.jmc.common.IMCMethod;
+import org.openjdk.jmc.common.IMCPackage;
+import org.openjdk.jmc.common.IMCStackTrace;
+import org.openjdk.jmc.common.IMCStackTrace.TruncationState;
+import org.openjdk.jmc.common.IMCType;
+import org.openjdk.jmc.common.IPredicate;
+import org.openjdk.jmc.common.item.IAccessorKey;
+import org.openjdk.jmc.common.item.IAggregator;
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.ICanonicalAccessorFactory;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemConsumer;
+import org.openjdk.jmc.common.item.IItemFilter;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.IType;
+import org.openjdk.jmc.common.util.MCFrame;
+import org.openjdk.jmc.common.util.MCMethod;
+import org.openjdk.jmc.common.util.MCPackage;
+import org.openjdk.jmc.common.util.MCStackTrace;
+import org.openjdk.jmc.common.util.MCType;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+
+/**
+ * A synthetic, in memory, recording of execution samples. The items are generated lazily and
+ * deterministically from a seed each time they are iterated, so recordings with 10^8 stack traces
+ * and more can be used without keeping them on the heap.
+ * <p>
+ * The stack traces are drawn from a pool of unique traces, which in turn are random walks from a
+ * few thread roots over a fixed call graph, where each method only calls a handful of other methods.
+ * The traces are drawn with a skewed distribution, so that, just like in a real recording, a few
+ * traces are very hot and most of them are rare.
+ */
+public final class SyntheticRecording implements IItemCollection {
+	private static final int PACKAGES_PER_UNIVERSE = 64;
+	private static final int METHODS_PER_CLASS = 16;
+	private static final int MAX_LINE = 64;
+	private static final int ROOT_COUNT = 16;
+	private static final int MAX_CALLEES = 8;
+
+	private final IMCStackTrace[] traces;
+	private final long traceCount;
+	private final int chunkCount;
+	private final long seed;
+	private final Predicate<IItem> filter;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param traceCount
+	 *            the total number of stack traces (items) in the recording.
+	 * @param uniqueTraceCount
+	 *            the number of distinct stack traces to draw the items from.
+	 * @param methodCount
+	 *            the number of distinct methods to build the stack traces from.
+	 * @param maxDepth
+	 *            the max depth of a stack trace.
+	 * @param chunkCount
+	 *            the number of item iterables to split the items into, like the chunks of a real
+	 *            recording.
+	 * @param seed
+	 *            the random seed, the same seed always yields the same recording.
+	 */
+	public SyntheticRecording(
+		long traceCount, int uniqueTraceCount, int methodCount, int maxDepth, int chunkCount, long seed) {
+		this(createTraces(uniqueTraceCount, methodCount, maxDepth, seed), traceCount, chunkCount, seed, null);
+	}
+
+	private SyntheticRecording(
+		IMCStackTrace[] traces, long traceCount, int chunkCount, long seed, Predicate<IItem> filter) {
+		this.traces = traces;
+		this.traceCount = traceCount;
+		this.chunkCount = chunkCount;
+		this.seed = seed;
+		this.filter = filter;
+	}
+
+	@Override
+	public Iterator<IItemIterable> iterator() {
+		List<IItemIterable> chunks = new ArrayList<>(chunkCount);
+		long start = 0;
+		for (int i = 0; i < chunkCount; i++) {
+			long end = traceCount * (i + 1) / chunkCount;
+			chunks.add(new Chunk(start, end, filter));
+			start = end;
+		}
+		return chunks.iterator();
+	}
+
+	@Override
+	public IItemCollection apply(IItemFilter itemFilter) {
+		IPredicate<IItem> predicate = itemFilter.getPredicate(SampleType.INSTANCE);
+		Predicate<IItem> newFilter = predicate::evaluate;
+		return new SyntheticRecording(traces, traceCount, chunkCount, seed,
+				filter == null ? newFilter : filter.and(newFilter));
+	}
+
+	@Override
+	public <V, C extends IItemConsumer<C>> V getAggregate(IAggregator<V, C> aggregator) {
+		throw new UnsupportedOperationException("Aggregation is not supported on synthetic recordings");
+	}
+
+	@Override
+	public boolean hasItems() {
+		return traceCount > 0;
+	}
+
+	/**
+	 * @return the number of distinct stack traces the items are drawn from.
+	 */
+	public int getUniqueTraceCount() {
+		return traces.length;
+	}
+
+	private static IMCStackTrace[] createTraces(int uniqueTraceCount, int methodCount, int maxDepth, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		IMCMethod[] methods = createMethods(methodCount);
+		int[][] callees = createCallGraph(random, methodCount);
+		IMCStackTrace[] traces = new IMCStackTrace[uniqueTraceCount];
+		IMCFrame[] walk = new IMCFrame[maxDepth];
+		for (int i = 0; i < uniqueTraceCount; i++) {
+			int depth = 1 + random.nextInt(maxDepth);
+			int method = random.nextInt(Math.min(ROOT_COUNT, methodCount));
+			for (int j = 0; j < depth; j++) {
+				walk[j] = new MCFrame(methods[method], random.nextInt(256), 1 + random.nextInt(MAX_LINE),
+						IMCFrame.Type.JIT_COMPILED);
+				int[] methodCallees = callees[method];
+				method = methodCallees[random.nextInt(methodCallees.length)];
+			}
+			// The top frame comes first in a stack trace
+			List<IMCFrame> frames = new ArrayList<>(depth);
+			for (int j = depth - 1; j >= 0; j--) {
+				frames.add(walk[j]);
+			}
+			traces[i] = new MCStackTrace(frames, TruncationState.NOT_TRUNCATED);
+		}
+		return traces;
+	}
+
+	private static int[][] createCallGraph(SplittableRandom random, int methodCount) {
+		int[][] callees = new int[methodCount][];
+		for (int i = 0; i < methodCount; i++) {
+			callees[i] = new int[1 + random.nextInt(MAX_CALLEES)];
+			for (int j = 0; j < callees[i].length; j++) {
+				callees[i][j] = random.nextInt(methodCount);
+			}
+		}
+		return callees;
+	}
+
+	private static IMCMethod[] createMethods(int methodCount) {
+		IMCMethod[] methods = new IMCMethod[methodCount];
+		IMCPackage[] packages = new IMCPackage[PACKAGES_PER_UNIVERSE];
+		for (int i = 0; i < packages.length; i++) {
+			packages[i] = new MCPackage("org.example.synthetic.p" + i, null, Boolean.TRUE);
+		}
+		IMCType type = null;
+		for (int i = 0; i < methodCount; i++) {
+			if (i % METHODS_PER_CLASS == 0) {
+				int classIndex = i / METHODS_PER_CLASS;
+				type = new MCType("C" + classIndex, packages[classIndex % packages.length]);
+			}
+			methods[i] = new MCMethod(type, "m" + i, "()V", Integer.valueOf(1), Boolean.FALSE);
+		}
+		return methods;
+	}
+
+	/**
+	 * @return a random index in [0, bound), biased towards the low indices.
+	 */
+	private static int skewed(SplittableRandom random, int bound) {
+		double r = random.nextDouble();
+		return (int) (r * r * r * bound);
+	}
+
+	private final class Chunk implements IItemIterable {
+		private final long start;
+		private final long end;
+		private final Predicate<IItem> chunkFilter;
+
+		Chunk(long start, long end, Predicate<IItem> chunkFilter) {
+			this.start = start;
+			this.end = end;
+			this.chunkFilter = chunkFilter;
+		}
+
+		@Override
+		public Iterator<IItem> iterator() {
+			Iterator<IItem> iterator = new SampleIterator(new SplittableRandom(seed ^ start), end - start);
+			if (chunkFilter == null) {
+				return iterator;
+			}
+			return stream(iterator).filter(chunkFilter).iterator();
+		}
+
+		@Override
+		public IType<IItem> getType() {
+			return SampleType.INSTANCE;
+		}
+
+		@Override
+		public boolean hasItems() {
+			return iterator().hasNext();
+		}
+
+		@Override
+		public long getItemCount() {
+			return chunkFilter == null ? end - start : stream().count();
+		}
+
+		@Override
+		public IItemIterable apply(Predicate<IItem> predicate) {
+			return new Chunk(start, end, chunkFilter == null ? predicate : chunkFilter.and(predicate));
+		}
+
+		@Override
+		public Stream<IItem> stream() {
+			return stream(iterator());
+		}
+
+		private Stream<IItem> stream(Iterator<IItem> iterator) {
+			return StreamSupport.stream(((Iterable<IItem>) () -> iterator).spliterator(), false);
+		}
+	}
+
+	private final class SampleIterator implements Iterator<IItem> {
+		private final SplittableRandom random;
+		private long remaining;
+
+		SampleIterator(SplittableRandom random, long count) {
+			this.random = random;
+			this.remaining = count;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		@Override
+		public IItem next() {
+			if (remaining <= 0) {
+				throw new NoSuchElementException();
+			}
+			remaining--;
+			return new Sample(traces[skewed(random, traces.length)]);
+		}
+	}
+
+	private static final class Sample implements IItem {
+		private final IMCStackTrace stackTrace;
+
+		Sample(IMCStackTrace stackTrace) {
+			this.stackTrace = stackTrace;
+		}
+
+		@Override
+		public IType<?> getType() {
+			return SampleType.INSTANCE;
+		}
+	}
+
+	private static final class SampleType implements IType<IItem> {
+		private static final SampleType INSTANCE = new SampleType();
+		private static final IMemberAccessor<IMCStackTrace, IItem> STACKTRACE_ACCESSOR = (item) -> ((Sample) item).stackTrace;
+
+		@Override
+		public String getIdentifier() {
+			return "jdk.ExecutionSample";
+		}
+
+		@Override
+		public String getName() {
+			return "Synthetic Execution Sample";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Generated execution sample";
+		}
+
+		@Override
+		public List<IAttribute<?>> getAttributes() {
+			return Collections.<IAttribute<?>> singletonList(JfrAttributes.EVENT_STACKTRACE);
+		}
+
+		@Override
+		public Map<IAccessorKey<?>, ? extends IDescribable> getAccessorKeys() {
+			return Collections.singletonMap(JfrAttributes.EVENT_STACKTRACE.getKey(), JfrAttributes.EVENT_STACKTRACE);
+		}
+
+		@Override
+		public boolean hasAttribute(ICanonicalAccessorFactory<?> attribute) {
+			return attribute == JfrAttributes.EVENT_STACKTRACE;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <M> IMemberAccessor<M, IItem> getAccessor(IAccessorKey<M> attribute) {
+			if (JfrAttributes.EVENT_STACKTRACE.getKey().equals(attribute)) {
+				return (IMemberAccessor<M, IItem>) STACKTRACE_ACCESSOR;
+			}
+			return null;
+		}
+	}
+}
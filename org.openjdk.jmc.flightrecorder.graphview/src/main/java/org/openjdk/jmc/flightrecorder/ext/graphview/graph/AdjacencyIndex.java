@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+/**
+ * The outgoing and incoming edges of each node of a graph, in compressed sparse row form. The
+ * outgoing edges of node n are outEdges[outOffsets[n]] up to, but not including,
+ * outEdges[outOffsets[n + 1]], and likewise for the incoming edges. Within each node, the edges are
+ * in id order.
+ * <p>
+ * The index is built in O(nodes + edges) with a counting sort, and is immutable. Nodes added after
+ * the index was built have no edges in it.
+ */
+final class AdjacencyIndex {
+	private final int nodeCount;
+	private final int[] outOffsets;
+	private final int[] outEdges;
+	private final int[] inOffsets;
+	private final int[] inEdges;
+
+	private AdjacencyIndex(int nodeCount, int[] outOffsets, int[] outEdges, int[] inOffsets, int[] inEdges) {
+		this.nodeCount = nodeCount;
+		this.outOffsets = outOffsets;
+		this.outEdges = outEdges;
+		this.inOffsets = inOffsets;
+		this.inEdges = inEdges;
+	}
+
+	/**
+	 * @param nodeCount
+	 *            the number of nodes.
+	 * @param edgeCount
+	 *            the number of edges.
+	 * @param from
+	 *            edge id -> from node id.
+	 * @param to
+	 *            edge id -> to node id.
+	 */
+	static AdjacencyIndex build(int nodeCount, int edgeCount, int[] from, int[] to) {
+		int[] outOffsets = new int[nodeCount + 1];
+		int[] inOffsets = new int[nodeCount + 1];
+		for (int e = 0; e < edgeCount; e++) {
+			outOffsets[from[e] + 1]++;
+			inOffsets[to[e] + 1]++;
+		}
+		for (int n = 0; n < nodeCount; n++) {
+			outOffsets[n + 1] += outOffsets[n];
+			inOffsets[n + 1] += inOffsets[n];
+		}
+		int[] outEdges = new int[edgeCount];
+		int[] inEdges = new int[edgeCount];
+		int[] outFill = new int[nodeCount];
+		int[] inFill = new int[nodeCount];
+		for (int e = 0; e < edgeCount; e++) {
+			outEdges[outOffsets[from[e]] + outFill[from[e]]++] = e;
+			inEdges[inOffsets[to[e]] + inFill[to[e]]++] = e;
+		}
+		return new AdjacencyIndex(nodeCount, outOffsets, outEdges, inOffsets, inEdges);
+	}
+
+	int getOutDegree(int nodeId) {
+		return nodeId < nodeCount ? outOffsets[nodeId + 1] - outOffsets[nodeId] : 0;
+	}
+
+	int getOutEdge(int nodeId, int index) {
+		return outEdges[outOffsets[nodeId] + index];
+	}
+
+	int getInDegree(int nodeId) {
+		return nodeId < nodeCount ? inOffsets[nodeId + 1] - inOffsets[nodeId] : 0;
+	}
+
+	int getInEdge(int nodeId, int index) {
+		return inEdges[inOffsets[nodeId] + index];
+	}
+}
@@ -81,6 +81,13 @@ public final class AggregatableFrame implements IMCFrame {
 		return FormatToolkit.getHumanReadable(getMethod()) + ":" + separator.getCategorization();
 	}
 	
+	/**
+	 * @return the same frame, aggregated with another separator.
+	 */
+	AggregatableFrame withSeparator(FrameSeparator separator) {
+		return new AggregatableFrame(separator, frame);
+	}
+
 	public String getHumanReadableSeparatorSensitiveString() {
 		switch (separator.getCategorization()) {
 		case LINE:
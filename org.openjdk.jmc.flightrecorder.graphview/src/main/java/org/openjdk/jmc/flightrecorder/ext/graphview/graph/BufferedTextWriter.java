@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * Buffers text in a fixed size char array and flushes it to an {@link Appendable} when full.
+ * Numbers are formatted straight into the buffer, so that large outputs can be generated without
+ * allocating anything per element.
+ * <p>
+ * Instances of this class are not thread safe.
+ */
+final class BufferedTextWriter {
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+	private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+			100000000L, 1000000000L};
+
+	/**
+	 * Double.toString switches to scientific notation from this value.
+	 */
+	private static final double MAX_PLAIN_DOUBLE = 1e7;
+
+	private final Appendable out;
+	private final char[] buffer;
+	private final CharBuffer wrappedBuffer;
+	private int position;
+
+	BufferedTextWriter(Appendable out) {
+		this(out, DEFAULT_BUFFER_SIZE);
+	}
+
+	BufferedTextWriter(Appendable out, int bufferSize) {
+		this.out = out;
+		// Room for the longest number, so that numbers never need to be split
+		buffer = new char[Math.max(bufferSize, 64)];
+		wrappedBuffer = CharBuffer.wrap(buffer);
+	}
+
+	BufferedTextWriter append(String text) throws IOException {
+		int length = text.length();
+		int offset = 0;
+		while (offset < length) {
+			if (position == buffer.length) {
+				flushBuffer();
+			}
+			int chunk = Math.min(length - offset, buffer.length - position);
+			text.getChars(offset, offset + chunk, buffer, position);
+			position += chunk;
+			offset += chunk;
+		}
+		return this;
+	}
+
+	BufferedTextWriter append(char c) throws IOException {
+		if (position == buffer.length) {
+			flushBuffer();
+		}
+		buffer[position++] = c;
+		return this;
+	}
+
+	BufferedTextWriter append(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			return append(Long.toString(value));
+		}
+		ensureCapacity(20);
+		if (value < 0) {
+			buffer[position++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long rest = value / 10; rest != 0; rest /= 10) {
+			digits++;
+		}
+		int end = position + digits;
+		for (int i = end - 1; i >= position; i--) {
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		position = end;
+		return this;
+	}
+
+	/**
+	 * Appends a value with a fixed number of decimals, rounded half up, like %.3f would for three
+	 * decimals. Always uses '.' as decimal separator.
+	 */
+	BufferedTextWriter appendFixed(double value, int decimals) throws IOException {
+		long scale = POWERS_OF_TEN[decimals];
+		if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= Long.MAX_VALUE / scale) {
+			return append(String.format("%." + decimals + "f", value));
+		}
+		long scaled = Math.round(Math.abs(value) * scale);
+		if (value < 0 && scaled != 0) {
+			append('-');
+		}
+		append(scaled / scale);
+		if (decimals > 0) {
+			append('.');
+			long fraction = scaled % scale;
+			for (long digit = scale / 10; digit > 0; digit /= 10) {
+				append((char) ('0' + (fraction / digit) % 10));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Appends a value formatted like {@link Double#toString(double)}. Only integral values below
+	 * 10^7, which is the common case for weights, are formatted without allocating.
+	 */
+	BufferedTextWriter append(double value) throws IOException {
+		if (value == Math.rint(value) && Math.abs(value) < MAX_PLAIN_DOUBLE
+				&& !(value == 0 && Double.doubleToRawLongBits(value) != 0)) {
+			return append((long) value).append(".0");
+		}
+		return append(Double.toString(value));
+	}
+
+	/**
+	 * Writes all the buffered text to the underlying appendable. Does not flush the appendable.
+	 */
+	void flush() throws IOException {
+		flushBuffer();
+	}
+
+	private void ensureCapacity(int length) throws IOException {
+		if (buffer.length - position < length) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (position == 0) {
+			return;
+		}
+		if (out instanceof StringBuilder) {
+			((StringBuilder) out).append(buffer, 0, position);
+		} else if (out instanceof Writer) {
+			((Writer) out).write(buffer, 0, position);
+		} else {
+			out.append(wrappedBuffer, 0, position);
+		}
+		position = 0;
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.StacktraceGraphModel.CumulativeCounting;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+
+/**
+ * The calling context tree of a set of stack traces, i.e. the traces merged from the thread roots
+ * and up, as shown in a flame graph. Built together with a {@link StacktraceGraphModel}, in the same
+ * pass over the items, and the tree nodes refer to the nodes of that graph for their frames.
+ * <p>
+ * The tree is kept as a compact array based trie, with the parent index, graph node id, count and
+ * weight of each tree node in primitive arrays. Index 0 is the root, which has no frame, and every
+ * other tree node comes after its parent. Use the {@link FlameGraphGenerator} to render the tree
+ * as flame graph Json.
+ */
+public final class CallTree {
+	private static final int NO_PARENT = -1;
+	private static final int NO_NODE = -1;
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private StacktraceGraphModel model;
+	private int size;
+	private int[] parents = new int[DEFAULT_CAPACITY];
+	private int[] nodeIds = new int[DEFAULT_CAPACITY];
+	private int[] counts = new int[DEFAULT_CAPACITY];
+	private double[] weights = new double[DEFAULT_CAPACITY];
+
+	/**
+	 * (parent index << 32 | graph node id) -> tree index, while the tree is being built.
+	 */
+	private LongIntMap children = new LongIntMap();
+
+	/**
+	 * The children of each tree node, in compressed sparse row form, once the tree has been built.
+	 */
+	private int[] childOffsets;
+	private int[] childIndexes;
+
+	CallTree() {
+		parents[0] = NO_PARENT;
+		nodeIds[0] = NO_NODE;
+		size = 1;
+	}
+
+	/**
+	 * Builds a graph and its call tree in one pass over the items.
+	 * 
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param items
+	 *            the items to graph.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 * @param pool
+	 *            the (optional) pool to build the tree in. If null, the tree is built serially in
+	 *            the calling thread.
+	 * @return the call tree, with the graph available from {@link #getModel()}.
+	 */
+	public static CallTree build(
+		FrameSeparator frameSeparator, IItemCollection items, IAttribute<IQuantity> attribute, ForkJoinPool pool) {
+		GraphBuilder builder = StacktraceGraphModel.buildModel(frameSeparator, items,
+				Collections.singletonList(attribute), pool, CumulativeCounting.PER_FRAME, true);
+		CallTree tree = builder.callTree;
+		tree.model = new StacktraceGraphModel(frameSeparator, items, attribute, null, builder.nodes, builder.edges,
+				builder.totalTraceCount, builder.totalEdgeCount);
+		tree.freeze();
+		return tree;
+	}
+
+	/**
+	 * @return the graph built together with this tree.
+	 */
+	public StacktraceGraphModel getModel() {
+		return model;
+	}
+
+	/**
+	 * @return the number of tree nodes, including the root.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the index of the parent, or -1 for the root.
+	 */
+	public int getParent(int index) {
+		return parents[index];
+	}
+
+	/**
+	 * @return the graph node with the frame of the tree node, or null for the root.
+	 */
+	public Node getNode(int index) {
+		int nodeId = nodeIds[index];
+		return nodeId == NO_NODE ? null : model.getNodeStore().getNode(nodeId);
+	}
+
+	/**
+	 * @return the number of traces passing through the tree node, i.e. the traces with this calling
+	 *         context. The root has the count of all traces.
+	 */
+	public int getCount(int index) {
+		return counts[index];
+	}
+
+	/**
+	 * @return the summed weight of the traces passing through the tree node.
+	 */
+	public double getWeight(int index) {
+		return weights[index];
+	}
+
+	public int getChildCount(int index) {
+		return childOffsets[index + 1] - childOffsets[index];
+	}
+
+	/**
+	 * @return the tree index of a child of a tree node. The children are in the order they were
+	 *         first seen.
+	 */
+	public int getChild(int index, int childNumber) {
+		return childIndexes[childOffsets[index] + childNumber];
+	}
+
+	int getNodeId(int index) {
+		return nodeIds[index];
+	}
+
+	/**
+	 * Adds a trace to the tree.
+	 * 
+	 * @param nodePath
+	 *            the graph node ids of the frames, top frame first.
+	 */
+	void add(int[] nodePath, int count, double weight) {
+		int index = 0;
+		counts[0] += count;
+		weights[0] += weight;
+		for (int i = nodePath.length - 1; i >= 0; i--) {
+			index = getOrCreate(index, nodePath[i]);
+			counts[index] += count;
+			weights[index] += weight;
+		}
+	}
+
+	/**
+	 * Adds all the tree nodes of another tree to this one.
+	 * 
+	 * @param nodeMap
+	 *            the graph node id in the other tree -> the graph node id in this tree.
+	 */
+	void merge(CallTree other, int[] nodeMap) {
+		int[] indexMap = new int[other.size];
+		counts[0] += other.counts[0];
+		weights[0] += other.weights[0];
+		// Parents always come before their children
+		for (int i = 1; i < other.size; i++) {
+			int index = getOrCreate(indexMap[other.parents[i]], nodeMap[other.nodeIds[i]]);
+			indexMap[i] = index;
+			counts[index] += other.counts[i];
+			weights[index] += other.weights[i];
+		}
+	}
+
+	private int getOrCreate(int parent, int nodeId) {
+		long key = ((long) parent << 32) | nodeId;
+		int index = children.get(key);
+		if (index == LongIntMap.NO_VALUE) {
+			if (size == parents.length) {
+				grow();
+			}
+			index = size++;
+			parents[index] = parent;
+			nodeIds[index] = nodeId;
+			children.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Drops the lookup map, which is only needed while building, and indexes the children.
+	 */
+	private void freeze() {
+		children = null;
+		childOffsets = new int[size + 1];
+		for (int i = 1; i < size; i++) {
+			childOffsets[parents[i] + 1]++;
+		}
+		for (int i = 0; i < size; i++) {
+			childOffsets[i + 1] += childOffsets[i];
+		}
+		childIndexes = new int[Math.max(size - 1, 0)];
+		int[] fill = new int[size];
+		for (int i = 1; i < size; i++) {
+			childIndexes[childOffsets[parents[i]] + fill[parents[i]]++] = i;
+		}
+	}
+
+	private void grow() {
+		int capacity = parents.length * 2;
+		parents = Arrays.copyOf(parents, capacity);
+		nodeIds = Arrays.copyOf(nodeIds, capacity);
+		counts = Arrays.copyOf(counts, capacity);
+		weights = Arrays.copyOf(weights, capacity);
+	}
+}
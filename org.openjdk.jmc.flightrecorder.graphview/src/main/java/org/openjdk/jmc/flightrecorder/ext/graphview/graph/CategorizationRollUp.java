@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator.FrameCategorization;
+
+/**
+ * Derives the graph for a coarser frame categorization from the graph for a finer one, e.g. the
+ * class graph from the method graph, by merging the nodes whose frames are the same with the
+ * coarser separator, and summing their counts, weights and edges.
+ * <p>
+ * Since every frame of a trace maps to exactly one coarser frame, a trace in the coarser graph is
+ * the trace in the finer graph with each node replaced by its coarser node. With the default
+ * {@link StacktraceGraphModel.CumulativeCounting#PER_FRAME} counting, every count is added per
+ * frame or per call, so the sums are exactly what a build with the coarser separator would give.
+ * The nodes and edges also get the same ids, since they are created in the order the first of
+ * their finer nodes and edges were. Edges between finer nodes that merge become self-loops, just
+ * like consecutive frames with the same coarser frame do in a build.
+ */
+final class CategorizationRollUp {
+	private CategorizationRollUp() {
+	}
+
+	/**
+	 * @see StacktraceGraphModel#rollUp(FrameSeparator)
+	 */
+	static StacktraceGraphModel rollUp(StacktraceGraphModel model, FrameSeparator frameSeparator) {
+		FrameSeparator fineSeparator = model.getFrameSeparator();
+		if (getLevel(frameSeparator.getCategorization()) > getLevel(fineSeparator.getCategorization())
+				|| (frameSeparator.isDistinguishFramesByOptimization()
+						&& !fineSeparator.isDistinguishFramesByOptimization())) {
+			throw new IllegalArgumentException("Cannot roll up frames separated by " + fineSeparator.getCategorization()
+					+ " into the finer " + frameSeparator.getCategorization());
+		}
+		NodeTable nodes = model.getNodeTable();
+		EdgeTable edges = model.getEdgeTable();
+
+		Map<AggregatableFrame, Integer> coarseNodeIds = new HashMap<>();
+		int[] nodeMap = new int[nodes.size];
+		NodeTable coarseNodes = new NodeTable(nodes.size);
+		for (int i = 0; i < nodes.size; i++) {
+			AggregatableFrame frame = nodes.frames[i].withSeparator(frameSeparator);
+			Integer nodeId = coarseNodeIds.get(frame);
+			if (nodeId == null) {
+				nodeId = coarseNodes.add(frame);
+				coarseNodeIds.put(frame, nodeId);
+			}
+			int n = nodeId;
+			nodeMap[i] = n;
+			coarseNodes.count[n] += nodes.count[i];
+			coarseNodes.cumulativeCount[n] += nodes.cumulativeCount[i];
+			coarseNodes.weight[n] += nodes.weight[i];
+			coarseNodes.cumulativeWeight[n] += nodes.cumulativeWeight[i];
+		}
+
+		EdgeTable coarseEdges = new EdgeTable(coarseNodes, edges.size);
+		for (int e = 0; e < edges.size; e++) {
+			int edgeId = coarseEdges.getOrCreate(nodeMap[edges.from[e]], nodeMap[edges.to[e]]);
+			coarseEdges.count[edgeId] += edges.count[e];
+			coarseEdges.value[edgeId] += edges.value[e];
+		}
+		coarseEdges.freeze();
+		return new StacktraceGraphModel(frameSeparator, model.getItems(), model.getAttribute(), model.getTypeNames(),
+				coarseNodes, coarseEdges, model.getTotalTraceCount(), model.getTotalEdgeCount());
+	}
+
+	/**
+	 * @return the level of detail of a categorization, higher for finer categorizations.
+	 */
+	private static int getLevel(FrameCategorization categorization) {
+		switch (categorization) {
+		case PACKAGE:
+			return 0;
+		case CLASS:
+			return 1;
+		case METHOD:
+			return 2;
+		case LINE:
+			return 3;
+		default:
+			return 4;
+		}
+	}
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmc.common.IMCFrame;
+import org.openjdk.jmc.common.IMCStackTrace;
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+
+/**
+ * Builds a single stack trace graph from several producer threads at once, e.g. parser threads,
+ * or one thread per recording. Items are added with {@link #addItems(IItemCollection)} from any
+ * number of threads, and the graph is then turned into a {@link StacktraceGraphModel} with
+ * {@link #freeze()}.
+ * <p>
+ * All producers share the nodes and edges. Frames are mapped to nodes in a concurrent hash map, and
+ * edges are found in a striped map, where only the edges of one stripe share a lock. The counts and
+ * weights are kept in segmented atomic arrays, which grow without copying or locking. Each producer
+ * caches the node and edge ids it has seen, so the shared maps are mostly only used for new frames
+ * and edges, and pre-aggregates the items per unique stack trace, so the shared counters are
+ * updated once per unique trace and call, rather than once per item.
+ * <p>
+ * The node and edge ids are assigned in the order the producers happen to create them, so unlike
+ * for a serially built model, they differ between runs.
+ * <p>
+ * Instances of this class are thread safe.
+ */
+public final class ConcurrentGraphBuilder {
+	private static final int STRIPE_COUNT = 64;
+	private static final int MAX_PENDING_TRACES = 1 << 12;
+
+	private final FrameSeparator frameSeparator;
+	private final IAttribute<IQuantity> attribute;
+	private final AtomicBoolean frozen = new AtomicBoolean();
+
+	/**
+	 * Aggregatable frame -> node id
+	 */
+	private final ConcurrentHashMap<AggregatableFrame, Integer> nodeIds = new ConcurrentHashMap<>();
+	private final AtomicInteger nodeCounter = new AtomicInteger();
+	private final ReferenceColumn<AggregatableFrame> nodeFrames = new ReferenceColumn<>();
+	private final IntColumn nodeCount = new IntColumn();
+	private final IntColumn nodeCumulativeCount = new IntColumn();
+	private final DoubleColumn nodeWeight = new DoubleColumn();
+	private final DoubleColumn nodeCumulativeWeight = new DoubleColumn();
+
+	/**
+	 * (from node id << 32 | to node id) -> edge id, split into stripes that are locked separately.
+	 */
+	private final LongIntMap[] edgeStripes = new LongIntMap[STRIPE_COUNT];
+	private final AtomicInteger edgeCounter = new AtomicInteger();
+	private final IntColumn edgeFrom = new IntColumn();
+	private final IntColumn edgeTo = new IntColumn();
+	private final IntColumn edgeCount = new IntColumn();
+	private final DoubleColumn edgeValue = new DoubleColumn();
+
+	private final LongAdder totalTraceCount = new LongAdder();
+	private final LongAdder totalEdgeCount = new LongAdder();
+	private final ConcurrentHashMap<String, Boolean> typeNames = new ConcurrentHashMap<>();
+
+	private final ThreadLocal<Producer> producers = ThreadLocal.withInitial(Producer::new);
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 */
+	public ConcurrentGraphBuilder(FrameSeparator frameSeparator, IAttribute<IQuantity> attribute) {
+		this.frameSeparator = frameSeparator;
+		this.attribute = attribute;
+		for (int i = 0; i < STRIPE_COUNT; i++) {
+			edgeStripes[i] = new LongIntMap();
+		}
+	}
+
+	/**
+	 * Adds the stack traces of the items to the graph. Can be called concurrently from any number
+	 * of threads. All the items have been added to the graph when the call returns. Items without a
+	 * stack trace are skipped.
+	 * 
+	 * @param items
+	 *            the items to add.
+	 * @throws IllegalStateException
+	 *             if the builder has been frozen.
+	 */
+	public void addItems(IItemCollection items) {
+		for (IItemIterable iterable : items) {
+			addItems(iterable);
+		}
+	}
+
+	/**
+	 * Adds the stack traces of the items of an iterable to the graph.
+	 * 
+	 * @see #addItems(IItemCollection)
+	 */
+	public void addItems(IItemIterable iterable) {
+		if (frozen.get()) {
+			throw new IllegalStateException("The builder has been frozen");
+		}
+		typeNames.putIfAbsent(iterable.getType().getName(), Boolean.TRUE);
+		IMemberAccessor<IQuantity, IItem> accessor = attribute == null ? null
+				: iterable.getType().getAccessor(attribute.getKey());
+		Producer producer = producers.get();
+		try {
+			for (IItem item : iterable) {
+				producer.addItem(item, accessor);
+			}
+		} finally {
+			producer.flush();
+		}
+	}
+
+	/**
+	 * Creates the model. Must only be called when all calls to the add methods have returned, and
+	 * no more items can be added after this.
+	 * 
+	 * @return the model, with the node and edge data copied into ordinary node and edge tables.
+	 */
+	public StacktraceGraphModel freeze() {
+		frozen.set(true);
+		int nodeTotal = nodeCounter.get();
+		NodeTable nodes = new NodeTable(nodeTotal, 1);
+		for (int i = 0; i < nodeTotal; i++) {
+			nodes.add(nodeFrames.get(i));
+			nodes.count[i] = nodeCount.get(i);
+			nodes.cumulativeCount[i] = nodeCumulativeCount.get(i);
+			nodes.weight[i] = nodeWeight.get(i);
+			nodes.cumulativeWeight[i] = nodeCumulativeWeight.get(i);
+		}
+		int edgeTotal = edgeCounter.get();
+		EdgeTable edges = new EdgeTable(nodes, edgeTotal);
+		for (int i = 0; i < edgeTotal; i++) {
+			int e = edges.getOrCreate(edgeFrom.get(i), edgeTo.get(i));
+			edges.count[e] = edgeCount.get(i);
+			edges.value[e] = edgeValue.get(i);
+		}
+		edges.freeze();
+		return new StacktraceGraphModel(frameSeparator, null, attribute, String.join(", ", typeNames.keySet()),
+				nodes, edges, (int) totalTraceCount.sum(), (int) totalEdgeCount.sum());
+	}
+
+	private int getNodeId(AggregatableFrame frame) {
+		Integer nodeId = nodeIds.get(frame);
+		if (nodeId == null) {
+			nodeId = nodeIds.computeIfAbsent(frame, f -> {
+				int id = nodeCounter.getAndIncrement();
+				nodeFrames.set(id, f);
+				return id;
+			});
+		}
+		return nodeId;
+	}
+
+	private int getEdgeId(long key) {
+		int h = OpenAddressing.mix(key);
+		LongIntMap stripe = edgeStripes[h >>> (32 - Integer.numberOfTrailingZeros(STRIPE_COUNT))];
+		synchronized (stripe) {
+			int edgeId = stripe.get(key);
+			if (edgeId == LongIntMap.NO_VALUE) {
+				edgeId = edgeCounter.getAndIncrement();
+				edgeFrom.set(edgeId, (int) (key >>> 32));
+				edgeTo.set(edgeId, (int) key);
+				stripe.put(key, edgeId);
+			}
+			return edgeId;
+		}
+	}
+
+	/**
+	 * The state of one producer thread: caches of the node and edge ids it has seen, and the
+	 * unique traces it has not yet applied to the shared counters.
+	 */
+	private final class Producer {
+		/**
+		 * Frame instance -> node id
+		 */
+		private final IdentityIntMap frameNodeIds = new IdentityIntMap();
+
+		/**
+		 * (from node id << 32 | to node id) -> edge id
+		 */
+		private final LongIntMap edgeIds = new LongIntMap();
+
+		private TraceTable pendingTraces = new TraceTable();
+
+		void addItem(IItem item, IMemberAccessor<IQuantity, IItem> accessor) {
+			IMCStackTrace trace = GraphBuilder.getStackTrace(item);
+			if (trace == null) {
+				return;
+			}
+			int index = pendingTraces.get(trace);
+			if (index == IdentityIntMap.NO_VALUE) {
+				int[] nodePath = resolveNodePath(trace);
+				index = pendingTraces.get(nodePath);
+				if (index == IdentityIntMap.NO_VALUE) {
+					index = pendingTraces.add(trace, nodePath, resolveEdgePath(nodePath));
+				} else {
+					pendingTraces.put(trace, index);
+				}
+			}
+			pendingTraces.count[index]++;
+			if (accessor != null) {
+				IQuantity value = accessor.getMember(item);
+				if (value != null) {
+					pendingTraces.weight[index] += value.doubleValue();
+				}
+			}
+			if (pendingTraces.size >= MAX_PENDING_TRACES) {
+				flush();
+			}
+		}
+
+		private int[] resolveNodePath(IMCStackTrace trace) {
+			List<? extends IMCFrame> frames = trace.getFrames();
+			int[] nodePath = new int[frames.size()];
+			for (int i = 0; i < nodePath.length; i++) {
+				IMCFrame frame = frames.get(i);
+				int nodeId = frameNodeIds.get(frame);
+				if (nodeId == IdentityIntMap.NO_VALUE) {
+					nodeId = getNodeId(new AggregatableFrame(frameSeparator, frame));
+					frameNodeIds.put(frame, nodeId);
+				}
+				nodePath[i] = nodeId;
+			}
+			return nodePath;
+		}
+
+		private int[] resolveEdgePath(int[] nodePath) {
+			int[] edgePath = new int[Math.max(nodePath.length - 1, 0)];
+			for (int i = nodePath.length - 1; i > 0; i--) {
+				long key = ((long) nodePath[i] << 32) | nodePath[i - 1];
+				int edgeId = edgeIds.get(key);
+				if (edgeId == LongIntMap.NO_VALUE) {
+					edgeId = getEdgeId(key);
+					edgeIds.put(key, edgeId);
+				}
+				edgePath[nodePath.length - 1 - i] = edgeId;
+			}
+			return edgePath;
+		}
+
+		/**
+		 * Applies the pending traces to the shared counters, the same way as
+		 * {@link GraphBuilder#flush()} does.
+		 */
+		void flush() {
+			TraceTable traces = pendingTraces;
+			if (traces.size == 0) {
+				return;
+			}
+			long traceCount = 0;
+			long edgeTraceCount = 0;
+			for (int t = 0; t < traces.size; t++) {
+				int[] nodePath = traces.nodePaths[t];
+				if (nodePath.length == 0) {
+					continue;
+				}
+				int[] edgePath = traces.edgePaths[t];
+				int count = traces.count[t];
+				double value = traces.weight[t];
+				traceCount += count;
+				nodeCount.add(nodePath[0], count);
+				nodeWeight.add(nodePath[0], value);
+				for (int i = nodePath.length - 1; i > 0; i--) {
+					nodeCumulativeCount.add(nodePath[i], count);
+					nodeCumulativeCount.add(nodePath[i - 1], count);
+					nodeCumulativeWeight.add(nodePath[i], value);
+					nodeCumulativeWeight.add(nodePath[i - 1], value);
+					int edge = edgePath[nodePath.length - 1 - i];
+					edgeCount.add(edge, count);
+					edgeValue.add(edge, value);
+					edgeTraceCount += count;
+				}
+			}
+			totalTraceCount.add(traceCount);
+			totalEdgeCount.add(edgeTraceCount);
+			pendingTraces = new TraceTable();
+		}
+	}
+
+	/**
+	 * An int column split into lazily allocated segments of atomic arrays, so that it can grow
+	 * without copying or locking.
+	 */
+	private static final class IntColumn {
+		private final AtomicReferenceArray<AtomicIntegerArray> segments = new AtomicReferenceArray<>(
+				Segments.MAX_SEGMENTS);
+
+		int get(int index) {
+			AtomicIntegerArray segment = segments.get(index >>> Segments.SHIFT);
+			return segment == null ? 0 : segment.get(index & Segments.MASK);
+		}
+
+		void set(int index, int value) {
+			getSegment(index).set(index & Segments.MASK, value);
+		}
+
+		void add(int index, int delta) {
+			getSegment(index).addAndGet(index & Segments.MASK, delta);
+		}
+
+		private AtomicIntegerArray getSegment(int index) {
+			int s = index >>> Segments.SHIFT;
+			AtomicIntegerArray segment = segments.get(s);
+			if (segment == null) {
+				segments.compareAndSet(s, null, new AtomicIntegerArray(Segments.SIZE));
+				segment = segments.get(s);
+			}
+			return segment;
+		}
+	}
+
+	/**
+	 * A double column split into lazily allocated segments of atomic arrays, holding the raw long
+	 * bits of the doubles, since there are no atomic double arrays.
+	 */
+	private static final class DoubleColumn {
+		private final AtomicReferenceArray<AtomicLongArray> segments = new AtomicReferenceArray<>(
+				Segments.MAX_SEGMENTS);
+
+		double get(int index) {
+			AtomicLongArray segment = segments.get(index >>> Segments.SHIFT);
+			return segment == null ? 0 : Double.longBitsToDouble(segment.get(index & Segments.MASK));
+		}
+
+		void add(int index, double delta) {
+			if (delta == 0) {
+				return;
+			}
+			AtomicLongArray segment = getSegment(index);
+			int i = index & Segments.MASK;
+			long current;
+			do {
+				current = segment.get(i);
+			} while (!segment.compareAndSet(i, current,
+					Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta)));
+		}
+
+		private AtomicLongArray getSegment(int index) {
+			int s = index >>> Segments.SHIFT;
+			AtomicLongArray segment = segments.get(s);
+			if (segment == null) {
+				segments.compareAndSet(s, null, new AtomicLongArray(Segments.SIZE));
+				segment = segments.get(s);
+			}
+			return segment;
+		}
+	}
+
+	/**
+	 * A reference column split into lazily allocated segments of atomic arrays.
+	 */
+	private static final class ReferenceColumn<T> {
+		private final AtomicReferenceArray<AtomicReferenceArray<T>> segments = new AtomicReferenceArray<>(
+				Segments.MAX_SEGMENTS);
+
+		T get(int index) {
+			AtomicReferenceArray<T> segment = segments.get(index >>> Segments.SHIFT);
+			return segment == null ? null : segment.get(index & Segments.MASK);
+		}
+
+		void set(int index, T value) {
+			int s = index >>> Segments.SHIFT;
+			AtomicReferenceArray<T> segment = segments.get(s);
+			if (segment == null) {
+				segments.compareAndSet(s, null, new AtomicReferenceArray<T>(Segments.SIZE));
+				segment = segments.get(s);
+			}
+			segment.set(index & Segments.MASK, value);
+		}
+	}
+
+	private static final class Segments {
+		static final int SHIFT = 14;
+		static final int SIZE = 1 << SHIFT;
+		static final int MASK = SIZE - 1;
+		static final int MAX_SEGMENTS = 1 << (31 - SHIFT);
+	}
+}
@@ -1,20 +1,218 @@
 package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
 /**
  * Renders a {@link StacktraceGraphModel} in the Json format used by Cytoscape.
+ * <p>
+ * The elements are streamed straight from the node and edge tables of the model. Large graphs can
+ * also be split into pages of elements, so that a browser can load them progressively, adding one
+ * page at a time with cy.add(page.elements). All nodes come before all edges, so when the pages
+ * are added in order, the endpoints of an edge have always been added before the edge.
  * 
  * @see https://js.cytoscape.org.
  */
 public final class CytoscapeGenerator {
-	
+	private static final int BUFFER_SIZE = 8192;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private CytoscapeGenerator() {
+	}
+
 	/**
 	 * Renders a {@link StacktraceGraphModel} in Cytoscape format.
 	 */
 	public static String toCytoScapeJSon(StacktraceGraphModel model) {
 		StringBuilder builder = new StringBuilder(2048);
-		
-		// Convert to cytoscape format
-		
+		try {
+			writeCytoscapeJson(model, builder);
+		} catch (IOException e) {
+			// Can't happen, StringBuilder does not throw IOExceptions
+			throw new UncheckedIOException(e);
+		}
 		return builder.toString();
 	}
+
+	/**
+	 * Renders a {@link StacktraceGraphModel} in Cytoscape format, appending the text as it is
+	 * generated. The appendable is neither flushed nor closed.
+	 */
+	public static void writeCytoscapeJson(StacktraceGraphModel model, Appendable appendable) throws IOException {
+		writeElements(model, 0, getElementCount(model), appendable);
+	}
+
+	/**
+	 * Renders a {@link StacktraceGraphModel} in Cytoscape format, as UTF-8, optionally gzipped. The
+	 * stream is not closed.
+	 */
+	public static void writeCytoscapeJson(StacktraceGraphModel model, OutputStream out, boolean gzip)
+			throws IOException {
+		GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+		Writer writer = new OutputStreamWriter(gzip ? gzipOut : out, StandardCharsets.UTF_8);
+		writeCytoscapeJson(model, writer);
+		finish(writer, gzipOut);
+	}
+
+	/**
+	 * @return the number of pages needed for all the elements (nodes and edges) in the model.
+	 */
+	public static int getPageCount(StacktraceGraphModel model, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Page size must be positive");
+		}
+		long elementCount = getElementCount(model);
+		return (int) ((elementCount + pageSize - 1) / pageSize);
+	}
+
+	/**
+	 * Renders one page of elements of a {@link StacktraceGraphModel} in Cytoscape format. Each page
+	 * is a complete Json document, with the elements in the same format as the full document, and
+	 * the page number, page count and total element count.
+	 * 
+	 * @param pageSize
+	 *            the max number of elements (nodes and edges) per page.
+	 * @param page
+	 *            the zero based page number.
+	 */
+	public static void writeCytoscapeJsonPage(
+		StacktraceGraphModel model, int pageSize, int page, Appendable appendable) throws IOException {
+		int pageCount = getPageCount(model, pageSize);
+		// An empty model still has one, empty, page
+		if (page < 0 || page >= Math.max(pageCount, 1)) {
+			throw new IndexOutOfBoundsException("Page " + page + " of " + pageCount);
+		}
+		int start = page * pageSize;
+		writeElements(model, start, Math.min(start + pageSize, getElementCount(model)), page, pageCount,
+				appendable);
+	}
+
+	/**
+	 * Renders one page of elements of a {@link StacktraceGraphModel} in Cytoscape format, as UTF-8,
+	 * optionally gzipped. The stream is not closed.
+	 * 
+	 * @see #writeCytoscapeJsonPage(StacktraceGraphModel, int, int, Appendable)
+	 */
+	public static void writeCytoscapeJsonPage(
+		StacktraceGraphModel model, int pageSize, int page, OutputStream out, boolean gzip) throws IOException {
+		GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+		Writer writer = new OutputStreamWriter(gzip ? gzipOut : out, StandardCharsets.UTF_8);
+		writeCytoscapeJsonPage(model, pageSize, page, writer);
+		finish(writer, gzipOut);
+	}
+
+	/**
+	 * Flushes the writer, and writes the gzip trailer if compressed, without closing the
+	 * underlying stream.
+	 */
+	private static void finish(Writer writer, GZIPOutputStream gzipOut) throws IOException {
+		writer.flush();
+		if (gzipOut != null) {
+			gzipOut.finish();
+		}
+	}
+
+	private static int getElementCount(StacktraceGraphModel model) {
+		return model.getNodeStore().size() + model.getEdgeStore().size();
+	}
+
+	private static void writeElements(StacktraceGraphModel model, int start, int end, Appendable appendable)
+			throws IOException {
+		writeElements(model, start, end, -1, -1, appendable);
+	}
+
+	/**
+	 * Writes the elements in the range [start, end), where the nodes come first, followed by the
+	 * edges. A negative page means that this is not a paged document.
+	 */
+	private static void writeElements(
+		StacktraceGraphModel model, int start, int end, int page, int pageCount, Appendable appendable)
+			throws IOException {
+		NodeStore nodes = model.getNodeStore();
+		EdgeStore edges = model.getEdgeStore();
+		int nodeCount = nodes.size();
+		BufferedTextWriter out = new BufferedTextWriter(appendable);
+		out.append('{');
+		if (page >= 0) {
+			out.append("\"page\":").append(page);
+			out.append(",\"pageCount\":").append(pageCount);
+			out.append(",\"totalElements\":").append(getElementCount(model));
+			out.append(',');
+		}
+		out.append("\"elements\":{\"nodes\":[");
+		int nodeEnd = Math.min(end, nodeCount);
+		for (int i = start; i < nodeEnd; i++) {
+			if (i > start) {
+				out.append(',');
+			}
+			emitNode(out, nodes, i);
+		}
+		out.append("],\"edges\":[");
+		int edgeStart = Math.max(start, nodeCount) - nodeCount;
+		int edgeEnd = end - nodeCount;
+		for (int i = edgeStart; i < edgeEnd; i++) {
+			if (i > edgeStart) {
+				out.append(',');
+			}
+			emitEdge(out, edges, i);
+		}
+		out.append("]}}");
+		out.flush();
+	}
+
+	private static void emitNode(BufferedTextWriter out, NodeStore nodes, int nodeId) throws IOException {
+		out.append("{\"data\":{\"id\":\"N").append(nodeId);
+		out.append("\",\"label\":");
+		appendJsonString(out, nodes.getLabel(nodeId));
+		out.append(",\"count\":").append(nodes.getCount(nodeId));
+		out.append(",\"cumulativeCount\":").append(nodes.getCumulativeCount(nodeId));
+		out.append(",\"weight\":").append(nodes.getWeight(nodeId));
+		out.append(",\"cumulativeWeight\":").append(nodes.getCumulativeWeight(nodeId));
+		out.append("}}");
+	}
+
+	private static void emitEdge(BufferedTextWriter out, EdgeStore edges, int edgeId) throws IOException {
+		out.append("{\"data\":{\"id\":\"E").append(edgeId);
+		out.append("\",\"source\":\"N").append(edges.getFrom(edgeId));
+		out.append("\",\"target\":\"N").append(edges.getTo(edgeId));
+		out.append("\",\"count\":").append(edges.getCount(edgeId));
+		out.append(",\"value\":").append(edges.getValue(edgeId));
+		out.append("}}");
+	}
+
+	static void appendJsonString(BufferedTextWriter out, String text) throws IOException {
+		out.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
 }
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+
+/**
+ * Compares the stack trace graphs of two sets of items, e.g. recordings from before and after a
+ * change, node by node and edge by edge.
+ * <p>
+ * Both sets of items are aggregated into the same graph, with a shared frame dictionary, so the
+ * nodes and edges of the two graphs are matched by id rather than by comparing frames. The
+ * baseline items are added first, so the nodes and edges of the baseline keep their ids in the
+ * combined graph.
+ * <p>
+ * The absolute deltas are the comparison values minus the baseline values. Since the two sets of
+ * items usually differ in size, e.g. by covering different lengths of time, the relative deltas
+ * compare the fraction of the total count or weight instead. A positive delta means that more
+ * time, allocation etc is spent in the comparison, i.e. a regression. If one of the totals is zero,
+ * e.g. when a set of items is empty, the fractions of that side are undefined. The relative delta
+ * is then positive infinity for what is only found in the comparison, negative infinity for what
+ * is only found in the baseline, and zero for what is found in neither.
+ * <p>
+ * Instances of this class are thread safe.
+ */
+public final class DiffGraphModel {
+	private final StacktraceGraphModel baseline;
+	private final StacktraceGraphModel model;
+	private final NodeTable baselineNodes;
+	private final EdgeTable baselineEdges;
+	private final NodeTable nodes;
+	private final EdgeTable edges;
+	private final double baselineTotalWeight;
+	private final double totalWeight;
+	private final double baselineTotalValue;
+	private final double totalValue;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param baselineItems
+	 *            the items to compare against.
+	 * @param comparisonItems
+	 *            the items to compare.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 */
+	public DiffGraphModel(
+		FrameSeparator frameSeparator, IItemCollection baselineItems, IItemCollection comparisonItems,
+		IAttribute<IQuantity> attribute) {
+		GraphBuilder builder = new GraphBuilder(frameSeparator);
+		for (IItemIterable iterable : baselineItems) {
+			builder.addItems(iterable, attribute);
+		}
+		builder.flush();
+		baselineNodes = builder.nodes.copy();
+		baselineEdges = builder.edges.copy(baselineNodes);
+		baseline = new StacktraceGraphModel(frameSeparator, baselineItems, attribute, null, baselineNodes,
+				baselineEdges, builder.totalTraceCount, builder.totalEdgeCount);
+
+		// Continue with the same builder, so that the comparison reuses the baseline node and edge ids
+		builder.clearValues();
+		for (IItemIterable iterable : comparisonItems) {
+			builder.addItems(iterable, attribute);
+		}
+		builder.flush();
+		builder.edges.freeze();
+		nodes = builder.nodes;
+		edges = builder.edges;
+		model = new StacktraceGraphModel(frameSeparator, comparisonItems, attribute, null, nodes, edges,
+				builder.totalTraceCount, builder.totalEdgeCount);
+		baselineTotalWeight = sumWeights(baselineNodes);
+		totalWeight = sumWeights(nodes);
+		baselineTotalValue = sumValues(baselineEdges);
+		totalValue = sumValues(edges);
+	}
+
+	/**
+	 * Creates a diff of two pruned graphs. The nodes of the baseline must be the first nodes of the
+	 * comparison, while the edges are matched by their end points.
+	 */
+	private DiffGraphModel(StacktraceGraphModel baseline, StacktraceGraphModel comparison) {
+		this.baseline = baseline;
+		baselineNodes = baseline.getNodeTable();
+		baselineEdges = baseline.getEdgeTable();
+		nodes = comparison.getNodeTable();
+		// Give the comparison edges the ids of the baseline edges, the nodes already have them
+		EdgeTable comparisonEdges = comparison.getEdgeTable();
+		edges = new EdgeTable(nodes, baselineEdges.size + comparisonEdges.size);
+		for (int i = 0; i < baselineEdges.size; i++) {
+			edges.getOrCreate(baselineEdges.from[i], baselineEdges.to[i]);
+		}
+		for (int i = 0; i < comparisonEdges.size; i++) {
+			int edgeId = edges.getOrCreate(comparisonEdges.from[i], comparisonEdges.to[i]);
+			edges.count[edgeId] = comparisonEdges.count[i];
+			edges.value[edgeId] = comparisonEdges.value[i];
+		}
+		edges.freeze();
+		model = new StacktraceGraphModel(comparison.getFrameSeparator(), comparison.getItems(),
+				comparison.getAttribute(), comparison.getTypeNames(), nodes, edges, comparison.getTotalTraceCount(),
+				comparison.getTotalEdgeCount());
+		baselineTotalWeight = sumWeights(baselineNodes);
+		totalWeight = sumWeights(nodes);
+		baselineTotalValue = sumValues(baselineEdges);
+		totalValue = sumValues(edges);
+	}
+
+	/**
+	 * Prunes both graphs of the diff, keeping the same nodes in both, see
+	 * {@link GraphPruner#prune(StacktraceGraphModel, double, double, int)}. A node is kept if it is
+	 * important enough in either graph, relative to the total trace count of that graph. The edges
+	 * of each graph are reconnected and thresholded separately.
+	 * 
+	 * @param nodeFraction
+	 *            nodes with a cumulative count below this fraction of the total trace count in both
+	 *            graphs are removed, e.g. 0.005.
+	 * @param edgeFraction
+	 *            edges with a count below this fraction of the total trace count are removed, after
+	 *            reconnecting, e.g. 0.001.
+	 * @param maxNodes
+	 *            the max number of nodes to keep, or 0 for no limit.
+	 * @return a new diff of the pruned graphs.
+	 */
+	public DiffGraphModel prune(double nodeFraction, double edgeFraction, int maxNodes) {
+		// Compare the importance in the two graphs on the scale of the larger one
+		int total = Math.max(model.getTotalTraceCount(), baseline.getTotalTraceCount());
+		int[] importance = new int[nodes.size];
+		for (int i = 0; i < nodes.size; i++) {
+			importance[i] = scale(GraphPruner.getImportance(nodes, i), model.getTotalTraceCount(), total);
+			if (i < baselineNodes.size) {
+				importance[i] = Math.max(importance[i],
+						scale(GraphPruner.getImportance(baselineNodes, i), baseline.getTotalTraceCount(), total));
+			}
+		}
+		boolean[] keep = GraphPruner.selectNodes(importance, nodeFraction * total, maxNodes);
+		// The kept nodes keep their relative order, so the baseline nodes are still the first ones
+		return new DiffGraphModel(
+				GraphPruner.prune(baseline, Arrays.copyOf(keep, baselineNodes.size), edgeFraction),
+				GraphPruner.prune(model, keep, edgeFraction));
+	}
+
+	private static int scale(int value, int total, int newTotal) {
+		return total == 0 ? 0 : (int) ((long) value * newTotal / total);
+	}
+
+	/**
+	 * @return the graph of the baseline items. The node and edge ids are the same as in
+	 *         {@link #getModel()}.
+	 */
+	public StacktraceGraphModel getBaseline() {
+		return baseline;
+	}
+
+	/**
+	 * @return the graph of the comparison items, also containing the nodes and edges only found in
+	 *         the baseline, with zero counts and weights. The nodes and edges of this graph are the
+	 *         ones to pass to the delta methods.
+	 */
+	public StacktraceGraphModel getModel() {
+		return model;
+	}
+
+	/**
+	 * @return the comparison count minus the baseline count of a node.
+	 */
+	public int getCountDelta(Node node) {
+		int nodeId = node.nodeId;
+		return nodes.count[nodeId] - (nodeId < baselineNodes.size ? baselineNodes.count[nodeId] : 0);
+	}
+
+	/**
+	 * @return the comparison cumulative count minus the baseline cumulative count of a node.
+	 */
+	public int getCumulativeCountDelta(Node node) {
+		int nodeId = node.nodeId;
+		return nodes.cumulativeCount[nodeId]
+				- (nodeId < baselineNodes.size ? baselineNodes.cumulativeCount[nodeId] : 0);
+	}
+
+	/**
+	 * @return the comparison weight minus the baseline weight of a node.
+	 */
+	public double getWeightDelta(Node node) {
+		int nodeId = node.nodeId;
+		return nodes.weight[nodeId] - (nodeId < baselineNodes.size ? baselineNodes.weight[nodeId] : 0);
+	}
+
+	/**
+	 * @return the comparison cumulative weight minus the baseline cumulative weight of a node.
+	 */
+	public double getCumulativeWeightDelta(Node node) {
+		int nodeId = node.nodeId;
+		return nodes.cumulativeWeight[nodeId]
+				- (nodeId < baselineNodes.size ? baselineNodes.cumulativeWeight[nodeId] : 0);
+	}
+
+	/**
+	 * @return the comparison count minus the baseline count of an edge.
+	 */
+	public int getCountDelta(Edge edge) {
+		int edgeId = edge.edgeId;
+		return edges.count[edgeId] - (edgeId < baselineEdges.size ? baselineEdges.count[edgeId] : 0);
+	}
+
+	/**
+	 * @return the comparison value minus the baseline value of an edge.
+	 */
+	public double getValueDelta(Edge edge) {
+		int edgeId = edge.edgeId;
+		return edges.value[edgeId] - (edgeId < baselineEdges.size ? baselineEdges.value[edgeId] : 0);
+	}
+
+	/**
+	 * @return the difference in the fraction of all traces that have the node as top frame, in
+	 *         the range [-1, 1], or infinite if a total is zero.
+	 */
+	public double getRelativeCountDelta(Node node) {
+		int nodeId = node.nodeId;
+		return relativeDelta(nodes.count[nodeId], model.getTotalTraceCount(),
+				nodeId < baselineNodes.size ? baselineNodes.count[nodeId] : 0, baseline.getTotalTraceCount());
+	}
+
+	/**
+	 * @return the difference in the fraction of the total weight of the node, in the range
+	 *         [-1, 1], or infinite if a total is zero.
+	 */
+	public double getRelativeWeightDelta(Node node) {
+		int nodeId = node.nodeId;
+		return relativeDelta(nodes.weight[nodeId], totalWeight,
+				nodeId < baselineNodes.size ? baselineNodes.weight[nodeId] : 0, baselineTotalWeight);
+	}
+
+	/**
+	 * @return the difference in the fraction of all edge traversals that are traversals of the
+	 *         edge, in the range [-1, 1], or infinite if a total is zero.
+	 */
+	public double getRelativeCountDelta(Edge edge) {
+		int edgeId = edge.edgeId;
+		return relativeDelta(edges.count[edgeId], model.getTotalEdgeCount(),
+				edgeId < baselineEdges.size ? baselineEdges.count[edgeId] : 0, baseline.getTotalEdgeCount());
+	}
+
+	/**
+	 * @return the difference in the fraction of the total edge value of the edge, in the range
+	 *         [-1, 1], or infinite if a total is zero.
+	 */
+	public double getRelativeValueDelta(Edge edge) {
+		int edgeId = edge.edgeId;
+		return relativeDelta(edges.value[edgeId], totalValue,
+				edgeId < baselineEdges.size ? baselineEdges.value[edgeId] : 0, baselineTotalValue);
+	}
+
+	private static double relativeDelta(double value, double total, double baselineValue, double baselineTotal) {
+		if (baselineTotal == 0) {
+			return value == 0 ? 0 : Math.copySign(Double.POSITIVE_INFINITY, value);
+		} else if (total == 0) {
+			return baselineValue == 0 ? 0 : -Math.copySign(Double.POSITIVE_INFINITY, baselineValue);
+		}
+		return value / total - baselineValue / baselineTotal;
+	}
+
+	private static double sumWeights(NodeTable table) {
+		double sum = 0;
+		for (int i = 0; i < table.size; i++) {
+			sum += table.weight[i];
+		}
+		return sum;
+	}
+
+	private static double sumValues(EdgeTable table) {
+		double sum = 0;
+		for (int i = 0; i < table.size; i++) {
+			sum += table.value[i];
+		}
+		return sum;
+	}
+}
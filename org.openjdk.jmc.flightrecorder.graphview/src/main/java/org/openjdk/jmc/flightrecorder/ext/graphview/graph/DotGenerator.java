@@ -2,6 +2,11 @@ package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,6 +35,41 @@ public final class DotGenerator {
 	private static final String DEFAULT_NODE_SIZE_ATTRIBUTE = "count";
 	private static final String DEFAULT_MIN_NODE_FONT_SIZE = "8";
 	private static final String DEFAULT_MAX_NODE_FONT_SIZE = "32";
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_EDGE_COLOR_VALUE = 0xb2;
+	private static final int MAX_DIFF_COLOR_INDEX = 0xff;
+
+	/**
+	 * Edge colors, from red to as gray as possible, indexed by the green and blue component.
+	 */
+	private static final String[] EDGE_COLORS = new String[MAX_EDGE_COLOR_VALUE + 1];
+
+	/**
+	 * Diff colors, from the neutral node fill color to red for regressions and to green for
+	 * improvements, indexed by the magnitude of the change.
+	 */
+	private static final String[] REGRESSION_COLORS = new String[MAX_DIFF_COLOR_INDEX + 1];
+	private static final String[] IMPROVEMENT_COLORS = new String[MAX_DIFF_COLOR_INDEX + 1];
+
+	static {
+		for (int i = 0; i < EDGE_COLORS.length; i++) {
+			EDGE_COLORS[i] = String.format("#%02x%02x%02x", MAX_EDGE_COLOR_VALUE, i, i);
+		}
+		for (int i = 0; i <= MAX_DIFF_COLOR_INDEX; i++) {
+			REGRESSION_COLORS[i] = interpolateColor(0xe1e1e1, 0xe03030, i);
+			IMPROVEMENT_COLORS[i] = interpolateColor(0xe1e1e1, 0x30b030, i);
+		}
+	}
+
+	private static String interpolateColor(int from, int to, int index) {
+		int color = 0;
+		for (int shift = 16; shift >= 0; shift -= 8) {
+			int fromComponent = (from >> shift) & 0xff;
+			int toComponent = (to >> shift) & 0xff;
+			color |= (fromComponent + (toComponent - fromComponent) * index / MAX_DIFF_COLOR_INDEX) << shift;
+		}
+		return String.format("#%06x", color);
+	}
 
 	public enum ConfigurationKey {
 		/**
@@ -97,7 +137,28 @@ public final class DotGenerator {
 		/**
 		 * The min edge weight to use for the least traveled path.
 		 */
-		MinEdgeWeight
+		MinEdgeWeight,
+		/**
+		 * Nodes with a cumulative count below this fraction of the total are pruned before
+		 * rendering, e.g. 0.005. Need to be parseable to a number.
+		 * 
+		 * @see GraphPruner
+		 */
+		NodeFraction,
+		/**
+		 * Edges with a count below this fraction of the total are pruned before rendering, e.g.
+		 * 0.001. Need to be parseable to a number.
+		 * 
+		 * @see GraphPruner
+		 */
+		EdgeFraction,
+		/**
+		 * The max number of nodes to render, the ones with the highest cumulative counts. Need to
+		 * be parseable to a number.
+		 * 
+		 * @see GraphPruner
+		 */
+		MaxNodes
 	}
 
 	private final static class NodeConfigurator {
@@ -114,16 +175,17 @@ public final class DotGenerator {
 		private final String fillColor;
 
 		public NodeConfigurator(StacktraceGraphModel model, Map<ConfigurationKey, String> configuration) {
+			GraphStatistics statistics = model.getStatistics();
 			useCount = getConf(configuration, ConfigurationKey.NodeSizeAttribute, COUNT).equals(COUNT);
-			minCount = model.findNodeMinCount();
-			maxCount = model.findNodeMaxCount();
+			minCount = statistics.getNodeMinCount();
+			maxCount = statistics.getNodeMaxCount();
 
 			if (useCount) {
 				maxRange = maxCount;
 				minRange = minCount;
 			} else {
-				maxRange = model.findNodeMaxWeight();
-				minRange = model.findNodeMinWeight();
+				maxRange = statistics.getNodeMaxWeight();
+				minRange = statistics.getNodeMinWeight();
 			}
 			maxFontSize = Integer
 					.parseInt(getConf(configuration, ConfigurationKey.MaxNodeFontSize, DEFAULT_MAX_NODE_FONT_SIZE));
@@ -152,17 +214,18 @@ public final class DotGenerator {
 		private final String style;
 
 		public EdgeConfigurator(StacktraceGraphModel model, Map<ConfigurationKey, String> configuration) {
+			GraphStatistics statistics = model.getStatistics();
 			useCount = getConf(configuration, ConfigurationKey.NodeSizeAttribute, DEFAULT_NODE_SIZE_ATTRIBUTE)
 					.equals(DEFAULT_NODE_SIZE_ATTRIBUTE);
-			minCount = model.findEdgeMinCount();
-			maxCount = model.findEdgeMaxCount();
+			minCount = statistics.getEdgeMinCount();
+			maxCount = statistics.getEdgeMaxCount();
 
 			if (useCount) {
 				minRange = minCount;
 				maxRange = maxCount;
 			} else {
-				minRange = model.findEdgeMinValue();
-				maxRange = model.findEdgeMaxValue();
+				minRange = statistics.getEdgeMinValue();
+				maxRange = statistics.getEdgeMaxValue();
 			}
 
 			minWeight = Integer
@@ -172,19 +235,13 @@ public final class DotGenerator {
 			style = getConf(configuration, ConfigurationKey.EdgeStyle, DEFAULT_EDGE_STYLE);
 		}
 
-		public String generateTooltip(Edge e) {
-			return e.getFrom().getFrame().getHumanReadableSeparatorSensitiveString() + " -> "
-					+ e.getTo().getFrame().getHumanReadableSeparatorSensitiveString() + " (" + getPercentage(e) + " %)";
-		}
-
-		private String getPercentage(Edge e) {
-			double val = 0;
+		public double getPercentage(Edge e) {
+			// All edges of a graph of a diff can be empty
 			if (useCount) {
-				val = ((double) e.getCount()) / maxCount;
+				return maxCount == 0 ? 0 : ((double) e.getCount()) / maxCount;
 			} else {
-				val = e.getValue() / maxRange;
+				return maxRange == 0 ? 0 : e.getValue() / maxRange;
 			}
-			return String.format("%.3f", val);
 		}
 
 		/**
@@ -207,13 +264,69 @@ public final class DotGenerator {
 		public String getColor(Edge edge) {
 			// if weight == 0, then have as gray as possible,
 			// if weight == MAX_WEIGHT, keep it red.
-			// TODO Auto-generated method stub
-			int color = 0xb2 << 16;
 			double value = useCount ? edge.getCount() : edge.getValue();
 			double fraction = (value - minRange) / (maxRange - minRange);
-			int colorval = (int) ((1 - fraction) * 0xb2);
-			color = color | (colorval << 8) | colorval;
-			return "#" + Integer.toHexString(color);
+			int colorval = (int) ((1 - fraction) * MAX_EDGE_COLOR_VALUE);
+			return EDGE_COLORS[Math.max(0, Math.min(colorval, MAX_EDGE_COLOR_VALUE))];
+		}
+	}
+
+	/**
+	 * Colors the nodes and edges of a {@link DiffGraphModel} by how much they changed, relative to
+	 * the largest change in the graph.
+	 */
+	private final static class DiffConfigurator {
+		private final DiffGraphModel diff;
+		private final boolean useCount;
+		private final double maxNodeDelta;
+		private final double maxEdgeDelta;
+
+		public DiffConfigurator(DiffGraphModel diff, Map<ConfigurationKey, String> configuration) {
+			this.diff = diff;
+			useCount = getConf(configuration, ConfigurationKey.NodeSizeAttribute, DEFAULT_NODE_SIZE_ATTRIBUTE)
+					.equals(DEFAULT_NODE_SIZE_ATTRIBUTE);
+			// Infinite deltas get the strongest color, and do not dilute the finite ones
+			double maxNode = 0;
+			for (Node node : diff.getModel().getNodes()) {
+				maxNode = getMaxFinite(maxNode, getDelta(node));
+			}
+			double maxEdge = 0;
+			for (Edge edge : diff.getModel().getEdges()) {
+				maxEdge = getMaxFinite(maxEdge, getDelta(edge));
+			}
+			maxNodeDelta = maxNode;
+			maxEdgeDelta = maxEdge;
+		}
+
+		public double getDelta(Node node) {
+			return useCount ? diff.getRelativeCountDelta(node) : diff.getRelativeWeightDelta(node);
+		}
+
+		public double getDelta(Edge edge) {
+			return useCount ? diff.getRelativeCountDelta(edge) : diff.getRelativeValueDelta(edge);
+		}
+
+		public String getColor(Node node) {
+			return getColor(getDelta(node), maxNodeDelta);
+		}
+
+		public String getColor(Edge edge) {
+			return getColor(getDelta(edge), maxEdgeDelta);
+		}
+
+		private static double getMaxFinite(double max, double delta) {
+			return Double.isInfinite(delta) ? max : Math.max(max, Math.abs(delta));
+		}
+
+		private static String getColor(double delta, double maxDelta) {
+			int index;
+			if (Double.isInfinite(delta)) {
+				index = MAX_DIFF_COLOR_INDEX;
+			} else {
+				index = maxDelta == 0 ? 0 : (int) Math.round(Math.abs(delta) / maxDelta * MAX_DIFF_COLOR_INDEX);
+				index = Math.min(index, MAX_DIFF_COLOR_INDEX);
+			}
+			return delta >= 0 ? REGRESSION_COLORS[index] : IMPROVEMENT_COLORS[index];
 		}
 	}
 
@@ -222,115 +335,266 @@ public final class DotGenerator {
 	 */
 	public static String toDot(StacktraceGraphModel model, Map<ConfigurationKey, String> configuration) {
 		StringBuilder builder = new StringBuilder(2048);
+		try {
+			writeDot(model, configuration, builder);
+		} catch (IOException e) {
+			// Can't happen, StringBuilder does not throw IOExceptions
+			throw new UncheckedIOException(e);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Renders a {@link StacktraceGraphModel} in DOT format to a channel. The output is encoded as
+	 * UTF-8 and written through a bounded buffer, so the full text is never held in memory. The
+	 * channel is not closed.
+	 */
+	public static void writeDot(
+		StacktraceGraphModel model, Map<ConfigurationKey, String> configuration, WritableByteChannel channel)
+			throws IOException {
+		Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), WRITE_BUFFER_SIZE);
+		writeDot(model, configuration, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Renders a {@link StacktraceGraphModel} in DOT format, appending the text as it is generated.
+	 * For example, a {@link Writer} can be used to stream the output. The text is passed on in
+	 * chunks from a small fixed size buffer, and the appendable is neither flushed nor closed.
+	 * <p>
+	 * Apart from some constant setup, nothing is allocated per node or edge, so the cost of
+	 * rendering is dominated by the size of the output.
+	 * <p>
+	 * If any of {@link ConfigurationKey#NodeFraction}, {@link ConfigurationKey#EdgeFraction} or
+	 * {@link ConfigurationKey#MaxNodes} are configured, the model is pruned with
+	 * {@link GraphPruner} before rendering.
+	 */
+	public static void writeDot(
+		StacktraceGraphModel model, Map<ConfigurationKey, String> configuration, Appendable appendable)
+			throws IOException {
+		writeDot(pruneIfConfigured(model, configuration), null, configuration, appendable);
+	}
+
+	private static StacktraceGraphModel pruneIfConfigured(
+		StacktraceGraphModel model, Map<ConfigurationKey, String> configuration) {
+		if (!isPruningConfigured(configuration)) {
+			return model;
+		}
+		return GraphPruner.prune(model, getFraction(configuration, ConfigurationKey.NodeFraction),
+				getFraction(configuration, ConfigurationKey.EdgeFraction), getMaxNodes(configuration));
+	}
+
+	private static DiffGraphModel pruneIfConfigured(DiffGraphModel diff, Map<ConfigurationKey, String> configuration) {
+		if (!isPruningConfigured(configuration)) {
+			return diff;
+		}
+		return diff.prune(getFraction(configuration, ConfigurationKey.NodeFraction),
+				getFraction(configuration, ConfigurationKey.EdgeFraction), getMaxNodes(configuration));
+	}
+
+	private static boolean isPruningConfigured(Map<ConfigurationKey, String> configuration) {
+		return configuration.get(ConfigurationKey.NodeFraction) != null
+				|| configuration.get(ConfigurationKey.EdgeFraction) != null
+				|| configuration.get(ConfigurationKey.MaxNodes) != null;
+	}
+
+	private static double getFraction(Map<ConfigurationKey, String> configuration, ConfigurationKey key) {
+		String fraction = configuration.get(key);
+		return fraction == null ? 0 : Double.parseDouble(fraction);
+	}
+
+	private static int getMaxNodes(Map<ConfigurationKey, String> configuration) {
+		String maxNodes = configuration.get(ConfigurationKey.MaxNodes);
+		return maxNodes == null ? 0 : Integer.parseInt(maxNodes);
+	}
+
+	/**
+	 * Renders a {@link DiffGraphModel} in DOT format. The graph is the comparison graph, with the
+	 * nodes and edges colored red for regressions and green for improvements, by their change in
+	 * the fraction of the total count, or weight, depending on the
+	 * {@link ConfigurationKey#NodeSizeAttribute}. Nodes and edges only found in one of the graphs
+	 * of a diff where the other graph is empty have an infinite delta, and get the strongest color.
+	 * <p>
+	 * The diff is pruned the same way as a single graph, see {@link DiffGraphModel#prune}.
+	 */
+	public static String toDot(DiffGraphModel diff, Map<ConfigurationKey, String> configuration) {
+		StringBuilder builder = new StringBuilder(2048);
+		try {
+			writeDot(diff, configuration, builder);
+		} catch (IOException e) {
+			// Can't happen, StringBuilder does not throw IOExceptions
+			throw new UncheckedIOException(e);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Renders a {@link DiffGraphModel} in DOT format, appending the text as it is generated.
+	 * 
+	 * @see #toDot(DiffGraphModel, Map)
+	 * @see #writeDot(StacktraceGraphModel, Map, Appendable)
+	 */
+	public static void writeDot(
+		DiffGraphModel diff, Map<ConfigurationKey, String> configuration, Appendable appendable)
+			throws IOException {
+		DiffGraphModel prunedDiff = pruneIfConfigured(diff, configuration);
+		writeDot(prunedDiff.getModel(), new DiffConfigurator(prunedDiff, configuration), configuration, appendable);
+	}
+
+	private static void writeDot(
+		StacktraceGraphModel model, DiffConfigurator diffConfigurator, Map<ConfigurationKey, String> configuration,
+		Appendable appendable) throws IOException {
+		BufferedTextWriter out = new BufferedTextWriter(appendable);
 		String graphName = getConf(configuration, ConfigurationKey.Name, DEFAULT_NAME);
-		builder.append(String.format("digraph \"%s\" {\n", graphName));
+		out.append("digraph \"");
+		out.append(graphName);
+		out.append("\" {\n");
 
-		createDefaultNodeSettingsEntry(builder, configuration);
-		createSubgraphNode(builder, graphName, configuration, model);
+		createDefaultNodeSettingsEntry(out, configuration);
+		createSubgraphNode(out, graphName, configuration, model, diffConfigurator);
 
 		// Convert Nodes
 		NodeConfigurator nodeConfigurator = new NodeConfigurator(model, configuration);
-		model.getNodes().forEach((node) -> emitNode(builder, model, nodeConfigurator, node));
+		for (Node node : model.getNodes()) {
+			emitNode(out, model, nodeConfigurator, diffConfigurator, node);
+		}
 
 		// Convert Edges
 		EdgeConfigurator edgeConfigurator = new EdgeConfigurator(model, configuration);
-		model.getEdges().forEach((edge) -> emitEdge(builder, model, edgeConfigurator, edge));
+		for (Edge edge : model.getEdges()) {
+			emitEdge(out, edgeConfigurator, diffConfigurator, edge);
+		}
 
-		builder.append("}");
-		return builder.toString();
+		out.append("}");
+		out.flush();
 	}
 
 	private static void createDefaultNodeSettingsEntry(
-		StringBuilder builder, Map<ConfigurationKey, String> configuration) {
-		builder.append("node [style=");
-		builder.append(getConf(configuration, ConfigurationKey.Style, DEFAULT_STYLE));
-		builder.append(" fillcolor=\"");
-		builder.append(getConf(configuration, ConfigurationKey.Fillcolor, DEFAULT_FILL_COLOR));
-		builder.append("\" fontname=\"");
-		builder.append(getConf(configuration, ConfigurationKey.Fontname, DEFAULT_FONT_NAME));
-		builder.append("\"]\n");
+		BufferedTextWriter out, Map<ConfigurationKey, String> configuration) throws IOException {
+		out.append("node [style=");
+		out.append(getConf(configuration, ConfigurationKey.Style, DEFAULT_STYLE));
+		out.append(" fillcolor=\"");
+		out.append(getConf(configuration, ConfigurationKey.Fillcolor, DEFAULT_FILL_COLOR));
+		out.append("\" fontname=\"");
+		out.append(getConf(configuration, ConfigurationKey.Fontname, DEFAULT_FONT_NAME));
+		out.append("\"]\n");
 	}
 
 	private static void emitEdge(
-		StringBuilder builder, StacktraceGraphModel model, EdgeConfigurator edgeConfigurator, Edge edge) {
-		builder.append("N");
-		builder.append(edge.getFrom().getNodeId());
-		builder.append(" -> N");
-		builder.append(edge.getTo().getNodeId());
-		builder.append(" [label=\"");
+		BufferedTextWriter out, EdgeConfigurator edgeConfigurator, DiffConfigurator diffConfigurator, Edge edge)
+			throws IOException {
+		Node from = edge.getFrom();
+		Node to = edge.getTo();
+		out.append('N');
+		out.append(from.nodeId);
+		out.append(" -> N");
+		out.append(to.nodeId);
+		out.append(" [label=\"");
 		if (edgeConfigurator.useCount) {
-			builder.append(edge.count);
+			out.append(edge.getCount());
 		} else {
-			builder.append(edge.value);
+			out.append(edge.getValue());
 		}
-		builder.append("\"");
+		out.append('"');
 		int weight = edgeConfigurator.getWeight(edge);
 		if (weight >= 2) {
-			builder.append(" weight=");
-			builder.append(weight);
+			out.append(" weight=");
+			out.append(weight);
 		}
-		builder.append(edgeConfigurator.isMax(edge) ? " penwidth=2 " : " ");
-		builder.append("color=\"");
-		builder.append(edgeConfigurator.getColor(edge));
-		builder.append("\" tooltip=\"");
-		String tooltip = edgeConfigurator.generateTooltip(edge);
-		builder.append(tooltip);
-		builder.append("\" labeltooltip=\"");
-		builder.append(tooltip);
-		builder.append("\" style=\"");
-		builder.append(edgeConfigurator.style);
-		builder.append("\"]\n");
+		out.append(edgeConfigurator.isMax(edge) ? " penwidth=2 " : " ");
+		out.append("color=\"");
+		out.append(diffConfigurator == null ? edgeConfigurator.getColor(edge) : diffConfigurator.getColor(edge));
+		out.append("\" tooltip=\"");
+		emitEdgeTooltip(out, edgeConfigurator, edge, from, to);
+		out.append("\" labeltooltip=\"");
+		emitEdgeTooltip(out, edgeConfigurator, edge, from, to);
+		out.append("\" style=\"");
+		out.append(edgeConfigurator.style);
+		out.append("\"]\n");
+	}
+
+	private static void emitEdgeTooltip(
+		BufferedTextWriter out, EdgeConfigurator edgeConfigurator, Edge edge, Node from, Node to)
+			throws IOException {
+		out.append(from.getLabel());
+		out.append(" -> ");
+		out.append(to.getLabel());
+		out.append(" (");
+		out.appendFixed(edgeConfigurator.getPercentage(edge), 3);
+		out.append(" %)");
 	}
 
 	private static void emitNode(
-		StringBuilder builder, StacktraceGraphModel model, NodeConfigurator configurator, Node node) {
-		String percentOfSamples = String.format("%.3f %%", node.getCount() * 100.0 / model.getTotalTraceCount());
-		builder.append("N");
-		builder.append(node.getNodeId());
-		builder.append(" [label=\"");
-		builder.append(node.getFrame().getHumanReadableSeparatorSensitiveString());
-		builder.append("\\nSamples: ");
-		builder.append(node.getCount());
-		builder.append(" (");
-		builder.append(percentOfSamples);
-		builder.append(")\" id=\"node");
-		builder.append(node.getNodeId());
-		builder.append("\" fontsize=");
-		builder.append(configurator.getFontSize(node));
-		builder.append(" shape=");
-		builder.append(configurator.shape);
-		builder.append(" tooltip=\"");
-		builder.append(node.getFrame().getHumanReadableSeparatorSensitiveString());
-		builder.append(" (");
-		builder.append(percentOfSamples);
-		builder.append(" %)\" color=\"");
-		builder.append(configurator.color);
-		builder.append("\" fillcolor=\"");
-		builder.append(configurator.fillColor);
-		builder.append("\"]\n");
+		BufferedTextWriter out, StacktraceGraphModel model, NodeConfigurator configurator,
+		DiffConfigurator diffConfigurator, Node node) throws IOException {
+		// A graph of a diff can have no traces of its own
+		double percentOfSamples = model.getTotalTraceCount() == 0 ? 0
+				: node.getCount() * 100.0 / model.getTotalTraceCount();
+		String label = node.getLabel();
+		out.append('N');
+		out.append(node.nodeId);
+		out.append(" [label=\"");
+		out.append(label);
+		out.append("\\nSamples: ");
+		out.append(node.getCount());
+		out.append(" (");
+		out.appendFixed(percentOfSamples, 3);
+		out.append(" %)");
+		if (diffConfigurator != null) {
+			double delta = diffConfigurator.getDelta(node) * 100;
+			out.append("\\nDelta: ");
+			if (delta >= 0) {
+				out.append('+');
+			}
+			if (Double.isInfinite(delta)) {
+				out.append(delta > 0 ? "inf" : "-inf");
+			} else {
+				out.appendFixed(delta, 3);
+			}
+			out.append(" %");
+		}
+		out.append("\" id=\"node");
+		out.append(node.nodeId);
+		out.append("\" fontsize=");
+		out.append(configurator.getFontSize(node));
+		out.append(" shape=");
+		out.append(configurator.shape);
+		out.append(" tooltip=\"");
+		out.append(label);
+		out.append(" (");
+		out.appendFixed(percentOfSamples, 3);
+		out.append(" % %)\" color=\"");
+		out.append(configurator.color);
+		out.append("\" fillcolor=\"");
+		out.append(diffConfigurator == null ? configurator.fillColor : diffConfigurator.getColor(node));
+		out.append("\"]\n");
 	}
 
 	private static void createSubgraphNode(
-		StringBuilder builder, String graphName, Map<ConfigurationKey, String> configuration,
-		StacktraceGraphModel model) {
-		builder.append("subgraph cluster_L { ");
-		builder.append("\"");
-		builder.append(graphName);
-		builder.append("\" [shape=");
-		builder.append(getConf(configuration, ConfigurationKey.TitleShape, DEFAULT_SHAPE));
-		builder.append(" fontsize=");
-		builder.append(getConf(configuration, ConfigurationKey.TitleFontSize, DEFAULT_TITLE_FONT_SIZE));
-		builder.append(" label=\"");
-		builder.append(graphName);
-		builder.append("\\nTypes: ");
-		builder.append(GraphModelUtils.getTypeNames(model.getItems()));
-		builder.append("\\lTotal samples = ");
-		builder.append(model.getTotalTraceCount());
-		builder.append("\\lTotal edge count = ");
-		builder.append(model.getTotalEdgeCount());
-		builder.append("\\l\" tooltip=\"");
-		builder.append(graphName);
-		builder.append("\"] }\n");
+		BufferedTextWriter out, String graphName, Map<ConfigurationKey, String> configuration,
+		StacktraceGraphModel model, DiffConfigurator diffConfigurator) throws IOException {
+		out.append("subgraph cluster_L { ");
+		out.append('"');
+		out.append(graphName);
+		out.append("\" [shape=");
+		out.append(getConf(configuration, ConfigurationKey.TitleShape, DEFAULT_SHAPE));
+		out.append(" fontsize=");
+		out.append(getConf(configuration, ConfigurationKey.TitleFontSize, DEFAULT_TITLE_FONT_SIZE));
+		out.append(" label=\"");
+		out.append(graphName);
+		out.append("\\nTypes: ");
+		out.append(model.getTypeNames());
+		out.append("\\lTotal samples = ");
+		out.append(model.getTotalTraceCount());
+		out.append("\\lTotal edge count = ");
+		out.append(model.getTotalEdgeCount());
+		if (diffConfigurator != null) {
+			out.append("\\lBaseline samples = ");
+			out.append(diffConfigurator.diff.getBaseline().getTotalTraceCount());
+		}
+		out.append("\\l\" tooltip=\"");
+		out.append(graphName);
+		out.append("\"] }\n");
 	}
 
 	/**
@@ -376,6 +640,7 @@ public final class DotGenerator {
 		StacktraceGraphModel model = new StacktraceGraphModel(frameSeparator, filteredItems, null);
 		Map<ConfigurationKey, String> configuration = getDefaultConfiguration();
 		configuration.put(ConfigurationKey.Name, jfrFile.getName());
-		System.out.println(toDot(model, configuration));
+		writeDot(model, configuration, Channels.newChannel(System.out));
+		System.out.println();
 	}
 }
@@ -4,47 +4,43 @@ package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
  * An edge in the graph of aggregated stack traces.
  */
 public class Edge {
-	private final Node from;
-	private final Node to;
-	int count;
-	double value;
+	/**
+	 * The store holding the data of this edge.
+	 */
+	private final EdgeStore store;
 
 	/**
-	 * Constructor.
-	 * 
-	 * @param from non null from node.
-	 * @param to   non null to node.
+	 * The row of this edge in the store.
 	 */
-	public Edge(Node from, Node to) {
-		if (from == null || to == null) {
-			throw new NullPointerException("Nodes must not be null");
-		}
-		this.from = from;
-		this.to = to;
+	final int edgeId;
+
+	Edge(EdgeStore store, int edgeId) {
+		this.store = store;
+		this.edgeId = edgeId;
 	}
 
 	public Node getFrom() {
-		return from;
+		return store.getNodes().getNode(store.getFrom(edgeId));
 	}
 
 	public Node getTo() {
-		return to;
+		return store.getNodes().getNode(store.getTo(edgeId));
 	}
 
 	public int getCount() {
-		return count;
+		return store.getCount(edgeId);
 	}
 
 	public double getValue() {
-		return value;
+		return store.getValue(edgeId);
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + from.hashCode();
-		result = prime * result + to.hashCode();
+		result = prime * result + getFrom().hashCode();
+		result = prime * result + getTo().hashCode();
 		return result;
 	}
 
@@ -59,10 +55,10 @@ public class Edge {
 		if (getClass() != obj.getClass())
 			return false;
 		Edge other = (Edge) obj;
-		if (!from.equals(other.from)) {
+		if (!getFrom().equals(other.getFrom())) {
 			return false;
 		}
-		if (!to.equals(other.to)) {
+		if (!getTo().equals(other.getTo())) {
 			return false;
 		}
 		return true;
@@ -70,6 +66,6 @@ public class Edge {
 	
 	@Override
 	public String toString() {
-		return getFrom().toString() + " -> " + getTo().toString() + ", count = " + count;
+		return getFrom().toString() + " -> " + getTo().toString() + ", count = " + getCount();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Read access to the columns of the edges of a graph, by edge id. The {@link Edge} instances
+ * handed out are only views on a row.
+ * <p>
+ * The columns are either kept on the heap, in an {@link EdgeTable}, or in a memory mapped file,
+ * see {@link MappedGraphFile}.
+ */
+abstract class EdgeStore {
+	/**
+	 * @return the number of edges.
+	 */
+	abstract int size();
+
+	abstract int getFrom(int edgeId);
+
+	abstract int getTo(int edgeId);
+
+	abstract int getCount(int edgeId);
+
+	abstract double getValue(int edgeId);
+
+	/**
+	 * @return the number of edges from a node.
+	 */
+	abstract int getOutDegree(int nodeId);
+
+	/**
+	 * @return the id of an edge from a node, for an index from 0 up to the
+	 *         {@link #getOutDegree(int) out degree}.
+	 */
+	abstract int getOutEdge(int nodeId, int index);
+
+	/**
+	 * @return the number of edges to a node.
+	 */
+	abstract int getInDegree(int nodeId);
+
+	/**
+	 * @return the id of an edge to a node, for an index from 0 up to the
+	 *         {@link #getInDegree(int) in degree}.
+	 */
+	abstract int getInEdge(int nodeId, int index);
+
+	/**
+	 * @return the nodes the edges refer to.
+	 */
+	abstract NodeStore getNodes();
+
+	Edge getEdge(int edgeId) {
+		return new Edge(this, edgeId);
+	}
+
+	/**
+	 * @return a read only list view of the edges from a node, without copying.
+	 */
+	List<Edge> getOutEdges(final int nodeId) {
+		return new AbstractList<Edge>() {
+			@Override
+			public Edge get(int index) {
+				if (index >= size()) {
+					throw new IndexOutOfBoundsException(String.valueOf(index));
+				}
+				return getEdge(getOutEdge(nodeId, index));
+			}
+
+			@Override
+			public int size() {
+				return getOutDegree(nodeId);
+			}
+		};
+	}
+
+	/**
+	 * @return a read only list view of the edges to a node, without copying.
+	 */
+	List<Edge> getInEdges(final int nodeId) {
+		return new AbstractList<Edge>() {
+			@Override
+			public Edge get(int index) {
+				if (index >= size()) {
+					throw new IndexOutOfBoundsException(String.valueOf(index));
+				}
+				return getEdge(getInEdge(nodeId, index));
+			}
+
+			@Override
+			public int size() {
+				return getInDegree(nodeId);
+			}
+		};
+	}
+
+	/**
+	 * @return a read only list view of the edges, without copying.
+	 */
+	List<Edge> asList() {
+		return new AbstractList<Edge>() {
+			@Override
+			public Edge get(int index) {
+				if (index >= size()) {
+					throw new IndexOutOfBoundsException(String.valueOf(index));
+				}
+				return getEdge(index);
+			}
+
+			@Override
+			public int size() {
+				return EdgeStore.this.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+
+/**
+ * Columnar heap storage for the edges of a graph. All the per edge data is kept in primitive
+ * arrays indexed by edge id, and the {@link Edge} instances handed out are only views on a row.
+ * <p>
+ * The table holds values for as many attributes as the node table it refers to has weights for,
+ * see {@link NodeTable#forAttribute(int)}.
+ */
+final class EdgeTable extends EdgeStore {
+	private static final int DEFAULT_CAPACITY = 1024;
+	private final NodeTable nodes;
+
+	int size;
+	int[] from;
+	int[] to;
+	int[] count;
+	double[] value;
+
+	/**
+	 * Attribute index - 1 -> edge id -> value, for the attributes after the first.
+	 */
+	double[][] extraValue;
+
+	/**
+	 * (from node id << 32 | to node id) -> edge id, for finding existing edges while building.
+	 * Released by {@link #freeze()}, and recreated if more edges are added.
+	 */
+	private LongIntMap edgeIds;
+
+	/**
+	 * The outgoing and incoming edges of each node. Built on first use, and discarded when edges
+	 * are added.
+	 */
+	private volatile AdjacencyIndex adjacency;
+
+	/**
+	 * Lazily created views. Readers may race to create a view, which is harmless, since views are
+	 * immutable and equal for the same edge id.
+	 */
+	private Edge[] views;
+
+	EdgeTable(NodeTable nodes) {
+		this(nodes, DEFAULT_CAPACITY);
+	}
+
+	EdgeTable(NodeTable nodes, int capacity) {
+		capacity = Math.max(capacity, 16);
+		this.nodes = nodes;
+		from = new int[capacity];
+		to = new int[capacity];
+		count = new int[capacity];
+		value = new double[capacity];
+		extraValue = new double[nodes.getAttributeCount() - 1][capacity];
+		views = new Edge[capacity];
+	}
+
+	/**
+	 * Looks up the edge between two nodes, adding a new row if there is no such edge yet.
+	 * 
+	 * @return the id of the edge.
+	 */
+	int getOrCreate(int fromNode, int toNode) {
+		if (edgeIds == null) {
+			edgeIds = new LongIntMap(size);
+			for (int e = 0; e < size; e++) {
+				edgeIds.put(getKey(from[e], to[e]), e);
+			}
+		}
+		long key = getKey(fromNode, toNode);
+		int edgeId = edgeIds.get(key);
+		if (edgeId != LongIntMap.NO_VALUE) {
+			return edgeId;
+		}
+		if (size == from.length) {
+			grow();
+		}
+		edgeId = size++;
+		from[edgeId] = fromNode;
+		to[edgeId] = toNode;
+		edgeIds.put(key, edgeId);
+		adjacency = null;
+		return edgeId;
+	}
+
+	/**
+	 * Builds the adjacency index, and releases the memory used for finding edges while building.
+	 * Edges can still be added, but the first edge added after this will need to index all the
+	 * edges again.
+	 */
+	void freeze() {
+		edgeIds = null;
+		getAdjacency();
+	}
+
+	private AdjacencyIndex getAdjacency() {
+		AdjacencyIndex index = adjacency;
+		if (index == null) {
+			index = AdjacencyIndex.build(nodes.size, size, from, to);
+			adjacency = index;
+		}
+		return index;
+	}
+
+	private static long getKey(int fromNode, int toNode) {
+		return ((long) fromNode << 32) | toNode;
+	}
+
+	/**
+	 * @param nodesForAttribute
+	 *            the node table for the attribute, see {@link NodeTable#forAttribute(int)}.
+	 * @return a table sharing all columns with this table, except that the value column is the one
+	 *         for the given attribute. The tables must not be changed after this.
+	 */
+	EdgeTable forAttribute(NodeTable nodesForAttribute, int attributeIndex) {
+		if (attributeIndex == 0) {
+			return this;
+		}
+		EdgeTable table = new EdgeTable(nodesForAttribute, 0);
+		table.size = size;
+		table.from = from;
+		table.to = to;
+		table.count = count;
+		table.value = extraValue[attributeIndex - 1];
+		table.adjacency = adjacency;
+		table.views = new Edge[from.length];
+		return table;
+	}
+
+	/**
+	 * @param nodesCopy
+	 *            the copy of the node table that the copy of this table should refer to.
+	 * @return a copy of the table, trimmed to size, that is not affected by later changes to this
+	 *         table. Only the values of the first attribute are copied.
+	 */
+	EdgeTable copy(NodeTable nodesCopy) {
+		EdgeTable copy = new EdgeTable(nodesCopy, size);
+		copy.size = size;
+		System.arraycopy(from, 0, copy.from, 0, size);
+		System.arraycopy(to, 0, copy.to, 0, size);
+		System.arraycopy(count, 0, copy.count, 0, size);
+		System.arraycopy(value, 0, copy.value, 0, size);
+		copy.adjacency = adjacency;
+		return copy;
+	}
+
+	@Override
+	int size() {
+		return size;
+	}
+
+	@Override
+	int getFrom(int edgeId) {
+		return from[edgeId];
+	}
+
+	@Override
+	int getTo(int edgeId) {
+		return to[edgeId];
+	}
+
+	@Override
+	int getCount(int edgeId) {
+		return count[edgeId];
+	}
+
+	@Override
+	double getValue(int edgeId) {
+		return value[edgeId];
+	}
+
+	@Override
+	int getOutDegree(int nodeId) {
+		return getAdjacency().getOutDegree(nodeId);
+	}
+
+	@Override
+	int getOutEdge(int nodeId, int index) {
+		return getAdjacency().getOutEdge(nodeId, index);
+	}
+
+	@Override
+	int getInDegree(int nodeId) {
+		return getAdjacency().getInDegree(nodeId);
+	}
+
+	@Override
+	int getInEdge(int nodeId, int index) {
+		return getAdjacency().getInEdge(nodeId, index);
+	}
+
+	@Override
+	NodeTable getNodes() {
+		return nodes;
+	}
+
+	@Override
+	Edge getEdge(int edgeId) {
+		Edge edge = views[edgeId];
+		if (edge == null) {
+			edge = new Edge(this, edgeId);
+			views[edgeId] = edge;
+		}
+		return edge;
+	}
+
+	private void grow() {
+		int capacity = from.length * 2;
+		from = Arrays.copyOf(from, capacity);
+		to = Arrays.copyOf(to, capacity);
+		count = Arrays.copyOf(count, capacity);
+		value = Arrays.copyOf(value, capacity);
+		for (int a = 0; a < extraValue.length; a++) {
+			extraValue[a] = Arrays.copyOf(extraValue[a], capacity);
+		}
+		views = Arrays.copyOf(views, capacity);
+	}
+}
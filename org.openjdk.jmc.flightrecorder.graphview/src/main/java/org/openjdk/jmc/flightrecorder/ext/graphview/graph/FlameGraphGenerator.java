@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Renders a {@link CallTree} as the nested {name, value, children} Json used by d3-flame-graph.
+ * <p>
+ * The value of a tree node is its summed weight if the graph of the tree was built with an
+ * attribute, and its count otherwise. The Json is streamed straight from the arrays of the tree,
+ * depth first with an explicit stack, so deep trees cannot overflow the call stack.
+ * 
+ * @see https://github.com/spiermar/d3-flame-graph
+ */
+public final class FlameGraphGenerator {
+	private static final int BUFFER_SIZE = 8192;
+	private static final String ROOT_NAME = "root";
+
+	private FlameGraphGenerator() {
+	}
+
+	/**
+	 * Renders a {@link CallTree} as flame graph Json.
+	 */
+	public static String toFlameGraphJson(CallTree tree) {
+		StringBuilder builder = new StringBuilder(2048);
+		try {
+			writeFlameGraphJson(tree, builder);
+		} catch (IOException e) {
+			// Can't happen, StringBuilder does not throw IOExceptions
+			throw new UncheckedIOException(e);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Renders a {@link CallTree} as flame graph Json, appending the text as it is generated. The
+	 * appendable is neither flushed nor closed.
+	 */
+	public static void writeFlameGraphJson(CallTree tree, Appendable appendable) throws IOException {
+		boolean useWeight = tree.getModel().getAttribute() != null;
+		NodeStore nodes = tree.getModel().getNodeStore();
+		BufferedTextWriter out = new BufferedTextWriter(appendable);
+		// The tree nodes being written, and the number of children written for each
+		int[] stack = new int[16];
+		int[] childrenWritten = new int[16];
+		int depth = 0;
+		emitNodeStart(out, tree, nodes, 0, useWeight);
+		stack[0] = 0;
+		childrenWritten[0] = 0;
+		while (depth >= 0) {
+			int index = stack[depth];
+			int child = childrenWritten[depth];
+			if (child == tree.getChildCount(index)) {
+				out.append("]}");
+				depth--;
+				continue;
+			}
+			childrenWritten[depth]++;
+			if (child > 0) {
+				out.append(',');
+			}
+			int childIndex = tree.getChild(index, child);
+			emitNodeStart(out, tree, nodes, childIndex, useWeight);
+			if (++depth == stack.length) {
+				stack = Arrays.copyOf(stack, depth * 2);
+				childrenWritten = Arrays.copyOf(childrenWritten, depth * 2);
+			}
+			stack[depth] = childIndex;
+			childrenWritten[depth] = 0;
+		}
+		out.flush();
+	}
+
+	/**
+	 * Renders a {@link CallTree} as flame graph Json, as UTF-8, optionally gzipped. The stream is
+	 * not closed.
+	 */
+	public static void writeFlameGraphJson(CallTree tree, OutputStream out, boolean gzip) throws IOException {
+		GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+		Writer writer = new OutputStreamWriter(gzip ? gzipOut : out, StandardCharsets.UTF_8);
+		writeFlameGraphJson(tree, writer);
+		writer.flush();
+		if (gzipOut != null) {
+			gzipOut.finish();
+		}
+	}
+
+	/**
+	 * Writes a tree node up to and including the start of its children array.
+	 */
+	private static void emitNodeStart(
+		BufferedTextWriter out, CallTree tree, NodeStore nodes, int index, boolean useWeight) throws IOException {
+		out.append("{\"name\":");
+		int nodeId = tree.getNodeId(index);
+		CytoscapeGenerator.appendJsonString(out, nodeId < 0 ? ROOT_NAME : nodes.getLabel(nodeId));
+		out.append(",\"value\":");
+		if (useWeight) {
+			out.append(tree.getWeight(index));
+		} else {
+			out.append(tree.getCount(index));
+		}
+		out.append(",\"children\":[");
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openjdk.jmc.common.IMCFrame;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+
+/**
+ * Assigns compact int ids to frames, where frames that are not separate according to the
+ * {@link FrameSeparator} get the same id.
+ * <p>
+ * The parser shares frame instances between all the stack traces that use them, so frames are
+ * first looked up by identity. Only the first time a frame instance is seen is it wrapped in an
+ * {@link AggregatableFrame} and hashed by the separator. After that, looking up a frame allocates
+ * nothing.
+ * <p>
+ * Instances of this class are not thread safe.
+ */
+final class FrameDictionary {
+	private final FrameSeparator frameSeparator;
+
+	/**
+	 * Frame instance -> frame id
+	 */
+	private final IdentityIntMap identityIds = new IdentityIntMap();
+
+	/**
+	 * Aggregatable frame -> frame id
+	 */
+	private final Map<AggregatableFrame, Integer> frameIds = new HashMap<>(1024);
+
+	/**
+	 * Frame id -> aggregatable frame
+	 */
+	private AggregatableFrame[] frames = new AggregatableFrame[1024];
+	private int size;
+
+	FrameDictionary(FrameSeparator frameSeparator) {
+		this.frameSeparator = frameSeparator;
+	}
+
+	FrameSeparator getFrameSeparator() {
+		return frameSeparator;
+	}
+
+	/**
+	 * @return the id of the frame, assigning a new id if no equivalent frame has been seen before.
+	 */
+	int getFrameId(IMCFrame frame) {
+		int frameId = identityIds.get(frame);
+		if (frameId == IdentityIntMap.NO_VALUE) {
+			frameId = getFrameId(new AggregatableFrame(frameSeparator, frame));
+			identityIds.put(frame, frameId);
+		}
+		return frameId;
+	}
+
+	/**
+	 * @return the id of the frame, assigning a new id if no equivalent frame has been seen before.
+	 */
+	int getFrameId(AggregatableFrame frame) {
+		Integer frameId = frameIds.get(frame);
+		if (frameId == null) {
+			if (size == frames.length) {
+				frames = Arrays.copyOf(frames, size * 2);
+			}
+			frames[size] = frame;
+			frameId = Integer.valueOf(size++);
+			frameIds.put(frame, frameId);
+		}
+		return frameId.intValue();
+	}
+
+	AggregatableFrame getFrame(int frameId) {
+		return frames[frameId];
+	}
+
+	/**
+	 * @return the number of distinct frames.
+	 */
+	int size() {
+		return size;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.StacktraceGraphModel.CumulativeCounting;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+
+/**
+ * Fork/join task building the graph for a range of item iterables. The range is split in halves
+ * until there is one iterable per task, and the partial graphs are merged left to right, so the
+ * resulting node and edge ids are the same as when building serially.
+ */
+final class GraphBuildTask extends RecursiveTask<GraphBuilder> {
+	private static final long serialVersionUID = 1L;
+
+	private final FrameSeparator frameSeparator;
+	private final List<IAttribute<IQuantity>> attributes;
+	private final CumulativeCounting cumulativeCounting;
+	private final boolean buildCallTree;
+	private final List<IItemIterable> iterables;
+	private final int start;
+	private final int end;
+
+	GraphBuildTask(
+		FrameSeparator frameSeparator, List<IAttribute<IQuantity>> attributes, CumulativeCounting cumulativeCounting,
+		boolean buildCallTree, List<IItemIterable> iterables, int start, int end) {
+		this.frameSeparator = frameSeparator;
+		this.attributes = attributes;
+		this.cumulativeCounting = cumulativeCounting;
+		this.buildCallTree = buildCallTree;
+		this.iterables = iterables;
+		this.start = start;
+		this.end = end;
+	}
+
+	@Override
+	protected GraphBuilder compute() {
+		if (end - start <= 1) {
+			GraphBuilder builder = new GraphBuilder(frameSeparator, attributes.size(), cumulativeCounting,
+					buildCallTree);
+			if (start < end) {
+				builder.addItems(iterables.get(start), attributes);
+			}
+			builder.flush();
+			return builder;
+		}
+		int middle = (start + end) >>> 1;
+		GraphBuildTask left = new GraphBuildTask(frameSeparator, attributes, cumulativeCounting, buildCallTree,
+				iterables, start, middle);
+		GraphBuildTask right = new GraphBuildTask(frameSeparator, attributes, cumulativeCounting, buildCallTree,
+				iterables, middle, end);
+		left.fork();
+		GraphBuilder rightResult = right.compute();
+		GraphBuilder leftResult = left.join();
+		leftResult.merge(rightResult);
+		return leftResult;
+	}
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import static org.openjdk.jmc.common.item.ItemToolkit.accessor;
+import static org.openjdk.jmc.flightrecorder.JfrAttributes.EVENT_STACKTRACE;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmc.common.IMCFrame;
+import org.openjdk.jmc.common.IMCStackTrace;
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.StacktraceGraphModel.CumulativeCounting;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+
+/**
+ * Accumulates stack traces into node and edge tables. Used for building a
+ * {@link StacktraceGraphModel}.
+ * <p>
+ * Items are first pre-aggregated per unique stack trace, and each unique trace is applied to the
+ * node and edge tables only once, multiplied by its count, when the builder is flushed. The number
+ * of pending unique traces is bounded, and the builder flushes itself when the bound is reached.
+ * {@link #flush()} must be called before reading the tables.
+ * <p>
+ * With {@link CumulativeCounting#PER_TRACE}, each node and edge is counted at most once per trace.
+ * The nodes and edges already counted for a trace are marked with a stamp, unique per applied
+ * trace, in arrays indexed by node and edge id, so no sets have to be built or cleared per trace.
+ * <p>
+ * Instances of this class are not thread safe. Use one builder per thread, and {@link #merge} the
+ * results.
+ */
+final class GraphBuilder {
+	@SuppressWarnings("deprecation")
+	private final static IMemberAccessor<IMCStackTrace, IItem> ACCESSOR_STACKTRACE = accessor(EVENT_STACKTRACE);
+	private static final int NO_NODE = -1;
+	private static final int MAX_PENDING_TRACES = 1 << 16;
+
+	private final FrameDictionary frameDictionary;
+	private final int attributeCount;
+	private final CumulativeCounting cumulativeCounting;
+
+	final NodeTable nodes;
+	final EdgeTable edges;
+
+	/**
+	 * The call tree built from the same traces, or null if none is built.
+	 */
+	final CallTree callTree;
+
+	/**
+	 * Frame id -> Node id
+	 */
+	private int[] frameNodeIds = new int[0];
+
+	/**
+	 * Unique traces not yet applied to the node and edge tables.
+	 */
+	private TraceTable pendingTraces;
+
+	private final TraceStamps stamps = new TraceStamps();
+
+	int totalTraceCount;
+	int totalEdgeCount;
+
+	GraphBuilder(FrameSeparator frameSeparator) {
+		this(frameSeparator, 1);
+	}
+
+	/**
+	 * @param attributeCount
+	 *            the number of attributes to sum weights for, at least 1.
+	 */
+	GraphBuilder(FrameSeparator frameSeparator, int attributeCount) {
+		this(frameSeparator, attributeCount, CumulativeCounting.PER_FRAME);
+	}
+
+	GraphBuilder(FrameSeparator frameSeparator, int attributeCount, CumulativeCounting cumulativeCounting) {
+		this(frameSeparator, attributeCount, cumulativeCounting, false);
+	}
+
+	/**
+	 * @param buildCallTree
+	 *            true to also build a {@link CallTree} from the traces, with the weights of the
+	 *            first attribute.
+	 */
+	GraphBuilder(
+		FrameSeparator frameSeparator, int attributeCount, CumulativeCounting cumulativeCounting,
+		boolean buildCallTree) {
+		this(new FrameDictionary(frameSeparator), attributeCount, cumulativeCounting, buildCallTree);
+	}
+
+	GraphBuilder(FrameDictionary frameDictionary) {
+		this(frameDictionary, 1);
+	}
+
+	GraphBuilder(FrameDictionary frameDictionary, int attributeCount) {
+		this(frameDictionary, attributeCount, CumulativeCounting.PER_FRAME);
+	}
+
+	GraphBuilder(FrameDictionary frameDictionary, int attributeCount, CumulativeCounting cumulativeCounting) {
+		this(frameDictionary, attributeCount, cumulativeCounting, false);
+	}
+
+	GraphBuilder(
+		FrameDictionary frameDictionary, int attributeCount, CumulativeCounting cumulativeCounting,
+		boolean buildCallTree) {
+		this.frameDictionary = frameDictionary;
+		this.attributeCount = attributeCount;
+		this.cumulativeCounting = cumulativeCounting;
+		callTree = buildCallTree ? new CallTree() : null;
+		nodes = new NodeTable(1024, attributeCount);
+		edges = new EdgeTable(nodes);
+		pendingTraces = new TraceTable(attributeCount);
+	}
+
+	/**
+	 * Adds the items of an iterable, using an (optional) attribute for the weights.
+	 */
+	void addItems(IItemIterable iterable, IAttribute<IQuantity> attribute) {
+		addItems(iterable, Collections.singletonList(attribute));
+	}
+
+	/**
+	 * Adds the items of an iterable, using one (optional) attribute per weight column. The
+	 * accessors are resolved once per iterable.
+	 */
+	void addItems(IItemIterable iterable, List<IAttribute<IQuantity>> attributes) {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		IMemberAccessor<IQuantity, IItem>[] accessors = new IMemberAccessor[attributeCount];
+		for (int a = 0; a < attributeCount; a++) {
+			IAttribute<IQuantity> attribute = attributes.get(a);
+			if (attribute != null) {
+				accessors[a] = iterable.getType().getAccessor(attribute.getKey());
+			}
+		}
+		for (IItem item : iterable) {
+			addItem(item, accessors);
+		}
+	}
+
+	/**
+	 * Adds an item, using accessors resolved for its type, one (optional) accessor per weight
+	 * column. Items without a stack trace are skipped.
+	 */
+	void addItem(IItem item, IMemberAccessor<IQuantity, IItem>[] accessors) {
+		IMCStackTrace trace = getStackTrace(item);
+		if (trace == null) {
+			return;
+		}
+		int index = pendingTraces.get(trace);
+		if (index == IdentityIntMap.NO_VALUE) {
+			index = addTrace(trace);
+		}
+
+		pendingTraces.count[index]++;
+		int weightIndex = index * attributeCount;
+		for (int a = 0; a < attributeCount; a++) {
+			IMemberAccessor<IQuantity, IItem> accessor = accessors[a];
+			if (accessor != null) {
+				IQuantity value = accessor.getMember(item);
+				if (value != null) {
+					pendingTraces.weight[weightIndex + a] += value.doubleValue();
+				}
+			}
+		}
+		if (pendingTraces.size >= MAX_PENDING_TRACES) {
+			flush();
+		}
+	}
+
+	/**
+	 * Resolves the nodes and edges of a trace instance not seen before, and adds it to the pending
+	 * traces, unless an equivalent trace is already pending.
+	 * 
+	 * @return the index of the trace among the pending traces.
+	 */
+	private int addTrace(IMCStackTrace trace) {
+		int[] nodePath = resolveNodePath(trace);
+		int index = pendingTraces.get(nodePath);
+		if (index != IdentityIntMap.NO_VALUE) {
+			pendingTraces.put(trace, index);
+			return index;
+		}
+		return pendingTraces.add(trace, nodePath, resolveEdgePath(nodePath));
+	}
+
+	/**
+	 * Looks up the nodes of the frames of a trace, creating the nodes not already in the graph.
+	 * 
+	 * @return the node ids, top frame first.
+	 */
+	int[] resolveNodePath(IMCStackTrace trace) {
+		List<? extends IMCFrame> frames = trace.getFrames();
+		int[] nodePath = new int[frames.size()];
+		if (nodePath.length > 0) {
+			// Resolve the nodes in the order they are visited when the trace is applied, so that the
+			// ids are assigned in the order the frames are first seen
+			nodePath[0] = getOrCreateNode(frames.get(0));
+			for (int i = nodePath.length - 1; i > 0; i--) {
+				nodePath[i] = getOrCreateNode(frames.get(i));
+			}
+		}
+		return nodePath;
+	}
+
+	/**
+	 * Looks up the edges between the nodes of a node path, creating the edges not already in the
+	 * graph.
+	 * 
+	 * @return the edge ids, from the thread root towards the top frame.
+	 */
+	int[] resolveEdgePath(int[] nodePath) {
+		int[] edgePath = new int[Math.max(nodePath.length - 1, 0)];
+		for (int i = nodePath.length - 1; i > 0; i--) {
+			edgePath[nodePath.length - 1 - i] = edges.getOrCreate(nodePath[i], nodePath[i - 1]);
+		}
+		return edgePath;
+	}
+
+	/**
+	 * Applies all pending traces to the node and edge tables.
+	 */
+	void flush() {
+		TraceTable traces = pendingTraces;
+		if (traces.size == 0) {
+			return;
+		}
+		if (cumulativeCounting == CumulativeCounting.PER_TRACE) {
+			stamps.ensureCapacity(nodes.frames.length, edges.count.length);
+		}
+		for (int i = 0; i < traces.size; i++) {
+			int[] nodePath = traces.nodePaths[i];
+			int[] edgePath = traces.edgePaths[i];
+			if (nodePath.length == 0) {
+				continue;
+			}
+			if (callTree != null) {
+				callTree.add(nodePath, traces.count[i], traces.weight[i * attributeCount]);
+			}
+			totalTraceCount += traces.count[i];
+			totalEdgeCount += applyCounts(nodePath, edgePath, traces.count[i], cumulativeCounting, stamps,
+					nodes.count, nodes.cumulativeCount, edges.count);
+			applyWeights(nodePath, edgePath, traces.weight[i * attributeCount], cumulativeCounting, stamps,
+					nodes.weight, nodes.cumulativeWeight, edges.value);
+			for (int a = 1; a < attributeCount; a++) {
+				applyWeights(nodePath, edgePath, traces.weight[i * attributeCount + a], cumulativeCounting, stamps,
+						nodes.extraWeight[a - 1], nodes.extraCumulativeWeight[a - 1], edges.extraValue[a - 1]);
+			}
+		}
+		pendingTraces = new TraceTable(attributeCount);
+	}
+
+	/**
+	 * Applies the count of a non-empty trace to node and edge columns indexed by node and edge id.
+	 * Also used for applying traces to other columns than those of a builder, e.g. those of a
+	 * {@link TimeBucket}, so that all graphs are counted the same way.
+	 * 
+	 * @param stamps
+	 *            the stamps for {@link CumulativeCounting#PER_TRACE}, with room for all the nodes
+	 *            and edges of the trace.
+	 * @return the number of edges counted, multiplied by the count.
+	 */
+	static int applyCounts(
+		int[] nodePath, int[] edgePath, int count, CumulativeCounting cumulativeCounting, TraceStamps stamps,
+		int[] nodeCount, int[] nodeCumulativeCount, int[] edgeCount) {
+		// First frame is the frame where things are actually happening, i.e. the method
+		// actually responsible for whatever is being tracked (e.g. the method being on
+		// CPU, the method triggering the allocation etc) - it is for this node we
+		// increment the count...
+		nodeCount[nodePath[0]] += count;
+		int totalEdgeCount = 0;
+		if (cumulativeCounting == CumulativeCounting.PER_TRACE) {
+			int traceStamp = stamps.next();
+			for (int i = nodePath.length - 1; i >= 0; i--) {
+				if (stamps.markNode(nodePath[i], traceStamp)) {
+					nodeCumulativeCount[nodePath[i]] += count;
+				}
+			}
+			for (int edge : edgePath) {
+				if (stamps.markEdge(edge, traceStamp)) {
+					edgeCount[edge] += count;
+					totalEdgeCount += count;
+				}
+			}
+			return totalEdgeCount;
+		}
+
+		// Next go through all frames from the thread root, and up the cumulative counts
+		for (int i = nodePath.length - 1; i > 0; i--) {
+			// Process two frames sliding window, from and to
+			nodeCumulativeCount[nodePath[i]] += count;
+			nodeCumulativeCount[nodePath[i - 1]] += count;
+			edgeCount[edgePath[nodePath.length - 1 - i]] += count;
+			totalEdgeCount += count;
+		}
+		return totalEdgeCount;
+	}
+
+	/**
+	 * Applies the weight of a non-empty trace for one attribute to node and edge columns, the same
+	 * way as {@link #applyCounts} does for the count.
+	 */
+	static void applyWeights(
+		int[] nodePath, int[] edgePath, double value, CumulativeCounting cumulativeCounting, TraceStamps stamps,
+		double[] nodeWeight, double[] nodeCumulativeWeight, double[] edgeValue) {
+		nodeWeight[nodePath[0]] += value;
+		if (cumulativeCounting == CumulativeCounting.PER_TRACE) {
+			int traceStamp = stamps.next();
+			for (int i = nodePath.length - 1; i >= 0; i--) {
+				if (stamps.markNode(nodePath[i], traceStamp)) {
+					nodeCumulativeWeight[nodePath[i]] += value;
+				}
+			}
+			for (int edge : edgePath) {
+				if (stamps.markEdge(edge, traceStamp)) {
+					edgeValue[edge] += value;
+				}
+			}
+			return;
+		}
+		for (int i = nodePath.length - 1; i > 0; i--) {
+			nodeCumulativeWeight[nodePath[i]] += value;
+			nodeCumulativeWeight[nodePath[i - 1]] += value;
+			edgeValue[edgePath[nodePath.length - 1 - i]] += value;
+		}
+	}
+
+	/**
+	 * Sets all counts and weights to zero, keeping the nodes and edges, so that the ids of the
+	 * nodes and edges already in the graph stay the same when more items are added.
+	 */
+	void clearValues() {
+		flush();
+		Arrays.fill(nodes.count, 0, nodes.size, 0);
+		Arrays.fill(nodes.cumulativeCount, 0, nodes.size, 0);
+		Arrays.fill(nodes.weight, 0, nodes.size, 0);
+		Arrays.fill(nodes.cumulativeWeight, 0, nodes.size, 0);
+		Arrays.fill(edges.count, 0, edges.size, 0);
+		Arrays.fill(edges.value, 0, edges.size, 0);
+		for (int a = 0; a < attributeCount - 1; a++) {
+			Arrays.fill(nodes.extraWeight[a], 0, nodes.size, 0);
+			Arrays.fill(nodes.extraCumulativeWeight[a], 0, nodes.size, 0);
+			Arrays.fill(edges.extraValue[a], 0, edges.size, 0);
+		}
+		totalTraceCount = 0;
+		totalEdgeCount = 0;
+	}
+
+	/**
+	 * Adds all the nodes and edges of another builder to this one. Nodes and edges not already in
+	 * this builder are appended in the order they were created in the other builder, so merging the
+	 * builders for consecutive runs of items yields the same node and edge ids as adding all the
+	 * items to a single builder.
+	 */
+	void merge(GraphBuilder other) {
+		flush();
+		other.flush();
+		NodeTable otherNodes = other.nodes;
+		int[] nodeMap = new int[otherNodes.size];
+		for (int i = 0; i < otherNodes.size; i++) {
+			int nodeId = getOrCreateNode(otherNodes.frames[i]);
+			nodeMap[i] = nodeId;
+			nodes.count[nodeId] += otherNodes.count[i];
+			nodes.cumulativeCount[nodeId] += otherNodes.cumulativeCount[i];
+			nodes.weight[nodeId] += otherNodes.weight[i];
+			nodes.cumulativeWeight[nodeId] += otherNodes.cumulativeWeight[i];
+			for (int a = 0; a < attributeCount - 1; a++) {
+				nodes.extraWeight[a][nodeId] += otherNodes.extraWeight[a][i];
+				nodes.extraCumulativeWeight[a][nodeId] += otherNodes.extraCumulativeWeight[a][i];
+			}
+		}
+		EdgeTable otherEdges = other.edges;
+		for (int i = 0; i < otherEdges.size; i++) {
+			int e = edges.getOrCreate(nodeMap[otherEdges.from[i]], nodeMap[otherEdges.to[i]]);
+			edges.count[e] += otherEdges.count[i];
+			edges.value[e] += otherEdges.value[i];
+			for (int a = 0; a < attributeCount - 1; a++) {
+				edges.extraValue[a][e] += otherEdges.extraValue[a][i];
+			}
+		}
+		if (callTree != null) {
+			callTree.merge(other.callTree, nodeMap);
+		}
+		totalTraceCount += other.totalTraceCount;
+		totalEdgeCount += other.totalEdgeCount;
+	}
+
+	private int getOrCreateNode(IMCFrame frame) {
+		return getOrCreateNode(frameDictionary.getFrameId(frame));
+	}
+
+	private int getOrCreateNode(AggregatableFrame frame) {
+		return getOrCreateNode(frameDictionary.getFrameId(frame));
+	}
+
+	private int getOrCreateNode(int frameId) {
+		if (frameId >= frameNodeIds.length) {
+			int oldLength = frameNodeIds.length;
+			frameNodeIds = Arrays.copyOf(frameNodeIds, Math.max(oldLength * 2, Math.max(frameId + 1, 1024)));
+			Arrays.fill(frameNodeIds, oldLength, frameNodeIds.length, NO_NODE);
+		}
+		int nodeId = frameNodeIds[frameId];
+		if (nodeId == NO_NODE) {
+			nodeId = nodes.add(frameDictionary.getFrame(frameId));
+			frameNodeIds[frameId] = nodeId;
+		}
+		return nodeId;
+	}
+
+	/**
+	 * The stamps marking the nodes and edges already counted for a trace, with
+	 * {@link CumulativeCounting#PER_TRACE}.
+	 */
+	static final class TraceStamps {
+		/**
+		 * Node id -> stamp of the last trace the node was counted for.
+		 */
+		private int[] nodeStamps = new int[0];
+
+		/**
+		 * Edge id -> stamp of the last trace the edge was counted for.
+		 */
+		private int[] edgeStamps = new int[0];
+		private int stamp;
+
+		/**
+		 * Makes room for the stamps of the nodes and edges with ids below the given counts.
+		 */
+		void ensureCapacity(int nodeCount, int edgeCount) {
+			if (nodeStamps.length < nodeCount) {
+				nodeStamps = Arrays.copyOf(nodeStamps, nodeCount);
+			}
+			if (edgeStamps.length < edgeCount) {
+				edgeStamps = Arrays.copyOf(edgeStamps, edgeCount);
+			}
+		}
+
+		/**
+		 * @return a stamp not used for any node or edge.
+		 */
+		int next() {
+			if (++stamp == 0) {
+				// Wrapped around, so the old stamps may come back
+				Arrays.fill(nodeStamps, 0);
+				Arrays.fill(edgeStamps, 0);
+				stamp = 1;
+			}
+			return stamp;
+		}
+
+		/**
+		 * @return true if the node was not already marked with the stamp.
+		 */
+		boolean markNode(int nodeId, int traceStamp) {
+			if (nodeStamps[nodeId] == traceStamp) {
+				return false;
+			}
+			nodeStamps[nodeId] = traceStamp;
+			return true;
+		}
+
+		/**
+		 * @return true if the edge was not already marked with the stamp.
+		 */
+		boolean markEdge(int edgeId, int traceStamp) {
+			if (edgeStamps[edgeId] == traceStamp) {
+				return false;
+			}
+			edgeStamps[edgeId] = traceStamp;
+			return true;
+		}
+	}
+
+	/**
+	 * @return the stack trace of the item, or null if it has none.
+	 */
+	static IMCStackTrace getStackTrace(IItem item) {
+		return ACCESSOR_STACKTRACE.getMember(item);
+	}
+}
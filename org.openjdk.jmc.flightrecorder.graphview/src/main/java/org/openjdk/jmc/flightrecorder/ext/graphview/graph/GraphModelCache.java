@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator.FrameCategorization;
+
+/**
+ * A cache of {@link StacktraceGraphModel}s, so that switching back to a frame categorization or
+ * attribute already viewed does not rebuild the model.
+ * <p>
+ * The models are keyed on the identity of the item collection, the frame categorization, the
+ * distinguish by optimization flag, and the attribute. The cache has a memory budget, based on an
+ * estimate of the heap used by each model, and evicts the least recently used models when the
+ * budget is exceeded. The models are also only softly referenced, so the garbage collector can
+ * reclaim them when memory runs low, whatever the budget.
+ * <p>
+ * The hit, miss and eviction counts can be used to check that the budget fits the usage. Note
+ * that the estimate does not include the items, which a cached model keeps reachable, so
+ * {@link #invalidate(IItemCollection)} should be called when a recording is closed.
+ * <p>
+ * Instances of this class are thread safe. Models are built outside of the lock, so two threads
+ * missing on the same key at the same time will both build the model.
+ */
+public final class GraphModelCache {
+	/**
+	 * Estimated heap bytes per node: the columns, the frame reference, the lazily created view and
+	 * label, and the frame lookup while building.
+	 */
+	private static final long BYTES_PER_NODE = 160;
+
+	/**
+	 * Estimated heap bytes per edge: the columns and the adjacency index.
+	 */
+	private static final long BYTES_PER_EDGE = 48;
+
+	/**
+	 * Estimated heap bytes for the model object and its views.
+	 */
+	private static final long BYTES_PER_MODEL = 512;
+
+	private final long memoryBudget;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Guarded by this. In access order, least recently used first.
+	 */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The entries with models reclaimed by the garbage collector.
+	 */
+	private final ReferenceQueue<StacktraceGraphModel> reclaimed = new ReferenceQueue<>();
+
+	/**
+	 * Guarded by this.
+	 */
+	private long estimatedMemory;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	private static final class Key {
+		private final IItemCollection items;
+		private final FrameCategorization categorization;
+		private final boolean distinguishFramesByOptimization;
+		private final IAttribute<IQuantity> attribute;
+
+		Key(IItemCollection items, FrameSeparator frameSeparator, IAttribute<IQuantity> attribute) {
+			this.items = items;
+			categorization = frameSeparator.getCategorization();
+			distinguishFramesByOptimization = frameSeparator.isDistinguishFramesByOptimization();
+			this.attribute = attribute;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((System.identityHashCode(items) * 31 + categorization.hashCode()) * 31
+					+ Boolean.hashCode(distinguishFramesByOptimization)) * 31 + Objects.hashCode(attribute);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return items == other.items && categorization == other.categorization
+					&& distinguishFramesByOptimization == other.distinguishFramesByOptimization
+					&& Objects.equals(attribute, other.attribute);
+		}
+	}
+
+	private static final class Entry extends SoftReference<StacktraceGraphModel> {
+		final Key key;
+		final long size;
+
+		Entry(Key key, StacktraceGraphModel model, ReferenceQueue<StacktraceGraphModel> queue) {
+			super(model, queue);
+			this.key = key;
+			size = estimateSize(model);
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param memoryBudget
+	 *            the max estimated heap size, in bytes, of the cached models. A model larger than
+	 *            the budget is never cached.
+	 */
+	public GraphModelCache(long memoryBudget) {
+		this(memoryBudget, null);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param memoryBudget
+	 *            the max estimated heap size, in bytes, of the cached models. A model larger than
+	 *            the budget is never cached.
+	 * @param pool
+	 *            the (optional) pool to build the models in. If null, the models are built
+	 *            serially in the calling thread.
+	 */
+	public GraphModelCache(long memoryBudget, ForkJoinPool pool) {
+		if (memoryBudget < 0) {
+			throw new IllegalArgumentException("Memory budget cannot be negative");
+		}
+		this.memoryBudget = memoryBudget;
+		this.pool = pool;
+	}
+
+	/**
+	 * Gets the model for the items, building and caching it if it is not already cached.
+	 * 
+	 * @param items
+	 *            the items to graph. Compared by identity.
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 * @return the model.
+	 */
+	public StacktraceGraphModel getModel(
+		IItemCollection items, FrameSeparator frameSeparator, IAttribute<IQuantity> attribute) {
+		StacktraceGraphModel model = getIfPresent(items, frameSeparator, attribute);
+		if (model == null) {
+			model = new StacktraceGraphModel(frameSeparator, items, attribute, pool);
+			put(items, frameSeparator, attribute, model);
+		}
+		return model;
+	}
+
+	/**
+	 * Gets the model for the items, if it is cached. Counts as a hit or a miss.
+	 * 
+	 * @return the model, or null if it is not cached.
+	 */
+	public synchronized StacktraceGraphModel getIfPresent(
+		IItemCollection items, FrameSeparator frameSeparator, IAttribute<IQuantity> attribute) {
+		removeReclaimed();
+		Entry entry = entries.get(new Key(items, frameSeparator, attribute));
+		StacktraceGraphModel model = entry == null ? null : entry.get();
+		if (model == null) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return model;
+	}
+
+	/**
+	 * Caches a model built elsewhere, e.g. in a job that can be cancelled, replacing any model
+	 * already cached for the same key. Evicts the least recently used models until the cache is
+	 * within its memory budget.
+	 */
+	public synchronized void put(
+		IItemCollection items, FrameSeparator frameSeparator, IAttribute<IQuantity> attribute,
+		StacktraceGraphModel model) {
+		removeReclaimed();
+		Key key = new Key(items, frameSeparator, attribute);
+		Entry entry = new Entry(key, model, reclaimed);
+		Entry old = entries.remove(key);
+		if (old != null) {
+			estimatedMemory -= old.size;
+		}
+		if (entry.size > memoryBudget) {
+			return;
+		}
+		entries.put(key, entry);
+		estimatedMemory += entry.size;
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (estimatedMemory > memoryBudget && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			estimatedMemory -= eldest.size;
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Removes all the models built from an item collection, e.g. when the recording is closed.
+	 */
+	public synchronized void invalidate(IItemCollection items) {
+		Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, Entry> mapEntry = iterator.next();
+			if (mapEntry.getKey().items == items) {
+				iterator.remove();
+				estimatedMemory -= mapEntry.getValue().size;
+			}
+		}
+	}
+
+	/**
+	 * Removes all models. The counts are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		estimatedMemory = 0;
+	}
+
+	/**
+	 * @return the number of cached models, including models reclaimed by the garbage collector but
+	 *         not yet noticed.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return the summed estimated heap size, in bytes, of the cached models.
+	 */
+	public synchronized long getEstimatedMemory() {
+		return estimatedMemory;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of models evicted, either to stay within the memory budget, or because
+	 *         they were reclaimed by the garbage collector.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return the hit ratio, or 0 if there have been no lookups.
+	 */
+	public synchronized double getHitRatio() {
+		long lookups = hitCount + missCount;
+		return lookups == 0 ? 0 : (double) hitCount / lookups;
+	}
+
+	/**
+	 * @return the estimated heap size of a model, in bytes. Memory mapped models keep their data off
+	 *         the heap.
+	 */
+	static long estimateSize(StacktraceGraphModel model) {
+		if (model.isMapped()) {
+			return BYTES_PER_MODEL;
+		}
+		return BYTES_PER_MODEL + model.getNodeStore().size() * BYTES_PER_NODE
+				+ model.getEdgeStore().size() * BYTES_PER_EDGE;
+	}
+
+	private void removeReclaimed() {
+		Entry entry;
+		while ((entry = (Entry) reclaimed.poll()) != null) {
+			// The entry may already have been replaced or removed
+			if (entries.get(entry.key) == entry) {
+				entries.remove(entry.key);
+				estimatedMemory -= entry.size;
+				evictionCount++;
+			}
+		}
+	}
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+
+/**
+ * Removes the least important nodes and edges from a {@link StacktraceGraphModel}, similar to the
+ * node and edge fractions of pprof. Large graphs are mostly made up of nodes with a tiny share of
+ * the samples, which are expensive to lay out and render without adding information.
+ * <p>
+ * The importance of a node is its cumulative count, or its count if that is larger, since a node
+ * only seen in single frame traces has no cumulative count.
+ * <p>
+ * When a node is removed, the remaining graph is reconnected through it. The count of an edge from
+ * a kept node into removed nodes is passed on through the removed nodes, split in proportion to
+ * the counts of their outgoing edges, until it reaches kept nodes, where it becomes an edge from
+ * the kept node it started from. Flow around cycles of removed nodes, e.g. from recursion, is
+ * followed until it leaves the cycle. The counts of the kept nodes are not changed.
+ */
+public final class GraphPruner {
+	private static final int MAX_ITERATIONS = 10000;
+	private static final double CONVERGENCE_THRESHOLD = 1e-12;
+
+	private static final int[] NO_TARGETS = new int[0];
+	private static final double[] NO_FRACTIONS = new double[0];
+
+	private final NodeTable nodes;
+	private final EdgeTable edges;
+	private final boolean[] keep;
+
+	/**
+	 * Old node id -> new node id, for the kept nodes.
+	 */
+	private final int[] nodeMap;
+
+	/**
+	 * For the removed nodes, the kept nodes reached through them (as new node ids, sorted), and the
+	 * fraction of the flow into the removed node reaching each of them.
+	 */
+	private final int[][] closureTargets;
+	private final double[][] closureFractions;
+
+	/**
+	 * Dense scratch space for summing the fractions of a closure, by new node id, and the new node
+	 * ids with a fraction.
+	 */
+	private double[] fractionSums;
+	private boolean[] hasFraction;
+	private int[] targetsWithFraction = new int[16];
+	private int targetsWithFractionCount;
+
+	private GraphPruner(NodeTable nodes, EdgeTable edges, boolean[] keep) {
+		this.nodes = nodes;
+		this.edges = edges;
+		this.keep = keep;
+		nodeMap = new int[nodes.size];
+		closureTargets = new int[nodes.size][];
+		closureFractions = new double[nodes.size][];
+	}
+
+	/**
+	 * Prunes a graph.
+	 * 
+	 * @param model
+	 *            the graph to prune.
+	 * @param nodeFraction
+	 *            nodes with a cumulative count below this fraction of the total trace count are
+	 *            removed, e.g. 0.005.
+	 * @param edgeFraction
+	 *            edges with a count below this fraction of the total trace count are removed, after
+	 *            reconnecting, e.g. 0.001.
+	 * @param maxNodes
+	 *            the max number of nodes to keep, the ones with the highest cumulative counts, or 0
+	 *            for no limit.
+	 * @return a new, pruned, graph. The node and edge ids are not the same as in the original
+	 *         graph, but are in the same relative order.
+	 * @throws UnsupportedOperationException
+	 *             if the model is memory mapped, see {@link StacktraceGraphModel#isMapped()}.
+	 */
+	public static StacktraceGraphModel prune(
+		StacktraceGraphModel model, double nodeFraction, double edgeFraction, int maxNodes) {
+		NodeTable nodes = model.getNodeTable();
+		int[] importance = new int[nodes.size];
+		for (int i = 0; i < nodes.size; i++) {
+			importance[i] = getImportance(nodes, i);
+		}
+		return prune(model, selectNodes(importance, nodeFraction * model.getTotalTraceCount(), maxNodes),
+				edgeFraction);
+	}
+
+	/**
+	 * Prunes a graph, keeping a given set of nodes.
+	 * 
+	 * @param keep
+	 *            node id -> whether to keep the node, see {@link #selectNodes}.
+	 * @see #prune(StacktraceGraphModel, double, double, int)
+	 */
+	static StacktraceGraphModel prune(StacktraceGraphModel model, boolean[] keep, double edgeFraction) {
+		return new GraphPruner(model.getNodeTable(), model.getEdgeTable(), keep).prune(model,
+				edgeFraction * model.getTotalTraceCount());
+	}
+
+	/**
+	 * Selects the nodes to keep.
+	 * 
+	 * @param importance
+	 *            node id -> the importance of the node, see {@link #getImportance}.
+	 * @param minImportance
+	 *            nodes with a lower importance are removed.
+	 * @param maxNodes
+	 *            the max number of nodes to keep, the most important ones, or 0 for no limit.
+	 * @return node id -> whether to keep the node.
+	 */
+	static boolean[] selectNodes(int[] importance, double minImportance, int maxNodes) {
+		boolean[] keep = new boolean[importance.length];
+		int keepCount = 0;
+		for (int i = 0; i < importance.length; i++) {
+			if (importance[i] >= minImportance) {
+				keep[i] = true;
+				keepCount++;
+			}
+		}
+		if (maxNodes > 0 && keepCount > maxNodes) {
+			keepTop(importance, keep, keepCount, maxNodes);
+		}
+		return keep;
+	}
+
+	static int getImportance(NodeTable nodes, int nodeId) {
+		return Math.max(nodes.count[nodeId], nodes.cumulativeCount[nodeId]);
+	}
+
+	/**
+	 * Restricts the kept nodes to the most important ones. Ties are broken by node id, lowest
+	 * first.
+	 */
+	private static void keepTop(int[] importance, boolean[] keep, int keepCount, int maxNodes) {
+		long[] keys = new long[keepCount];
+		int k = 0;
+		for (int i = 0; i < keep.length; i++) {
+			if (keep[i]) {
+				keys[k++] = ((long) importance[i] << 32) | (Integer.MAX_VALUE - i);
+			}
+		}
+		Arrays.sort(keys);
+		Arrays.fill(keep, false);
+		for (int j = keys.length - maxNodes; j < keys.length; j++) {
+			keep[Integer.MAX_VALUE - (int) keys[j]] = true;
+		}
+	}
+
+	private StacktraceGraphModel prune(StacktraceGraphModel model, double minEdgeCount) {
+		NodeTable prunedNodes = new NodeTable();
+		for (int i = 0; i < nodes.size; i++) {
+			if (keep[i]) {
+				int nodeId = prunedNodes.add(nodes.frames[i]);
+				nodeMap[i] = nodeId;
+				prunedNodes.count[nodeId] = nodes.count[i];
+				prunedNodes.cumulativeCount[nodeId] = nodes.cumulativeCount[i];
+				prunedNodes.weight[nodeId] = nodes.weight[i];
+				prunedNodes.cumulativeWeight[nodeId] = nodes.cumulativeWeight[i];
+				prunedNodes.setLabel(nodeId, nodes.getLabel(i));
+			}
+		}
+		fractionSums = new double[prunedNodes.size];
+		hasFraction = new boolean[prunedNodes.size];
+		computeClosures();
+
+		// Collect the reconnected edges, with fractional counts, in a scratch table. The edges are
+		// visited in id order, so the relative order of the original graph is kept
+		EdgeTable candidates = new EdgeTable(prunedNodes);
+		double[] candidateCounts = new double[16];
+		double[] candidateValues = new double[16];
+		for (int e = 0; e < edges.size; e++) {
+			if (!keep[edges.from[e]]) {
+				continue;
+			}
+			int from = nodeMap[edges.from[e]];
+			int to = edges.to[e];
+			if (keep[to]) {
+				int c = candidates.getOrCreate(from, nodeMap[to]);
+				if (c == candidateCounts.length) {
+					candidateCounts = Arrays.copyOf(candidateCounts, c * 2);
+					candidateValues = Arrays.copyOf(candidateValues, c * 2);
+				}
+				candidateCounts[c] += edges.count[e];
+				candidateValues[c] += edges.value[e];
+				continue;
+			}
+			int[] targets = closureTargets[to];
+			double[] fractions = closureFractions[to];
+			for (int t = 0; t < targets.length; t++) {
+				int c = candidates.getOrCreate(from, targets[t]);
+				if (c == candidateCounts.length) {
+					candidateCounts = Arrays.copyOf(candidateCounts, c * 2);
+					candidateValues = Arrays.copyOf(candidateValues, c * 2);
+				}
+				candidateCounts[c] += edges.count[e] * fractions[t];
+				candidateValues[c] += edges.value[e] * fractions[t];
+			}
+		}
+
+		// Keep the candidates above the threshold
+		EdgeTable prunedEdges = new EdgeTable(prunedNodes);
+		int totalEdgeCount = 0;
+		for (int c = 0; c < candidates.size; c++) {
+			long count = Math.round(candidateCounts[c]);
+			if (count == 0 || count < minEdgeCount) {
+				continue;
+			}
+			int edgeId = prunedEdges.getOrCreate(candidates.from[c], candidates.to[c]);
+			prunedEdges.count[edgeId] = (int) count;
+			prunedEdges.value[edgeId] = candidateValues[c];
+			totalEdgeCount += count;
+		}
+		prunedEdges.freeze();
+		return new StacktraceGraphModel(model.getFrameSeparator(), model.getItems(), model.getAttribute(),
+				model.getTypeNames(), prunedNodes, prunedEdges, model.getTotalTraceCount(), totalEdgeCount);
+	}
+
+	/**
+	 * Calculates the closures of all the removed nodes. The strongly connected components of the
+	 * removed nodes are visited in reverse topological order, so the closures of the removed nodes
+	 * an edge leads to are always done before those of the nodes in the component it leaves.
+	 */
+	private void computeClosures() {
+		int[] components = StronglyConnectedComponents.find(nodes.size, edges, keep);
+		int componentCount = 0;
+		for (int component : components) {
+			componentCount = Math.max(componentCount, component + 1);
+		}
+		int[] starts = new int[componentCount + 1];
+		for (int component : components) {
+			if (component >= 0) {
+				starts[component + 1]++;
+			}
+		}
+		for (int c = 0; c < componentCount; c++) {
+			starts[c + 1] += starts[c];
+		}
+		int[] members = new int[starts[componentCount]];
+		int[] next = Arrays.copyOf(starts, componentCount);
+		for (int i = 0; i < components.length; i++) {
+			if (components[i] >= 0) {
+				members[next[components[i]]++] = i;
+			}
+		}
+		for (int c = 0; c < componentCount; c++) {
+			if (starts[c + 1] - starts[c] == 1 && !hasSelfLoop(members[starts[c]])) {
+				computeClosure(members[starts[c]]);
+			} else {
+				computeCycleClosures(members, starts[c], starts[c + 1], components, c);
+			}
+		}
+	}
+
+	private boolean hasSelfLoop(int nodeId) {
+		for (int i = 0; i < edges.getOutDegree(nodeId); i++) {
+			if (edges.to[edges.getOutEdge(nodeId, i)] == nodeId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Calculates the closure of a removed node that is not on a cycle, from those of the nodes its
+	 * edges lead to.
+	 */
+	private void computeClosure(int x) {
+		long outTotal = getOutTotal(x);
+		for (int i = 0; outTotal > 0 && i < edges.getOutDegree(x); i++) {
+			int f = edges.getOutEdge(x, i);
+			double share = (double) edges.count[f] / outTotal;
+			int y = edges.to[f];
+			if (keep[y]) {
+				addFraction(nodeMap[y], share);
+			} else {
+				int[] targets = closureTargets[y];
+				double[] fractions = closureFractions[y];
+				for (int t = 0; t < targets.length; t++) {
+					addFraction(targets[t], share * fractions[t]);
+				}
+			}
+		}
+		takeClosure(x);
+	}
+
+	/**
+	 * Calculates the closures of the removed nodes of a cycle, i.e. a strongly connected component.
+	 * The closure of a member is what its edges leaving the component reach directly, plus the
+	 * shares of the closures of the members its other edges lead to. This linear system is solved
+	 * by Gauss-Seidel iteration, which converges since the flow around the cycle is split off at
+	 * each edge leaving it.
+	 */
+	private void computeCycleClosures(int[] members, int start, int end, int[] components, int component) {
+		int n = end - start;
+		// The targets reached when leaving the component, in new node id order
+		for (int k = start; k < end; k++) {
+			int x = members[k];
+			for (int i = 0; i < edges.getOutDegree(x); i++) {
+				int y = edges.to[edges.getOutEdge(x, i)];
+				if (keep[y]) {
+					addFraction(nodeMap[y], 0);
+				} else if (components[y] != component) {
+					for (int target : closureTargets[y]) {
+						addFraction(target, 0);
+					}
+				}
+			}
+		}
+		int[] targets = Arrays.copyOf(targetsWithFraction, targetsWithFractionCount);
+		Arrays.sort(targets);
+		for (int target : targets) {
+			hasFraction[target] = false;
+		}
+		targetsWithFractionCount = 0;
+		int t = targets.length;
+
+		// Member -> the part of its closure reached when leaving the component, and the members its
+		// other edges lead to, with their shares
+		double[] exits = new double[n * t];
+		int[] internalStarts = new int[n + 1];
+		int[] internalMembers = new int[16];
+		double[] internalShares = new double[16];
+		int internalCount = 0;
+		for (int k = 0; k < n; k++) {
+			int x = members[start + k];
+			long outTotal = getOutTotal(x);
+			for (int i = 0; outTotal > 0 && i < edges.getOutDegree(x); i++) {
+				int f = edges.getOutEdge(x, i);
+				double share = (double) edges.count[f] / outTotal;
+				int y = edges.to[f];
+				if (keep[y]) {
+					exits[k * t + Arrays.binarySearch(targets, nodeMap[y])] += share;
+				} else if (components[y] != component) {
+					int[] yTargets = closureTargets[y];
+					double[] yFractions = closureFractions[y];
+					for (int j = 0; j < yTargets.length; j++) {
+						exits[k * t + Arrays.binarySearch(targets, yTargets[j])] += share * yFractions[j];
+					}
+				} else {
+					if (internalCount == internalMembers.length) {
+						internalMembers = Arrays.copyOf(internalMembers, internalCount * 2);
+						internalShares = Arrays.copyOf(internalShares, internalCount * 2);
+					}
+					// Members are in node id order
+					internalMembers[internalCount] = Arrays.binarySearch(members, start, end, y) - start;
+					internalShares[internalCount++] = share;
+				}
+			}
+			internalStarts[k + 1] = internalCount;
+		}
+
+		double[] closures = exits.clone();
+		for (int iteration = 0; t > 0 && iteration < MAX_ITERATIONS; iteration++) {
+			double maxChange = 0;
+			for (int k = 0; k < n; k++) {
+				for (int j = 0; j < t; j++) {
+					double closure = exits[k * t + j];
+					for (int i = internalStarts[k]; i < internalStarts[k + 1]; i++) {
+						closure += internalShares[i] * closures[internalMembers[i] * t + j];
+					}
+					maxChange = Math.max(maxChange, Math.abs(closure - closures[k * t + j]));
+					closures[k * t + j] = closure;
+				}
+			}
+			if (maxChange < CONVERGENCE_THRESHOLD) {
+				break;
+			}
+		}
+		for (int k = 0; k < n; k++) {
+			for (int j = 0; j < t; j++) {
+				if (closures[k * t + j] > 0) {
+					addFraction(targets[j], closures[k * t + j]);
+				}
+			}
+			takeClosure(members[start + k]);
+		}
+	}
+
+	private long getOutTotal(int nodeId) {
+		long outTotal = 0;
+		for (int i = 0; i < edges.getOutDegree(nodeId); i++) {
+			outTotal += edges.count[edges.getOutEdge(nodeId, i)];
+		}
+		return outTotal;
+	}
+
+	/**
+	 * Sets the closure of a node to the fractions summed in the scratch space, and clears it.
+	 */
+	private void takeClosure(int x) {
+		if (targetsWithFractionCount == 0) {
+			closureTargets[x] = NO_TARGETS;
+			closureFractions[x] = NO_FRACTIONS;
+			return;
+		}
+		int[] targets = Arrays.copyOf(targetsWithFraction, targetsWithFractionCount);
+		Arrays.sort(targets);
+		double[] fractions = new double[targets.length];
+		for (int t = 0; t < targets.length; t++) {
+			fractions[t] = fractionSums[targets[t]];
+			fractionSums[targets[t]] = 0;
+			hasFraction[targets[t]] = false;
+		}
+		targetsWithFractionCount = 0;
+		closureTargets[x] = targets;
+		closureFractions[x] = fractions;
+	}
+
+	private void addFraction(int target, double fraction) {
+		if (!hasFraction[target]) {
+			hasFraction[target] = true;
+			if (targetsWithFractionCount == targetsWithFraction.length) {
+				targetsWithFraction = Arrays.copyOf(targetsWithFraction, targetsWithFractionCount * 2);
+			}
+			targetsWithFraction[targetsWithFractionCount++] = target;
+		}
+		fractionSums[target] += fraction;
+	}
+}
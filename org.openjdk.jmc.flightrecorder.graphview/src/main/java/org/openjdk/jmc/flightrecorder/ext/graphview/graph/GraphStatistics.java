@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+/**
+ * Min, max and sum of the counts and weights of the nodes and edges in a
+ * {@link StacktraceGraphModel}.
+ * <p>
+ * The statistics are calculated in a single pass over the node and edge columns. For an empty graph,
+ * the min values are {@link Integer#MAX_VALUE} and {@link Double#MAX_VALUE} respectively, and the
+ * max and sum values are 0.
+ */
+public final class GraphStatistics {
+	private int nodeMinCount = Integer.MAX_VALUE;
+	private int nodeMaxCount;
+	private long nodeSumCount;
+	private double nodeMinWeight = Double.MAX_VALUE;
+	private double nodeMaxWeight;
+	private double nodeSumWeight;
+	private int edgeMinCount = Integer.MAX_VALUE;
+	private int edgeMaxCount;
+	private long edgeSumCount;
+	private double edgeMinValue = Double.MAX_VALUE;
+	private double edgeMaxValue;
+	private double edgeSumValue;
+
+	GraphStatistics(NodeStore nodes, EdgeStore edges) {
+		int nodeCount = nodes.size();
+		for (int i = 0; i < nodeCount; i++) {
+			int count = nodes.getCount(i);
+			double weight = nodes.getWeight(i);
+			nodeMinCount = Math.min(count, nodeMinCount);
+			nodeMaxCount = Math.max(count, nodeMaxCount);
+			nodeSumCount += count;
+			nodeMinWeight = Math.min(weight, nodeMinWeight);
+			nodeMaxWeight = Math.max(weight, nodeMaxWeight);
+			nodeSumWeight += weight;
+		}
+		int edgeCount = edges.size();
+		for (int i = 0; i < edgeCount; i++) {
+			int count = edges.getCount(i);
+			double value = edges.getValue(i);
+			edgeMinCount = Math.min(count, edgeMinCount);
+			edgeMaxCount = Math.max(count, edgeMaxCount);
+			edgeSumCount += count;
+			edgeMinValue = Math.min(value, edgeMinValue);
+			edgeMaxValue = Math.max(value, edgeMaxValue);
+			edgeSumValue += value;
+		}
+	}
+
+	public int getNodeMinCount() {
+		return nodeMinCount;
+	}
+
+	public int getNodeMaxCount() {
+		return nodeMaxCount;
+	}
+
+	public long getNodeSumCount() {
+		return nodeSumCount;
+	}
+
+	public double getNodeMinWeight() {
+		return nodeMinWeight;
+	}
+
+	public double getNodeMaxWeight() {
+		return nodeMaxWeight;
+	}
+
+	public double getNodeSumWeight() {
+		return nodeSumWeight;
+	}
+
+	public int getEdgeMinCount() {
+		return edgeMinCount;
+	}
+
+	public int getEdgeMaxCount() {
+		return edgeMaxCount;
+	}
+
+	public long getEdgeSumCount() {
+		return edgeSumCount;
+	}
+
+	public double getEdgeMinValue() {
+		return edgeMinValue;
+	}
+
+	public double getEdgeMaxValue() {
+		return edgeMaxValue;
+	}
+
+	public double getEdgeSumValue() {
+		return edgeSumValue;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"nodes: count %d-%d (sum %d), weight %f-%f (sum %f); edges: count %d-%d (sum %d), value %f-%f (sum %f)",
+				nodeMinCount, nodeMaxCount, nodeSumCount, nodeMinWeight, nodeMaxWeight, nodeSumWeight, edgeMinCount,
+				edgeMaxCount, edgeSumCount, edgeMinValue, edgeMaxValue, edgeSumValue);
+	}
+}
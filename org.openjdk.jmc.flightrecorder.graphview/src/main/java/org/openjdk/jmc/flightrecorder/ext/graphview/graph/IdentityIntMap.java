@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+/**
+ * Open addressing hash map from object identity to non-negative int values, using linear probing
+ * as described in {@link OpenAddressing}. No entry objects or boxed values are allocated, and
+ * lookups never call hashCode or equals on the keys. Null keys are not allowed, since null marks
+ * the empty slots.
+ * <p>
+ * Instances of this class are not thread safe.
+ */
+final class IdentityIntMap {
+	/**
+	 * Returned by {@link #get(Object)} when there is no value for a key.
+	 */
+	static final int NO_VALUE = -1;
+
+	private Object[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	IdentityIntMap() {
+		this(1024);
+	}
+
+	IdentityIntMap(int expectedSize) {
+		int capacity = OpenAddressing.capacityFor(expectedSize);
+		keys = new Object[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return the value for the key, or {@link #NO_VALUE} if there is none.
+	 * @throws NullPointerException
+	 *             if the key is null.
+	 */
+	int get(Object key) {
+		checkKey(key);
+		for (int i = OpenAddressing.mix(System.identityHashCode(key)) & mask;; i = OpenAddressing.nextSlot(i, mask)) {
+			Object candidate = keys[i];
+			if (candidate == key) {
+				return values[i];
+			} else if (candidate == null) {
+				return NO_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * Associates a value with a key, replacing any previous value.
+	 * 
+	 * @throws NullPointerException
+	 *             if the key is null.
+	 */
+	void put(Object key, int value) {
+		checkKey(key);
+		int i = OpenAddressing.mix(System.identityHashCode(key)) & mask;
+		for (Object candidate = keys[i]; candidate != null; candidate = keys[i]) {
+			if (candidate == key) {
+				values[i] = value;
+				return;
+			}
+			i = OpenAddressing.nextSlot(i, mask);
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (OpenAddressing.isFull(++size, keys.length)) {
+			rehash();
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void rehash() {
+		Object[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new Object[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+		mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			Object key = oldKeys[j];
+			if (key != null) {
+				int i = OpenAddressing.mix(System.identityHashCode(key)) & mask;
+				while (keys[i] != null) {
+					i = OpenAddressing.nextSlot(i, mask);
+				}
+				keys[i] = key;
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	private static void checkKey(Object key) {
+		if (key == null) {
+			throw new NullPointerException("Key must not be null");
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+
+/**
+ * A stack trace graph that grows as new items arrive, e.g. from the chunks of a continuously
+ * rotated recording repository, without being rebuilt from scratch.
+ * <p>
+ * Items are added with {@link #addItems(IItemCollection)}. After each addition a new immutable
+ * {@link StacktraceGraphModel} snapshot is published, which can be read with
+ * {@link #getSnapshot()}. Readers never block, and never see a partially added batch, so rendering
+ * can run concurrently with ingestion. Additions are serialized.
+ * <p>
+ * Publishing a snapshot copies the node and edge tables, i.e. costs time proportional to the size
+ * of the graph, not to the number of items added so far. The items themselves are not retained.
+ * <p>
+ * Node and edge ids are stable across snapshots, i.e. a node keeps its id as the graph grows.
+ * <p>
+ * Instances of this class are thread safe.
+ */
+public final class IncrementalStacktraceGraphModel {
+	private final FrameSeparator frameSeparator;
+	private final IAttribute<IQuantity> attribute;
+
+	/**
+	 * Guarded by this.
+	 */
+	private final GraphBuilder builder;
+
+	/**
+	 * Guarded by this.
+	 */
+	private final Set<String> typeNames = new LinkedHashSet<>();
+
+	private volatile StacktraceGraphModel snapshot;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 */
+	public IncrementalStacktraceGraphModel(FrameSeparator frameSeparator, IAttribute<IQuantity> attribute) {
+		this.frameSeparator = frameSeparator;
+		this.attribute = attribute;
+		builder = new GraphBuilder(frameSeparator);
+		snapshot = createSnapshot();
+	}
+
+	/**
+	 * Adds the stack traces of the items to the graph, and publishes a new snapshot.
+	 * 
+	 * @param items
+	 *            the items to add.
+	 * @return the new snapshot.
+	 */
+	public synchronized StacktraceGraphModel addItems(IItemCollection items) {
+		for (IItemIterable iterable : items) {
+			typeNames.add(iterable.getType().getName());
+			builder.addItems(iterable, attribute);
+		}
+		builder.flush();
+		StacktraceGraphModel newSnapshot = createSnapshot();
+		snapshot = newSnapshot;
+		return newSnapshot;
+	}
+
+	/**
+	 * @return the most recently published snapshot of the graph. Snapshots are never changed, and
+	 *         {@link StacktraceGraphModel#getItems()} returns null for them.
+	 */
+	public StacktraceGraphModel getSnapshot() {
+		return snapshot;
+	}
+
+	public FrameSeparator getFrameSeparator() {
+		return frameSeparator;
+	}
+
+	public IAttribute<IQuantity> getAttribute() {
+		return attribute;
+	}
+
+	private StacktraceGraphModel createSnapshot() {
+		NodeTable nodes = builder.nodes.copy();
+		EdgeTable edges = builder.edges.copy(nodes);
+		return new StacktraceGraphModel(frameSeparator, null, attribute, String.join(", ", typeNames), nodes, edges,
+				builder.totalTraceCount, builder.totalEdgeCount);
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from non-negative int keys to non-negative int values, using linear
+ * probing as described in {@link OpenAddressing}. No entry objects or boxed values are allocated.
+ * <p>
+ * Instances of this class are not thread safe.
+ */
+final class IntIntMap {
+	/**
+	 * Returned by {@link #get(int)} when there is no value for a key.
+	 */
+	static final int NO_VALUE = -1;
+
+	private static final int NO_KEY = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	IntIntMap() {
+		this(16);
+	}
+
+	IntIntMap(int expectedSize) {
+		int capacity = OpenAddressing.capacityFor(expectedSize);
+		keys = newKeys(capacity);
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return the value for the key, or {@link #NO_VALUE} if there is none.
+	 */
+	int get(int key) {
+		for (int i = OpenAddressing.mix(key) & mask;; i = OpenAddressing.nextSlot(i, mask)) {
+			int candidate = keys[i];
+			if (candidate == key) {
+				return values[i];
+			} else if (candidate == NO_KEY) {
+				return NO_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * Associates a value with a key, replacing any previous value.
+	 */
+	void put(int key, int value) {
+		int i = OpenAddressing.mix(key) & mask;
+		for (int candidate = keys[i]; candidate != NO_KEY; candidate = keys[i]) {
+			if (candidate == key) {
+				values[i] = value;
+				return;
+			}
+			i = OpenAddressing.nextSlot(i, mask);
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (OpenAddressing.isFull(++size, keys.length)) {
+			rehash();
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void rehash() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = newKeys(oldKeys.length * 2);
+		values = new int[oldValues.length * 2];
+		mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			int key = oldKeys[j];
+			if (key != NO_KEY) {
+				int i = OpenAddressing.mix(key) & mask;
+				while (keys[i] != NO_KEY) {
+					i = OpenAddressing.nextSlot(i, mask);
+				}
+				keys[i] = key;
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	private static int[] newKeys(int capacity) {
+		int[] keys = new int[capacity];
+		Arrays.fill(keys, NO_KEY);
+		return keys;
+	}
+}
@@ -0,0 +1,773 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemFilter;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator.FrameCategorization;
+
+/**
+ * A compact, versioned, binary snapshot of a built {@link StacktraceGraphModel}, for rendering
+ * prebuilt graphs from memory mapped files. A snapshot is opened by memory mapping it, and the
+ * opened model reads all its counts, weights, labels and edges straight from the mapped file.
+ * Opening a snapshot is therefore almost free, regardless of the size of the graph, the heap use
+ * of the opened model does not depend on the size of the graph, and {@link DotGenerator} and
+ * {@link CytoscapeGenerator} can render it without copying it onto the heap. Snapshots can be
+ * cached next to the recording they were built from, see
+ * {@link #openOrBuild(Path, Path, IItemFilter, FrameSeparator, IAttribute)}.
+ * <p>
+ * Only opened snapshots are off the heap. The graph is built on the heap, with
+ * {@link GraphBuilder}, before it is written, so a graph that does not fit on the heap cannot be
+ * built into a snapshot by this class.
+ * <p>
+ * The snapshot does not keep the frames, only their labels, so the nodes of an opened model have no
+ * frames, and the model has no items or attribute. Opened models cannot be pruned, or used as input
+ * for other derived models.
+ * <p>
+ * The file is little endian, and laid out as a header followed by one column per value, each
+ * aligned to 8 bytes:
+ * 
+ * <pre>
+ * int magic, int version, int nodeCount, int edgeCount, int totalTraceCount, int totalEdgeCount,
+ * int stringCount, int typeNames, int attribute, int categorization, int distinguishByOptimization,
+ * int unused, long stringBytes, long sourceSize, long sourceLastModified
+ * int[nodeCount] count, int[nodeCount] cumulativeCount, double[nodeCount] weight,
+ * double[nodeCount] cumulativeWeight, int[nodeCount] label
+ * int[nodeCount + 1] outOffsets, int[nodeCount + 1] inOffsets, int[edgeCount] inEdges,
+ * int[edgeCount] from, int[edgeCount] to, int[edgeCount] count, double[edgeCount] value
+ * long[stringCount + 1] stringOffsets, byte[stringBytes] strings (UTF-8)
+ * </pre>
+ * 
+ * The strings, i.e. the node labels, the type names, and the attribute and categorization
+ * identifiers, are kept once each in the string table, and referred to by index, or -1 for none.
+ * The edges are in compressed sparse row order: the outgoing edges of node n are the edges from
+ * outOffsets[n] up to outOffsets[n + 1]. The edge ids of an opened model are therefore not the
+ * same as in the model that was written. The incoming edges of node n are the edges with the ids
+ * in inEdges, from inOffsets[n] up to inOffsets[n + 1]. The source size and last modified time
+ * identify the recording the snapshot was built from, and are 0 if unknown.
+ * <p>
+ * Each column is mapped separately, and can be at most 2 GB. The strings are split into chunks of 1
+ * GB, with no string crossing a chunk boundary.
+ */
+public final class MappedGraphFile {
+	private static final int MAGIC = 0x4a4d4347; // "JMCG"
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 72;
+	private static final int NO_STRING = -1;
+	private static final int STRING_CHUNK_SHIFT = 30;
+	private static final int STRING_CHUNK_SIZE = 1 << STRING_CHUNK_SHIFT;
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private MappedGraphFile() {
+		throw new UnsupportedOperationException("Toolkit!");
+	}
+
+	/**
+	 * Writes a snapshot of a model, which can then be opened with {@link #open(Path)}. The columns
+	 * are streamed to the file, so apart from the string table and the new edge ids, no copy of the
+	 * model is made on the heap. The model itself is usually on the heap, since that is where models
+	 * are built.
+	 * <p>
+	 * The file must not be mapped by an opened model, since it is overwritten in place. Use
+	 * {@link #openOrBuild(Path, Path, IItemFilter, FrameSeparator, IAttribute)} to safely replace
+	 * snapshots that may be in use.
+	 * 
+	 * @param model
+	 *            the model to write.
+	 * @param file
+	 *            the file to write to. Overwritten if it already exists.
+	 * @throws IOException
+	 *             if the file could not be written.
+	 */
+	public static void write(StacktraceGraphModel model, Path file) throws IOException {
+		write(model, file, 0, 0);
+	}
+
+	private static void write(StacktraceGraphModel model, Path file, long sourceSize, long sourceLastModified)
+			throws IOException {
+		NodeStore nodes = model.getNodeStore();
+		EdgeStore edges = model.getEdgeStore();
+		int nodeCount = nodes.size();
+		int edgeCount = edges.size();
+
+		StringTable strings = new StringTable();
+		int[] labels = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			labels[i] = strings.add(nodes.getLabel(i));
+		}
+		int typeNames = strings.add(model.getTypeNames());
+		IAttribute<IQuantity> attribute = model.getAttribute();
+		int attributeId = attribute == null ? NO_STRING : strings.add(attribute.getIdentifier());
+		FrameSeparator frameSeparator = model.getFrameSeparator();
+		int categorization = frameSeparator == null ? NO_STRING
+				: strings.add(frameSeparator.getCategorization().name());
+
+		long position = align(HEADER_SIZE);
+		position = align(position + 4L * nodeCount);
+		position = align(position + 4L * nodeCount);
+		position += 16L * nodeCount;
+		long outOffsetsStart = align(position + 4L * nodeCount);
+		long inOffsetsStart = align(outOffsetsStart + 4L * (nodeCount + 1));
+		long inEdgesStart = align(inOffsetsStart + 4L * (nodeCount + 1));
+		long fromStart = align(inEdgesStart + 4L * edgeCount);
+		long toStart = align(fromStart + 4L * edgeCount);
+		long countStart = align(toStart + 4L * edgeCount);
+		long valueStart = align(countStart + 4L * edgeCount);
+		long stringOffsetsStart = getStringOffsetsStart(nodeCount, edgeCount);
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			try (ColumnWriter out = new ColumnWriter(channel, 0)) {
+				out.putInt(MAGIC);
+				out.putInt(VERSION);
+				out.putInt(nodeCount);
+				out.putInt(edgeCount);
+				out.putInt(model.getTotalTraceCount());
+				out.putInt(model.getTotalEdgeCount());
+				out.putInt(strings.size());
+				out.putInt(typeNames);
+				out.putInt(attributeId);
+				out.putInt(categorization);
+				out.putInt(frameSeparator != null && frameSeparator.isDistinguishFramesByOptimization() ? 1 : 0);
+				out.putInt(0);
+				out.putLong(strings.byteCount);
+				out.putLong(sourceSize);
+				out.putLong(sourceLastModified);
+				for (int i = 0; i < nodeCount; i++) {
+					out.putInt(nodes.getCount(i));
+				}
+				out.align();
+				for (int i = 0; i < nodeCount; i++) {
+					out.putInt(nodes.getCumulativeCount(i));
+				}
+				out.align();
+				for (int i = 0; i < nodeCount; i++) {
+					out.putDouble(nodes.getWeight(i));
+				}
+				for (int i = 0; i < nodeCount; i++) {
+					out.putDouble(nodes.getCumulativeWeight(i));
+				}
+				for (int i = 0; i < nodeCount; i++) {
+					out.putInt(labels[i]);
+				}
+			}
+			// Old edge id -> new edge id, for the incoming edges
+			int[] newEdgeIds = new int[edgeCount];
+			try (ColumnWriter outOffsets = new ColumnWriter(channel, outOffsetsStart);
+					ColumnWriter from = new ColumnWriter(channel, fromStart);
+					ColumnWriter to = new ColumnWriter(channel, toStart);
+					ColumnWriter count = new ColumnWriter(channel, countStart);
+					ColumnWriter value = new ColumnWriter(channel, valueStart)) {
+				int offset = 0;
+				for (int i = 0; i < nodeCount; i++) {
+					outOffsets.putInt(offset);
+					int outDegree = edges.getOutDegree(i);
+					for (int j = 0; j < outDegree; j++) {
+						int e = edges.getOutEdge(i, j);
+						newEdgeIds[e] = offset++;
+						from.putInt(i);
+						to.putInt(edges.getTo(e));
+						count.putInt(edges.getCount(e));
+						value.putDouble(edges.getValue(e));
+					}
+				}
+				outOffsets.putInt(offset);
+			}
+			try (ColumnWriter inOffsets = new ColumnWriter(channel, inOffsetsStart);
+					ColumnWriter inEdges = new ColumnWriter(channel, inEdgesStart)) {
+				int offset = 0;
+				for (int i = 0; i < nodeCount; i++) {
+					inOffsets.putInt(offset);
+					int inDegree = edges.getInDegree(i);
+					for (int j = 0; j < inDegree; j++) {
+						inEdges.putInt(newEdgeIds[edges.getInEdge(i, j)]);
+					}
+					offset += inDegree;
+				}
+				inOffsets.putInt(offset);
+			}
+			try (ColumnWriter out = new ColumnWriter(channel, stringOffsetsStart);
+					ColumnWriter bytes = new ColumnWriter(channel,
+							align(stringOffsetsStart + 8L * (strings.size() + 1)))) {
+				long offset = 0;
+				for (String string : strings.strings) {
+					byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+					long chunkEnd = ((offset >>> STRING_CHUNK_SHIFT) + 1) << STRING_CHUNK_SHIFT;
+					if (offset + encoded.length > chunkEnd) {
+						bytes.pad((int) (chunkEnd - offset));
+						offset = chunkEnd;
+					}
+					out.putLong(offset);
+					bytes.put(encoded);
+					offset += encoded.length;
+				}
+				out.putLong(offset);
+			}
+		}
+	}
+
+	/**
+	 * Opens a snapshot written with {@link #write(StacktraceGraphModel, Path)}. The file is mapped
+	 * read only, and must not be changed while the model is in use. The mapping is released when
+	 * the model is garbage collected.
+	 * 
+	 * @param file
+	 *            the file to open.
+	 * @return a model reading from the mapped file.
+	 * @throws IOException
+	 *             if the file could not be mapped, or is not a snapshot of the current version.
+	 */
+	public static StacktraceGraphModel open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Header header = Header.read(channel);
+			if (header == null) {
+				throw new IOException(file + " is not a graph snapshot");
+			}
+			if (header.version != VERSION) {
+				throw new IOException("Unsupported graph snapshot version " + header.version);
+			}
+			int nodeCount = header.nodeCount;
+			int edgeCount = header.edgeCount;
+
+			long position = align(HEADER_SIZE);
+			IntBuffer nodeCounts = map(channel, position, 4L * nodeCount).asIntBuffer();
+			position = align(position + 4L * nodeCount);
+			IntBuffer cumulativeCounts = map(channel, position, 4L * nodeCount).asIntBuffer();
+			position = align(position + 4L * nodeCount);
+			DoubleBuffer weights = map(channel, position, 8L * nodeCount).asDoubleBuffer();
+			position += 8L * nodeCount;
+			DoubleBuffer cumulativeWeights = map(channel, position, 8L * nodeCount).asDoubleBuffer();
+			position += 8L * nodeCount;
+			IntBuffer labels = map(channel, position, 4L * nodeCount).asIntBuffer();
+			position = align(position + 4L * nodeCount);
+			IntBuffer outOffsets = map(channel, position, 4L * (nodeCount + 1)).asIntBuffer();
+			position = align(position + 4L * (nodeCount + 1));
+			IntBuffer inOffsets = map(channel, position, 4L * (nodeCount + 1)).asIntBuffer();
+			position = align(position + 4L * (nodeCount + 1));
+			IntBuffer inEdges = map(channel, position, 4L * edgeCount).asIntBuffer();
+			position = align(position + 4L * edgeCount);
+			IntBuffer from = map(channel, position, 4L * edgeCount).asIntBuffer();
+			position = align(position + 4L * edgeCount);
+			IntBuffer to = map(channel, position, 4L * edgeCount).asIntBuffer();
+			position = align(position + 4L * edgeCount);
+			IntBuffer edgeCounts = map(channel, position, 4L * edgeCount).asIntBuffer();
+			position = align(position + 4L * edgeCount);
+			DoubleBuffer values = map(channel, position, 8L * edgeCount).asDoubleBuffer();
+			position += 8L * edgeCount;
+			MappedStrings strings = mapStrings(channel, header, position);
+
+			MappedNodeStore nodes = new MappedNodeStore(nodeCount, nodeCounts, cumulativeCounts, weights,
+					cumulativeWeights, labels, strings);
+			MappedEdgeStore edges = new MappedEdgeStore(nodes, edgeCount, outOffsets, inOffsets, inEdges, from, to,
+					edgeCounts, values);
+			FrameSeparator frameSeparator = null;
+			if (header.categorization != NO_STRING) {
+				frameSeparator = new FrameSeparator(
+						FrameCategorization.valueOf(strings.get(header.categorization)),
+						header.distinguishByOptimization);
+			}
+			return new StacktraceGraphModel(frameSeparator, null, null, strings.get(header.typeNames), nodes, edges,
+					header.totalTraceCount, header.totalEdgeCount);
+		}
+	}
+
+	/**
+	 * Opens the snapshot of a graph built from a recording, building it first if there is no
+	 * snapshot, or if the snapshot was built from a different version of the recording, with
+	 * different settings, or by a different version of this class. Building the graph needs as
+	 * much heap as building a {@link StacktraceGraphModel} from the recording, only the opened
+	 * snapshot is off the heap. A new snapshot is written to a
+	 * temporary file which then replaces the old snapshot, so models opened from the old snapshot
+	 * remain valid. If the old snapshot cannot be replaced, e.g. on Windows while it is mapped by an
+	 * opened model, the model that was built is returned as is, on the heap, and the temporary file
+	 * is deleted right away. Replacing the old snapshot is then tried again by the next call.
+	 * 
+	 * @param snapshot
+	 *            the snapshot file, typically from {@link #getSnapshotPath(Path, String)}.
+	 * @param recording
+	 *            the recording to build the graph from.
+	 * @param filter
+	 *            the filter selecting the items to graph. Must always be the same for the same
+	 *            snapshot file, since it cannot be checked.
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 * @return a model reading from the mapped snapshot, or the built model if the snapshot could not
+	 *         be replaced.
+	 * @throws IOException
+	 *             if the recording could not be read, or the snapshot could not be written or
+	 *             mapped.
+	 * @throws CouldNotLoadRecordingException
+	 *             if the recording could not be parsed.
+	 */
+	public static StacktraceGraphModel openOrBuild(
+		Path snapshot, Path recording, IItemFilter filter, FrameSeparator frameSeparator,
+		IAttribute<IQuantity> attribute) throws IOException, CouldNotLoadRecordingException {
+		long sourceSize = Files.size(recording);
+		long sourceLastModified = Files.getLastModifiedTime(recording).toMillis();
+		if (Files.isRegularFile(snapshot)
+				&& isUpToDate(snapshot, sourceSize, sourceLastModified, frameSeparator, attribute)) {
+			return open(snapshot);
+		}
+		IItemCollection items = JfrLoaderToolkit.loadEvents(recording.toFile()).apply(filter);
+		StacktraceGraphModel model = new StacktraceGraphModel(frameSeparator, items, attribute);
+		Path directory = snapshot.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(directory, snapshot.getFileName().toString(), ".tmp");
+		try {
+			write(model, temp, sourceSize, sourceLastModified);
+			try {
+				Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (FileSystemException e) {
+				// E.g. on Windows, where a file mapped by an opened model cannot be replaced. Mapping
+				// the temporary file instead would keep it from being deleted, so use the model as
+				// is, and leave the replacing to a later call.
+				return model;
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return open(snapshot);
+	}
+
+	/**
+	 * @param recording
+	 *            the recording the snapshot is built from.
+	 * @param name
+	 *            a name for the kind of graph, e.g. the type of the graphed events. Must be usable
+	 *            in a file name.
+	 * @return the path of a snapshot next to the recording.
+	 */
+	public static Path getSnapshotPath(Path recording, String name) {
+		return recording.resolveSibling(recording.getFileName() + "." + name + ".graph");
+	}
+
+	private static boolean isUpToDate(
+		Path snapshot, long sourceSize, long sourceLastModified, FrameSeparator frameSeparator,
+		IAttribute<IQuantity> attribute) throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			Header header = Header.read(channel);
+			if (header == null || header.version != VERSION || header.sourceSize != sourceSize
+					|| header.sourceLastModified != sourceLastModified
+					|| header.distinguishByOptimization != frameSeparator.isDistinguishFramesByOptimization()) {
+				return false;
+			}
+			MappedStrings strings = mapStrings(channel, header,
+					getStringOffsetsStart(header.nodeCount, header.edgeCount));
+			String categorization = header.categorization == NO_STRING ? null : strings.get(header.categorization);
+			String attributeId = header.attribute == NO_STRING ? null : strings.get(header.attribute);
+			return frameSeparator.getCategorization().name().equals(categorization)
+					&& (attribute == null ? attributeId == null : attribute.getIdentifier().equals(attributeId));
+		}
+	}
+
+	private static MappedStrings mapStrings(FileChannel channel, Header header, long stringOffsetsStart)
+			throws IOException {
+		LongBuffer offsets = map(channel, stringOffsetsStart, 8L * (header.stringCount + 1)).asLongBuffer();
+		long stringsStart = align(stringOffsetsStart + 8L * (header.stringCount + 1));
+		int chunkCount = (int) ((header.stringBytes + STRING_CHUNK_SIZE - 1) >>> STRING_CHUNK_SHIFT);
+		ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+		for (int i = 0; i < chunks.length; i++) {
+			long chunkStart = (long) i << STRING_CHUNK_SHIFT;
+			chunks[i] = map(channel, stringsStart + chunkStart,
+					Math.min(STRING_CHUNK_SIZE, header.stringBytes - chunkStart));
+		}
+		return new MappedStrings(offsets, chunks);
+	}
+
+	private static long getStringOffsetsStart(int nodeCount, int edgeCount) {
+		long position = align(HEADER_SIZE);
+		position = align(position + 4L * nodeCount);
+		position = align(position + 4L * nodeCount);
+		position += 16L * nodeCount;
+		position = align(position + 4L * nodeCount);
+		position = align(position + 4L * (nodeCount + 1));
+		position = align(position + 4L * (nodeCount + 1));
+		position = align(position + 4L * edgeCount);
+		position = align(position + 4L * edgeCount);
+		position = align(position + 4L * edgeCount);
+		position = align(position + 4L * edgeCount);
+		return position + 8L * edgeCount;
+	}
+
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Column of " + size + " bytes is too large to map");
+		}
+		if (position + size > channel.size()) {
+			throw new IOException("Graph file is truncated");
+		}
+		return channel.map(MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Writes a column, starting at a given position in the file, through a direct buffer.
+	 */
+	private static final class ColumnWriter implements AutoCloseable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		private long position;
+		private long written;
+
+		ColumnWriter(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		void putInt(int value) throws IOException {
+			ensureRemaining(4);
+			buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensureRemaining(8);
+			buffer.putLong(value);
+		}
+
+		void putDouble(double value) throws IOException {
+			ensureRemaining(8);
+			buffer.putDouble(value);
+		}
+
+		void put(byte[] bytes) throws IOException {
+			int offset = 0;
+			while (offset < bytes.length) {
+				ensureRemaining(1);
+				int length = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, length);
+				offset += length;
+			}
+		}
+
+		void pad(int length) throws IOException {
+			for (int i = 0; i < length; i++) {
+				ensureRemaining(1);
+				buffer.put((byte) 0);
+			}
+		}
+
+		/**
+		 * Pads the column to the next multiple of 8 bytes.
+		 */
+		void align() throws IOException {
+			long size = written + buffer.position();
+			pad((int) (MappedGraphFile.align(size) - size));
+		}
+
+		private void ensureRemaining(int length) throws IOException {
+			if (buffer.remaining() < length) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			written += buffer.remaining();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	private static final class Header {
+		int version;
+		int nodeCount;
+		int edgeCount;
+		int totalTraceCount;
+		int totalEdgeCount;
+		int stringCount;
+		int typeNames;
+		int attribute;
+		int categorization;
+		boolean distinguishByOptimization;
+		long stringBytes;
+		long sourceSize;
+		long sourceLastModified;
+
+		/**
+		 * @return the header, or null if the file is not a graph snapshot.
+		 */
+		static Header read(FileChannel channel) throws IOException {
+			if (channel.size() < HEADER_SIZE) {
+				return null;
+			}
+			ByteBuffer buffer = map(channel, 0, HEADER_SIZE);
+			if (buffer.getInt(0) != MAGIC) {
+				return null;
+			}
+			Header header = new Header();
+			header.version = buffer.getInt(4);
+			header.nodeCount = buffer.getInt(8);
+			header.edgeCount = buffer.getInt(12);
+			header.totalTraceCount = buffer.getInt(16);
+			header.totalEdgeCount = buffer.getInt(20);
+			header.stringCount = buffer.getInt(24);
+			header.typeNames = buffer.getInt(28);
+			header.attribute = buffer.getInt(32);
+			header.categorization = buffer.getInt(36);
+			header.distinguishByOptimization = buffer.getInt(40) != 0;
+			header.stringBytes = buffer.getLong(48);
+			header.sourceSize = buffer.getLong(56);
+			header.sourceLastModified = buffer.getLong(64);
+			return header;
+		}
+	}
+
+	/**
+	 * Collects the distinct strings to write, in order of first use.
+	 */
+	private static final class StringTable {
+		final List<String> strings = new ArrayList<>();
+		final Map<String, Integer> indices = new HashMap<>();
+		long byteCount;
+
+		int add(String string) {
+			Integer index = indices.get(string);
+			if (index == null) {
+				index = strings.size();
+				indices.put(string, index);
+				strings.add(string);
+				int length = string.getBytes(StandardCharsets.UTF_8).length;
+				if (length > STRING_CHUNK_SIZE) {
+					throw new IllegalArgumentException("String of " + length + " bytes is too long to map");
+				}
+				long chunkEnd = ((byteCount >>> STRING_CHUNK_SHIFT) + 1) << STRING_CHUNK_SHIFT;
+				if (byteCount + length > chunkEnd) {
+					byteCount = chunkEnd;
+				}
+				byteCount += length;
+			}
+			return index;
+		}
+
+		int size() {
+			return strings.size();
+		}
+	}
+
+	private static final class MappedStrings {
+		private final LongBuffer offsets;
+		private final ByteBuffer[] chunks;
+
+		MappedStrings(LongBuffer offsets, ByteBuffer[] chunks) {
+			this.offsets = offsets;
+			this.chunks = chunks;
+		}
+
+		String get(int index) {
+			long start = offsets.get(index);
+			int length = (int) (offsets.get(index + 1) - start);
+			if (length == 0) {
+				return "";
+			}
+			ByteBuffer chunk = chunks[(int) (start >>> STRING_CHUNK_SHIFT)].duplicate();
+			chunk.position((int) (start & (STRING_CHUNK_SIZE - 1)));
+			byte[] bytes = new byte[length];
+			chunk.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static final class MappedNodeStore extends NodeStore {
+		private final int size;
+		private final IntBuffer count;
+		private final IntBuffer cumulativeCount;
+		private final DoubleBuffer weight;
+		private final DoubleBuffer cumulativeWeight;
+		private final IntBuffer labels;
+		private final MappedStrings strings;
+
+		MappedNodeStore(
+			int size, IntBuffer count, IntBuffer cumulativeCount, DoubleBuffer weight, DoubleBuffer cumulativeWeight,
+			IntBuffer labels, MappedStrings strings) {
+			this.size = size;
+			this.count = count;
+			this.cumulativeCount = cumulativeCount;
+			this.weight = weight;
+			this.cumulativeWeight = cumulativeWeight;
+			this.labels = labels;
+			this.strings = strings;
+		}
+
+		@Override
+		int size() {
+			return size;
+		}
+
+		@Override
+		int getCount(int nodeId) {
+			return count.get(nodeId);
+		}
+
+		@Override
+		int getCumulativeCount(int nodeId) {
+			return cumulativeCount.get(nodeId);
+		}
+
+		@Override
+		double getWeight(int nodeId) {
+			return weight.get(nodeId);
+		}
+
+		@Override
+		double getCumulativeWeight(int nodeId) {
+			return cumulativeWeight.get(nodeId);
+		}
+
+		@Override
+		String getLabel(int nodeId) {
+			return strings.get(labels.get(nodeId));
+		}
+
+		@Override
+		AggregatableFrame getFrame(int nodeId) {
+			return null;
+		}
+	}
+
+	/**
+	 * The edges, in compressed sparse row order, so the outgoing edges of a node are a range of
+	 * edge ids.
+	 */
+	private static final class MappedEdgeStore extends EdgeStore {
+		private final MappedNodeStore nodes;
+		private final int size;
+		private final IntBuffer outOffsets;
+		private final IntBuffer inOffsets;
+		private final IntBuffer inEdges;
+		private final IntBuffer from;
+		private final IntBuffer to;
+		private final IntBuffer count;
+		private final DoubleBuffer value;
+
+		MappedEdgeStore(
+			MappedNodeStore nodes, int size, IntBuffer outOffsets, IntBuffer inOffsets, IntBuffer inEdges,
+			IntBuffer from, IntBuffer to, IntBuffer count, DoubleBuffer value) {
+			this.nodes = nodes;
+			this.size = size;
+			this.outOffsets = outOffsets;
+			this.inOffsets = inOffsets;
+			this.inEdges = inEdges;
+			this.from = from;
+			this.to = to;
+			this.count = count;
+			this.value = value;
+		}
+
+		@Override
+		int size() {
+			return size;
+		}
+
+		@Override
+		int getFrom(int edgeId) {
+			return from.get(edgeId);
+		}
+
+		@Override
+		int getTo(int edgeId) {
+			return to.get(edgeId);
+		}
+
+		@Override
+		int getCount(int edgeId) {
+			return count.get(edgeId);
+		}
+
+		@Override
+		double getValue(int edgeId) {
+			return value.get(edgeId);
+		}
+
+		@Override
+		int getOutDegree(int nodeId) {
+			return outOffsets.get(nodeId + 1) - outOffsets.get(nodeId);
+		}
+
+		@Override
+		int getOutEdge(int nodeId, int index) {
+			return outOffsets.get(nodeId) + index;
+		}
+
+		@Override
+		int getInDegree(int nodeId) {
+			return inOffsets.get(nodeId + 1) - inOffsets.get(nodeId);
+		}
+
+		@Override
+		int getInEdge(int nodeId, int index) {
+			return inEdges.get(inOffsets.get(nodeId) + index);
+		}
+
+		@Override
+		NodeStore getNodes() {
+			return nodes;
+		}
+	}
+}
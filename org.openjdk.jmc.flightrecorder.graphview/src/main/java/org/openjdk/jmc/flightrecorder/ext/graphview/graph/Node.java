@@ -5,72 +5,70 @@ package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
  */
 public class Node {
 	/**
-	 * Integer uniquely identifying this node within the graph instance.
+	 * The store holding the data of this node.
 	 */
-	private final Integer nodeId;
+	private final NodeStore store;
 
 	/**
-	 * The frame associated with this node.
+	 * Integer uniquely identifying this node within the graph instance. Also the row of this node
+	 * in the store.
 	 */
-	private final AggregatableFrame frame;
+	final int nodeId;
 
-	// If we want to optimize for memory, these could be calculated later,
-	// and only the frames used.
-	/**
-	 * The number of times being the top frame.
-	 */
-	int count;
-
-	/**
-	 * The number of times found in any stack-trace.
-	 */
-	int cumulativeCount;
-
-	/**
-	 * The weight when being the top frame.
-	 */
-	double weight;
-
-	/**
-	 * The cumulative weight for all contributions.
-	 */
-	double cumulativeWeight;
-
-	public Node(Integer nodeId, AggregatableFrame frame) {
+	Node(NodeStore store, int nodeId) {
+		this.store = store;
 		this.nodeId = nodeId;
-		this.frame = frame;
-		if (frame == null) {
-			throw new NullPointerException("Frame cannot be null!");
-		}
 	}
 
 	/**
 	 * @return the number of times this node was on the top of the stack.
 	 */
 	public int getCount() {
-		return count;
+		return store.getCount(nodeId);
 	}
 
 	/**
 	 * @return the weight of this node.
 	 */
 	public double getWeight() {
-		return weight;
+		return store.getWeight(nodeId);
 	}
 
 	/**
 	 * @return the number of times this node was passed through.
 	 */
 	public int getCumulativeCount() {
-		return cumulativeCount;
+		return store.getCumulativeCount(nodeId);
 	}
 
+	/**
+	 * @return the cumulative weight for all contributions.
+	 */
+	public double getCumulativeWeight() {
+		return store.getCumulativeWeight(nodeId);
+	}
+
+	/**
+	 * @return the human readable name of the frame of this node, for use in labels.
+	 */
+	public String getLabel() {
+		return store.getLabel(nodeId);
+	}
+
+	/**
+	 * @return the frame of this node, or null if the model does not keep the frames, e.g. a model
+	 *         opened with {@link MappedGraphFile#open(java.nio.file.Path)}.
+	 */
 	public AggregatableFrame getFrame() {
-		return frame;
+		return store.getFrame(nodeId);
 	}
 
 	@Override
 	public int hashCode() {
+		AggregatableFrame frame = getFrame();
+		if (frame == null) {
+			return getLabel().hashCode();
+		}
 		// This will get a few extra collisions.
 		return frame.getMethod().hashCode();
 	}
@@ -84,19 +82,22 @@ public class Node {
 		if (getClass() != obj.getClass())
 			return false;
 		Node other = (Node) obj;
+		AggregatableFrame frame = getFrame();
 		if (frame == null) {
-			if (other.frame != null)
-				return false;
+			// Stores without frames, e.g. mapped files, only have the labels to go on
+			return other.getFrame() == null && getLabel().equals(other.getLabel());
 		}
-		return frame.equals(other.frame);
+		return frame.equals(other.getFrame());
 	}
 
 	public Integer getNodeId() {
-		return nodeId;
+		return Integer.valueOf(nodeId);
 	}
 
 	@Override
 	public String toString() {
-		return String.format("%s:%d(%d)", frame.toString(), count, cumulativeCount);
+		AggregatableFrame frame = getFrame();
+		return String.format("%s:%d(%d)", frame == null ? getLabel() : frame.toString(), getCount(),
+				getCumulativeCount());
 	}
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Read access to the columns of the nodes of a graph, by node id. The {@link Node} instances
+ * handed out are only views on a row.
+ * <p>
+ * The columns are either kept on the heap, in a {@link NodeTable}, or in a memory mapped file, see
+ * {@link MappedGraphFile}.
+ */
+abstract class NodeStore {
+	/**
+	 * @return the number of nodes.
+	 */
+	abstract int size();
+
+	abstract int getCount(int nodeId);
+
+	abstract int getCumulativeCount(int nodeId);
+
+	abstract double getWeight(int nodeId);
+
+	abstract double getCumulativeWeight(int nodeId);
+
+	/**
+	 * @return the human readable, separator sensitive, name of the node.
+	 */
+	abstract String getLabel(int nodeId);
+
+	/**
+	 * @return the frame of the node, or null if the store does not keep the frames.
+	 */
+	abstract AggregatableFrame getFrame(int nodeId);
+
+	Node getNode(int nodeId) {
+		return new Node(this, nodeId);
+	}
+
+	/**
+	 * @return a read only list view of the nodes, without copying.
+	 */
+	List<Node> asList() {
+		return new AbstractList<Node>() {
+			@Override
+			public Node get(int index) {
+				if (index >= size()) {
+					throw new IndexOutOfBoundsException(String.valueOf(index));
+				}
+				return getNode(index);
+			}
+
+			@Override
+			public int size() {
+				return NodeStore.this.size();
+			}
+		};
+	}
+}
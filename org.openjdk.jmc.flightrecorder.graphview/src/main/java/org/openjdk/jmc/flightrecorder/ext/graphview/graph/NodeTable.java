@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+
+/**
+ * Columnar heap storage for the nodes of a graph. All the per node data is kept in primitive
+ * arrays indexed by node id, and the {@link Node} instances handed out are only views on a row.
+ * <p>
+ * A table can hold the weights for several attributes. The weights of the first attribute are in
+ * the weight columns, and the weights of the others in the extra weight columns. Use
+ * {@link #forAttribute(int)} to get a table with the weights of another attribute in the weight
+ * columns.
+ */
+final class NodeTable extends NodeStore {
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	int size;
+	AggregatableFrame[] frames;
+	int[] count;
+	int[] cumulativeCount;
+	double[] weight;
+	double[] cumulativeWeight;
+
+	/**
+	 * Attribute index - 1 -> node id -> weight, for the attributes after the first.
+	 */
+	double[][] extraWeight;
+	double[][] extraCumulativeWeight;
+
+	/**
+	 * Lazily created views, so that a node id normally maps to the same {@link Node} instance.
+	 * Readers may race to create a view, which is harmless, since views are immutable and equal
+	 * for the same node id.
+	 */
+	private Node[] views;
+
+	/**
+	 * Lazily created human readable labels, allocated along with the other columns so that readers
+	 * only ever fill in elements, never replace the array. Like for the views, racing to create a
+	 * label is harmless, since strings are immutable.
+	 */
+	private String[] labels;
+
+	NodeTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	NodeTable(int capacity) {
+		this(capacity, 1);
+	}
+
+	NodeTable(int capacity, int attributeCount) {
+		capacity = Math.max(capacity, 16);
+		frames = new AggregatableFrame[capacity];
+		count = new int[capacity];
+		cumulativeCount = new int[capacity];
+		weight = new double[capacity];
+		cumulativeWeight = new double[capacity];
+		extraWeight = new double[attributeCount - 1][capacity];
+		extraCumulativeWeight = new double[attributeCount - 1][capacity];
+		views = new Node[capacity];
+		labels = new String[capacity];
+	}
+
+	/**
+	 * @return the number of attributes there are weights for.
+	 */
+	int getAttributeCount() {
+		return extraWeight.length + 1;
+	}
+
+	/**
+	 * @return a table sharing all columns with this table, except that the weight columns are the
+	 *         ones for the given attribute. The tables must not be changed after this.
+	 */
+	NodeTable forAttribute(int attributeIndex) {
+		if (attributeIndex == 0) {
+			return this;
+		}
+		NodeTable table = new NodeTable(0, 1);
+		table.size = size;
+		table.frames = frames;
+		table.count = count;
+		table.cumulativeCount = cumulativeCount;
+		table.weight = extraWeight[attributeIndex - 1];
+		table.cumulativeWeight = extraCumulativeWeight[attributeIndex - 1];
+		table.views = new Node[frames.length];
+		table.labels = labels;
+		return table;
+	}
+
+	/**
+	 * Adds a new row for the frame.
+	 * 
+	 * @return the id of the new node.
+	 */
+	int add(AggregatableFrame frame) {
+		if (size == frames.length) {
+			grow();
+		}
+		frames[size] = frame;
+		return size++;
+	}
+
+	/**
+	 * @return a copy of the table, trimmed to size, that is not affected by later changes to this
+	 *         table. Only the weights of the first attribute are copied.
+	 */
+	NodeTable copy() {
+		NodeTable copy = new NodeTable(size);
+		copy.size = size;
+		System.arraycopy(frames, 0, copy.frames, 0, size);
+		System.arraycopy(count, 0, copy.count, 0, size);
+		System.arraycopy(cumulativeCount, 0, copy.cumulativeCount, 0, size);
+		System.arraycopy(weight, 0, copy.weight, 0, size);
+		System.arraycopy(cumulativeWeight, 0, copy.cumulativeWeight, 0, size);
+		System.arraycopy(labels, 0, copy.labels, 0, size);
+		return copy;
+	}
+
+	@Override
+	int size() {
+		return size;
+	}
+
+	@Override
+	int getCount(int nodeId) {
+		return count[nodeId];
+	}
+
+	@Override
+	int getCumulativeCount(int nodeId) {
+		return cumulativeCount[nodeId];
+	}
+
+	@Override
+	double getWeight(int nodeId) {
+		return weight[nodeId];
+	}
+
+	@Override
+	double getCumulativeWeight(int nodeId) {
+		return cumulativeWeight[nodeId];
+	}
+
+	@Override
+	AggregatableFrame getFrame(int nodeId) {
+		return frames[nodeId];
+	}
+
+	@Override
+	Node getNode(int nodeId) {
+		Node node = views[nodeId];
+		if (node == null) {
+			if (frames[nodeId] == null) {
+				throw new NullPointerException("Frame cannot be null!");
+			}
+			node = new Node(this, nodeId);
+			views[nodeId] = node;
+		}
+		return node;
+	}
+
+	/**
+	 * @return the human readable, separator sensitive, name of the node. Created once per node.
+	 */
+	@Override
+	String getLabel(int nodeId) {
+		String label = labels[nodeId];
+		if (label == null) {
+			label = frames[nodeId].getHumanReadableSeparatorSensitiveString();
+			labels[nodeId] = label;
+		}
+		return label;
+	}
+
+	/**
+	 * Sets the label of a node, instead of the one derived from its frame.
+	 */
+	void setLabel(int nodeId, String label) {
+		labels[nodeId] = label;
+	}
+
+	private void grow() {
+		int capacity = frames.length * 2;
+		frames = Arrays.copyOf(frames, capacity);
+		count = Arrays.copyOf(count, capacity);
+		cumulativeCount = Arrays.copyOf(cumulativeCount, capacity);
+		weight = Arrays.copyOf(weight, capacity);
+		cumulativeWeight = Arrays.copyOf(cumulativeWeight, capacity);
+		for (int a = 0; a < extraWeight.length; a++) {
+			extraWeight[a] = Arrays.copyOf(extraWeight[a], capacity);
+			extraCumulativeWeight[a] = Arrays.copyOf(extraCumulativeWeight[a], capacity);
+		}
+		views = Arrays.copyOf(views, capacity);
+		labels = Arrays.copyOf(labels, capacity);
+	}
+}
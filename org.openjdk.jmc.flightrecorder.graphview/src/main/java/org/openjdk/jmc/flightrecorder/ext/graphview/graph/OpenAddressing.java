@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+/**
+ * The hashing and sizing shared by the open addressing maps {@link IdentityIntMap},
+ * {@link IntIntMap} and {@link LongIntMap}. The tables have a power of two capacity, are probed
+ * linearly, and are doubled when they get more than half full.
+ */
+final class OpenAddressing {
+	private OpenAddressing() {
+		// Not to be instantiated
+	}
+
+	/**
+	 * @return the capacity of a table that can hold the expected number of entries without growing.
+	 */
+	static int capacityFor(int expectedSize) {
+		return Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+	}
+
+	/**
+	 * @return true if a table with the given capacity and size should be doubled.
+	 */
+	static boolean isFull(int size, int capacity) {
+		return size * 2 > capacity;
+	}
+
+	/**
+	 * @return the slot after the given slot, wrapping around at the end of the table.
+	 */
+	static int nextSlot(int slot, int mask) {
+		return (slot + 1) & mask;
+	}
+
+	/**
+	 * Spreads the bits of a hash code. Identity hash codes and ids are not necessarily well
+	 * distributed in the low bits, which select the slot.
+	 */
+	static int mix(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Spreads the bits of a long key into an int hash, see {@link #mix(int)}.
+	 */
+	static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.openjdk.jmc.common.IMCThread;
+import org.openjdk.jmc.common.IMCThreadGroup;
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+
+/**
+ * One stack trace graph per partition of the threads, e.g. per thread or per thread group, built
+ * in a single pass over the items.
+ * <p>
+ * Each item is routed by its event thread to the graph of its partition. The partition of a thread
+ * is only looked up the first time the thread instance is seen. All the partitions share one frame
+ * dictionary, so each distinct frame is only hashed once, and the nodes of different partitions
+ * for the same frame share the frame instance.
+ * <p>
+ * The graphs of several partitions can be merged on demand with {@link #merge(Collection)}, e.g.
+ * all the request worker threads, without going through the items again.
+ * <p>
+ * Instances of this class are thread safe.
+ */
+public final class PartitionedStacktraceGraphModel {
+	/**
+	 * The partition key of the items that have no event thread.
+	 */
+	public static final String NO_THREAD = "<no thread>";
+
+	/**
+	 * The partition key of the threads that have no thread group, when partitioning by
+	 * {@link #BY_THREAD_GROUP}.
+	 */
+	public static final String NO_THREAD_GROUP = "<no thread group>";
+
+	/**
+	 * Partitions by thread name.
+	 */
+	public static final Function<IMCThread, String> BY_THREAD = thread -> thread == null ? NO_THREAD
+			: thread.getThreadName();
+
+	/**
+	 * Partitions by thread group name.
+	 */
+	public static final Function<IMCThread, String> BY_THREAD_GROUP = thread -> {
+		if (thread == null) {
+			return NO_THREAD;
+		}
+		IMCThreadGroup group = thread.getThreadGroup();
+		return group == null ? NO_THREAD_GROUP : group.getName();
+	};
+
+	private final FrameSeparator frameSeparator;
+	private final IAttribute<IQuantity> attribute;
+	private final String typeNames;
+	private final FrameDictionary frameDictionary;
+
+	/**
+	 * Partition key -> builder, in the order the partitions were first seen. Not changed after
+	 * construction.
+	 */
+	private final Map<String, GraphBuilder> builders = new LinkedHashMap<>();
+	private final Map<String, StacktraceGraphModel> models = new LinkedHashMap<>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param items
+	 *            the items to graph.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 * @param partitioner
+	 *            the partition key of a thread, e.g. {@link #BY_THREAD} or
+	 *            {@link #BY_THREAD_GROUP}. Called with null for items without an event thread.
+	 */
+	public PartitionedStacktraceGraphModel(
+		FrameSeparator frameSeparator, IItemCollection items, IAttribute<IQuantity> attribute,
+		Function<IMCThread, String> partitioner) {
+		this.frameSeparator = frameSeparator;
+		this.attribute = attribute;
+		typeNames = GraphModelUtils.getTypeNames(items);
+		frameDictionary = new FrameDictionary(frameSeparator);
+
+		// Thread instance -> index in partitions
+		IdentityIntMap threadPartitions = new IdentityIntMap();
+		List<GraphBuilder> partitions = new ArrayList<>();
+		GraphBuilder noThreadBuilder = null;
+		for (IItemIterable iterable : items) {
+			IMemberAccessor<IMCThread, IItem> threadAccessor = iterable.getType()
+					.getAccessor(JfrAttributes.EVENT_THREAD.getKey());
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			IMemberAccessor<IQuantity, IItem>[] accessors = new IMemberAccessor[1];
+			if (attribute != null) {
+				accessors[0] = iterable.getType().getAccessor(attribute.getKey());
+			}
+			for (IItem item : iterable) {
+				IMCThread thread = threadAccessor == null ? null : threadAccessor.getMember(item);
+				GraphBuilder builder;
+				if (thread == null) {
+					if (noThreadBuilder == null) {
+						noThreadBuilder = getBuilder(partitioner.apply(null));
+					}
+					builder = noThreadBuilder;
+				} else {
+					int partition = threadPartitions.get(thread);
+					if (partition == IdentityIntMap.NO_VALUE) {
+						partition = partitions.size();
+						partitions.add(getBuilder(partitioner.apply(thread)));
+						threadPartitions.put(thread, partition);
+					}
+					builder = partitions.get(partition);
+				}
+				builder.addItem(item, accessors);
+			}
+		}
+		for (Map.Entry<String, GraphBuilder> entry : builders.entrySet()) {
+			models.put(entry.getKey(), createModel(entry.getValue()));
+		}
+	}
+
+	private GraphBuilder getBuilder(String key) {
+		GraphBuilder builder = builders.get(key);
+		if (builder == null) {
+			builder = new GraphBuilder(frameDictionary);
+			builders.put(key, builder);
+		}
+		return builder;
+	}
+
+	private StacktraceGraphModel createModel(GraphBuilder builder) {
+		builder.flush();
+		builder.edges.freeze();
+		return new StacktraceGraphModel(frameSeparator, null, attribute, typeNames, builder.nodes, builder.edges,
+				builder.totalTraceCount, builder.totalEdgeCount);
+	}
+
+	/**
+	 * @return the keys of the partitions, in the order they were first seen in the items.
+	 */
+	public Set<String> getPartitionKeys() {
+		return Collections.unmodifiableSet(models.keySet());
+	}
+
+	/**
+	 * @return the graph of a partition, or null if no items were in the partition.
+	 *         {@link StacktraceGraphModel#getItems()} returns null for the graph.
+	 */
+	public StacktraceGraphModel getModel(String partitionKey) {
+		return models.get(partitionKey);
+	}
+
+	/**
+	 * Merges the graphs of several partitions into one graph, without going through the items
+	 * again. The partitions are not changed.
+	 * 
+	 * @param partitionKeys
+	 *            the keys of the partitions to merge. Keys of partitions without items are
+	 *            ignored.
+	 * @return a new model, with the nodes and edges in the order of the partitions given.
+	 *         {@link StacktraceGraphModel#getItems()} returns null for the graph.
+	 */
+	public StacktraceGraphModel merge(Collection<String> partitionKeys) {
+		GraphBuilder merged;
+		synchronized (frameDictionary) {
+			// The shared frame dictionary is not thread safe
+			merged = new GraphBuilder(frameDictionary);
+			for (String key : partitionKeys) {
+				GraphBuilder builder = builders.get(key);
+				if (builder != null) {
+					merged.merge(builder);
+				}
+			}
+		}
+		return createModel(merged);
+	}
+
+	/**
+	 * @return the graph of all the partitions merged, i.e. the same graph as a
+	 *         {@link StacktraceGraphModel} built from all the items, but possibly with the nodes
+	 *         and edges in a different order.
+	 */
+	public StacktraceGraphModel mergeAll() {
+		return merge(models.keySet());
+	}
+
+	public FrameSeparator getFrameSeparator() {
+		return frameSeparator;
+	}
+
+	public IAttribute<IQuantity> getAttribute() {
+		return attribute;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+
+/**
+ * Collapses the recursion cycles of a {@link StacktraceGraphModel} into single nodes.
+ * <p>
+ * The cycles are the strongly connected components of the graph, found with an iterative version
+ * of Tarjan's algorithm over the adjacency index. A component with more than one node, or with a
+ * self-loop, is a cycle.
+ * <p>
+ * The frames of a cycle are always contiguous in a trace, since a trace that left the cycle and
+ * then came back to it would make the frames in between part of the cycle. A trace passing through
+ * a cycle therefore either has its top frame in the cycle, or leaves it through exactly one edge.
+ * So the number of traces passing through a cycle is the sum of the counts of its nodes and of the
+ * edges leaving it, and the same goes for the weights and edge values.
+ * <p>
+ * The same holds for a node not in any cycle, which occurs at most once per trace. All cumulative
+ * counts and weights are therefore recalculated this way, which converts a model counted
+ * {@link StacktraceGraphModel.CumulativeCounting#PER_FRAME PER_FRAME}, where an inner frame adds
+ * to the cumulative count of its node once per adjacent edge, to per trace counts.
+ */
+final class RecursionCollapser {
+	private static final int UNVISITED = -1;
+
+	private RecursionCollapser() {
+	}
+
+	/**
+	 * @see StacktraceGraphModel#collapseRecursion()
+	 */
+	static StacktraceGraphModel collapse(StacktraceGraphModel model) {
+		NodeTable nodes = model.getNodeTable();
+		EdgeTable edges = model.getEdgeTable();
+		int[] components = StronglyConnectedComponents.find(nodes.size, edges, null);
+
+		// Component -> new node id, assigned in the order of the first node of each component
+		int[] componentNodeIds = new int[nodes.size];
+		Arrays.fill(componentNodeIds, UNVISITED);
+		int[] firstMembers = new int[nodes.size];
+		int[] memberCounts = new int[nodes.size];
+		NodeTable collapsedNodes = new NodeTable(nodes.size);
+		int[] newNodeIds = new int[nodes.size];
+		for (int i = 0; i < nodes.size; i++) {
+			int component = components[i];
+			int nodeId = componentNodeIds[component];
+			if (nodeId == UNVISITED) {
+				nodeId = collapsedNodes.add(nodes.frames[i]);
+				componentNodeIds[component] = nodeId;
+				firstMembers[nodeId] = i;
+			}
+			newNodeIds[i] = nodeId;
+			memberCounts[nodeId]++;
+			collapsedNodes.count[nodeId] += nodes.count[i];
+			collapsedNodes.weight[nodeId] += nodes.weight[i];
+		}
+
+		EdgeTable collapsedEdges = new EdgeTable(collapsedNodes, edges.size);
+		int totalEdgeCount = 0;
+		for (int e = 0; e < edges.size; e++) {
+			int from = newNodeIds[edges.from[e]];
+			int to = newNodeIds[edges.to[e]];
+			if (from == to) {
+				continue;
+			}
+			int edgeId = collapsedEdges.getOrCreate(from, to);
+			collapsedEdges.count[edgeId] += edges.count[e];
+			collapsedEdges.value[edgeId] += edges.value[e];
+			totalEdgeCount += edges.count[e];
+			collapsedNodes.cumulativeCount[from] += edges.count[e];
+			collapsedNodes.cumulativeWeight[from] += edges.value[e];
+		}
+		collapsedEdges.freeze();
+
+		for (int j = 0; j < collapsedNodes.size; j++) {
+			collapsedNodes.cumulativeCount[j] += collapsedNodes.count[j];
+			collapsedNodes.cumulativeWeight[j] += collapsedNodes.weight[j];
+			if (memberCounts[j] > 1) {
+				collapsedNodes.setLabel(j,
+						nodes.getLabel(firstMembers[j]) + " (+" + (memberCounts[j] - 1) + " in recursion)");
+			}
+		}
+		return new StacktraceGraphModel(model.getFrameSeparator(), model.getItems(), model.getAttribute(),
+				model.getTypeNames(), collapsedNodes, collapsedEdges, model.getTotalTraceCount(), totalEdgeCount);
+	}
+}
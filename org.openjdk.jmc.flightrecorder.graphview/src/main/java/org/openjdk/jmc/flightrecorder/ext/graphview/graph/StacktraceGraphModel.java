@@ -33,26 +33,17 @@
  */
 package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
 
-import static org.openjdk.jmc.common.item.ItemToolkit.accessor;
-import static org.openjdk.jmc.flightrecorder.JfrAttributes.EVENT_STACKTRACE;
-
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
 
-import org.openjdk.jmc.common.IMCFrame;
-import org.openjdk.jmc.common.IMCStackTrace;
 import org.openjdk.jmc.common.item.IAttribute;
-import org.openjdk.jmc.common.item.IItem;
 import org.openjdk.jmc.common.item.IItemCollection;
 import org.openjdk.jmc.common.item.IItemIterable;
-import org.openjdk.jmc.common.item.IMemberAccessor;
 import org.openjdk.jmc.common.unit.IQuantity;
 import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
 import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
@@ -79,27 +70,58 @@ import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator.FrameCategorizat
  * StacktraceGraphModel model = new StacktraceGraphModel(frameSeparator, filteredItems);
  * </pre>
  */
-// Note: Eventually Node and Edge should probably be interfaces and all the data put in large byte 
-// arrays for density and performance.
+// Note: Node and Edge are views on the rows of the column oriented NodeStore and EdgeStore. These are
+// normally the NodeTable and EdgeTable, which keep all the counts and weights in primitive arrays
+// for density and performance, but can also be backed by a memory mapped snapshot of a prebuilt
+// model, see MappedGraphFile.
 public class StacktraceGraphModel {
-	@SuppressWarnings("deprecation")
-	private final static IMemberAccessor<IMCStackTrace, IItem> ACCESSOR_STACKTRACE = accessor(EVENT_STACKTRACE);
+	/**
+	 * How the cumulative counts and weights of the nodes, and the counts and values of the edges,
+	 * are calculated for the frames of a trace.
+	 */
+	public enum CumulativeCounting {
+		/**
+		 * Each call in the trace adds to both the calling and the called node, and to the edge
+		 * between them. This is the classic way, where a recursive trace counts its nodes and edges
+		 * once per call.
+		 */
+		PER_FRAME,
+		/**
+		 * Each node and edge is counted at most once per trace, no matter how many times its frame
+		 * occurs in the trace. The cumulative count of a node is then the number of traces passing
+		 * through it, which gives correct inclusive percentages also with recursion.
+		 */
+		PER_TRACE
+	}
+
 	private final FrameSeparator frameSeparator;
 	private final IItemCollection items;
 	private final IAttribute<IQuantity> attribute;
-	private int totalTraceCount;
-	private int totalEdgeCount;
-	private int nodeCounter;
+	private final int totalTraceCount;
+	private final int totalEdgeCount;
 
 	/**
-	 * From node id -> Edge
+	 * Node id -> node data
 	 */
-	private final Map<Integer, Set<Edge>> edges = new HashMap<>(1024);
+	private final NodeStore nodes;
 
 	/**
-	 * Frame -> Node
+	 * Edge id -> edge data
 	 */
-	private final Map<AggregatableFrame, Node> nodes = new HashMap<>(1024);
+	private final EdgeStore edges;
+
+	/**
+	 * Lazily calculated from the items, unless provided.
+	 */
+	private volatile String typeNames;
+
+	private final List<Node> nodeList;
+	private final List<Edge> edgeList;
+
+	/**
+	 * Lazily calculated, since the model is read only it never needs to be recalculated.
+	 */
+	private volatile GraphStatistics statistics;
 
 	/**
 	 * Constructor.
@@ -112,24 +134,276 @@ public class StacktraceGraphModel {
 	 *            the (optional) attribute to use for calculating the values.
 	 */
 	public StacktraceGraphModel(FrameSeparator frameSeparator, IItemCollection items, IAttribute<IQuantity> attribute) {
+		this(frameSeparator, items, attribute, (ForkJoinPool) null);
+	}
+
+	/**
+	 * Constructor. If a pool is provided, the model is built in parallel, with each worker
+	 * building a partial graph from a subset of the item iterables. The partial graphs are merged
+	 * in iteration order, so the node and edge ids are the same as for a serially built model.
+	 * 
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param items
+	 *            the items to graph.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 * @param pool
+	 *            the (optional) pool to build the model in. If null, the model is built serially
+	 *            in the calling thread.
+	 */
+	public StacktraceGraphModel(
+		FrameSeparator frameSeparator, IItemCollection items, IAttribute<IQuantity> attribute, ForkJoinPool pool) {
+		this(frameSeparator, items, attribute, pool, CumulativeCounting.PER_FRAME);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param items
+	 *            the items to graph.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 * @param pool
+	 *            the (optional) pool to build the model in. If null, the model is built serially
+	 *            in the calling thread.
+	 * @param cumulativeCounting
+	 *            how to count recursive traces.
+	 */
+	public StacktraceGraphModel(
+		FrameSeparator frameSeparator, IItemCollection items, IAttribute<IQuantity> attribute, ForkJoinPool pool,
+		CumulativeCounting cumulativeCounting) {
+		this(frameSeparator, items, attribute,
+				buildModel(frameSeparator, items, Collections.singletonList(attribute), pool, cumulativeCounting,
+						false));
+	}
+
+	private StacktraceGraphModel(
+		FrameSeparator frameSeparator, IItemCollection items, IAttribute<IQuantity> attribute, GraphBuilder builder) {
+		this(frameSeparator, items, attribute, null, builder.nodes, builder.edges, builder.totalTraceCount,
+				builder.totalEdgeCount);
+	}
+
+	/**
+	 * Constructor for a model on already built tables or stores. The data must not be changed after
+	 * the model has been created. If the type names are null, they are derived from the items on
+	 * first use.
+	 */
+	StacktraceGraphModel(
+		FrameSeparator frameSeparator, IItemCollection items, IAttribute<IQuantity> attribute, String typeNames,
+		NodeStore nodes, EdgeStore edges, int totalTraceCount, int totalEdgeCount) {
 		this.frameSeparator = frameSeparator;
 		this.items = items;
 		this.attribute = attribute;
-		buildModel();
+		this.typeNames = typeNames;
+		this.nodes = nodes;
+		this.edges = edges;
+		this.totalTraceCount = totalTraceCount;
+		this.totalEdgeCount = totalEdgeCount;
+		nodeList = nodes.asList();
+		edgeList = edges.asList();
 	}
 
+	/**
+	 * @return an unmodifiable view of the edges.
+	 */
 	public Collection<Edge> getEdges() {
-		return edges.values().stream().flatMap((c) -> c.stream()).collect(Collectors.toSet());
+		return edgeList;
 	}
 
+	/**
+	 * @return an unmodifiable view of the nodes.
+	 */
 	public Collection<Node> getNodes() {
-		return nodes.values();
+		return nodeList;
+	}
+
+	/**
+	 * @param node
+	 *            a node of this model.
+	 * @return an unmodifiable view of the edges from the node, i.e. to the frames called from it.
+	 *         Found in O(out degree).
+	 */
+	public List<Edge> getOutgoingEdges(Node node) {
+		return edges.getOutEdges(node.nodeId);
+	}
+
+	/**
+	 * @param node
+	 *            a node of this model.
+	 * @return an unmodifiable view of the edges to the node, i.e. from the frames calling it. Found
+	 *         in O(in degree).
+	 */
+	public List<Edge> getIncomingEdges(Node node) {
+		return edges.getInEdges(node.nodeId);
+	}
+
+	/**
+	 * Gets the subgraph around a node, e.g. to focus on a hot method: its callers up to a given
+	 * depth, and its callees down to a given depth. When there are more nodes than the budget
+	 * allows, the nodes reached through the edges with the highest counts are kept. The cost is
+	 * proportional to the number of edges of the visited nodes, not to the size of the graph.
+	 * <p>
+	 * The subgraph has all the edges between the kept nodes, and the nodes keep their counts. The
+	 * total trace count is that of this model, so percentages are the same as in the full graph.
+	 * 
+	 * @param node
+	 *            a node of this model.
+	 * @param callerDepth
+	 *            the number of levels of callers to include, 0 for none.
+	 * @param calleeDepth
+	 *            the number of levels of callees to include, 0 for none.
+	 * @param maxNodes
+	 *            the max number of nodes, including the node itself.
+	 * @return a new model with the subgraph. The node and edge ids are not the same as in this
+	 *         model, but are in the same relative order.
+	 * @throws UnsupportedOperationException
+	 *             if the model is memory mapped, see {@link #isMapped()}.
+	 */
+	public StacktraceGraphModel getSubgraph(Node node, int callerDepth, int calleeDepth, int maxNodes) {
+		return SubgraphQuery.extract(this, node.nodeId, callerDepth, calleeDepth, maxNodes);
+	}
+
+	/**
+	 * Gets the callers of a node, up to a given depth.
+	 * 
+	 * @see #getSubgraph(Node, int, int, int)
+	 */
+	public StacktraceGraphModel getCallers(Node node, int depth, int maxNodes) {
+		return getSubgraph(node, depth, 0, maxNodes);
+	}
+
+	/**
+	 * Gets the callees of a node, down to a given depth.
+	 * 
+	 * @see #getSubgraph(Node, int, int, int)
+	 */
+	public StacktraceGraphModel getCallees(Node node, int depth, int maxNodes) {
+		return getSubgraph(node, 0, depth, maxNodes);
+	}
+
+	/**
+	 * Collapses the recursion cycles of the graph, i.e. its strongly connected components, so that
+	 * each cycle becomes a single node, and removes the edges within the cycles, including the
+	 * self-loops of directly recursive nodes. This keeps the graph small for recursive code such as
+	 * parsers and serializers, and the remaining edges show how the recursion is entered and left.
+	 * <p>
+	 * A collapsed node has the frame of the first node of its cycle, and its label tells how many
+	 * other nodes it contains. Its counts and weights are the sums of those of its nodes. The
+	 * cumulative counts and weights of all nodes in the new model, collapsed or not, are those of
+	 * the traces passing through them, each trace counted once, as with
+	 * {@link CumulativeCounting#PER_TRACE}, whichever way this model was counted. Takes time
+	 * proportional to the number of nodes and edges.
+	 * 
+	 * @return a new model with the cycles collapsed. The node and edge ids are not the same as in
+	 *         this model, but are in the same relative order.
+	 * @throws UnsupportedOperationException
+	 *             if the model is memory mapped, see {@link #isMapped()}.
+	 */
+	public StacktraceGraphModel collapseRecursion() {
+		return RecursionCollapser.collapse(this);
 	}
 
+	/**
+	 * Derives the model for a coarser frame separator from this model, e.g. the class or package
+	 * graph from the method graph, or the method graph from the line graph, without going through
+	 * the items again. The nodes whose frames are the same with the coarser separator are merged,
+	 * and their counts, weights and edges summed, in time proportional to the number of nodes and
+	 * edges rather than to the number of stack frames in the items.
+	 * <p>
+	 * For a model built with {@link CumulativeCounting#PER_FRAME} counting, the default, the result
+	 * is the same as building with the coarser separator. With {@link CumulativeCounting#PER_TRACE}
+	 * counting, a trace passing through several of the merged nodes is counted once for each, so the
+	 * cumulative counts and the edge counts can be higher than for a build.
+	 * 
+	 * @param frameSeparator
+	 *            the separator to roll up to. Must not be finer than the separator of this model, and
+	 *            can only distinguish frames by optimization if this model does.
+	 * @return a new model with the coarser frames.
+	 * @throws IllegalArgumentException
+	 *             if the separator is finer than the separator of this model.
+	 * @throws UnsupportedOperationException
+	 *             if the model is memory mapped, see {@link #isMapped()}.
+	 */
+	public StacktraceGraphModel rollUp(FrameSeparator frameSeparator) {
+		return CategorizationRollUp.rollUp(this, frameSeparator);
+	}
+
+	NodeStore getNodeStore() {
+		return nodes;
+	}
+
+	EdgeStore getEdgeStore() {
+		return edges;
+	}
+
+	/**
+	 * @return the heap table of the nodes.
+	 * @throws UnsupportedOperationException
+	 *             if the model is not kept on the heap, see {@link #isMapped()}.
+	 */
+	NodeTable getNodeTable() {
+		if (!(nodes instanceof NodeTable)) {
+			throw new UnsupportedOperationException("The nodes of the model are not kept on the heap");
+		}
+		return (NodeTable) nodes;
+	}
+
+	/**
+	 * @return the heap table of the edges.
+	 * @throws UnsupportedOperationException
+	 *             if the model is not kept on the heap, see {@link #isMapped()}.
+	 */
+	EdgeTable getEdgeTable() {
+		if (!(edges instanceof EdgeTable)) {
+			throw new UnsupportedOperationException("The edges of the model are not kept on the heap");
+		}
+		return (EdgeTable) edges;
+	}
+
+	/**
+	 * @return true if the node and edge data of this model is read from a memory mapped file, see
+	 *         {@link MappedGraphFile}. Such models have no frames, and cannot be pruned or used as
+	 *         input for other derived models.
+	 */
+	public boolean isMapped() {
+		return !(nodes instanceof NodeTable);
+	}
+
+	public FrameSeparator getFrameSeparator() {
+		return frameSeparator;
+	}
+
+	/**
+	 * @return the attribute used for calculating the values, or null if none was used.
+	 */
+	public IAttribute<IQuantity> getAttribute() {
+		return attribute;
+	}
+
+	/**
+	 * @return the items used to build this model, or null if this model was derived without
+	 *         retaining the items, e.g. a snapshot of an {@link IncrementalStacktraceGraphModel} or
+	 *         a window of a {@link TimeBucketedGraphModel}.
+	 */
 	public IItemCollection getItems() {
 		return items;
 	}
 
+	/**
+	 * @return a comma separated list of the names of the item types used to build this model.
+	 */
+	public String getTypeNames() {
+		String result = typeNames;
+		if (result == null) {
+			result = GraphModelUtils.getTypeNames(items);
+			typeNames = result;
+		}
+		return result;
+	}
+
 	/**
 	 * @return the total edge count, i.e. the total sum of counts for all edges.
 	 */
@@ -145,192 +419,154 @@ public class StacktraceGraphModel {
 	}
 
 	/**
-	 * Searches the nodes for the min count.
+	 * @return the min, max and sum of the node and edge counts and weights. Calculated on first
+	 *         use.
+	 */
+	public GraphStatistics getStatistics() {
+		GraphStatistics result = statistics;
+		if (result == null) {
+			result = new GraphStatistics(nodes, edges);
+			statistics = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the min count of the nodes.
 	 * 
 	 * @return the min count.
+	 * @see #getStatistics()
 	 */
 	public int findNodeMinCount() {
-		int minCount = Integer.MAX_VALUE;
-		for (Node n : getNodes()) {
-			minCount = Math.min(n.getCount(), minCount);
-		}
-		return minCount;
+		return getStatistics().getNodeMinCount();
 	}
 
 	/**
-	 * Searches the nodes for the max count.
+	 * Gets the max count of the nodes.
 	 * 
 	 * @return the max count.
+	 * @see #getStatistics()
 	 */
 	public int findNodeMaxCount() {
-		int maxCount = 0;
-		for (Node n : getNodes()) {
-			maxCount = Math.max(n.getCount(), maxCount);
-		}
-		return maxCount;
+		return getStatistics().getNodeMaxCount();
 	}
 
 	/**
-	 * Searches the nodes for the min weight.
+	 * Gets the min weight of the nodes.
 	 * 
 	 * @return the min weight.
+	 * @see #getStatistics()
 	 */
 	public double findNodeMinWeight() {
-		double minWeight = Double.MAX_VALUE;
-		for (Node n : getNodes()) {
-			minWeight = Math.min(n.getWeight(), minWeight);
-		}
-		return minWeight;
+		return getStatistics().getNodeMinWeight();
 	}
 
 	/**
-	 * Searches the nodes for the max weight.
+	 * Gets the max weight of the nodes.
 	 * 
 	 * @return the max weight.
+	 * @see #getStatistics()
 	 */
 	public double findNodeMaxWeight() {
-		double maxWeight = 0.0d;
-		for (Node n : getNodes()) {
-			maxWeight = Math.max(n.getWeight(), maxWeight);
-		}
-		return maxWeight;
+		return getStatistics().getNodeMaxWeight();
 	}
 
 	/**
-	 * Searches the edges for the min value.
+	 * Gets the min value of the edges.
 	 * 
 	 * @return the min value.
+	 * @see #getStatistics()
 	 */
 	public double findEdgeMinValue() {
-		double minValue = Double.MAX_VALUE;
-		for (Edge e : getEdges()) {
-			minValue = Math.min(e.getValue(), minValue);
-		}
-		return minValue;
+		return getStatistics().getEdgeMinValue();
 	}
 
 	/**
-	 * Searches the edges for the max value.
+	 * Gets the max value of the edges.
 	 * 
 	 * @return the max value.
+	 * @see #getStatistics()
 	 */
 	public double findEdgeMaxValue() {
-		double maxValue = 0.0d;
-		for (Edge e : getEdges()) {
-			maxValue = Math.max(e.getValue(), maxValue);
-		}
-		return maxValue;
+		return getStatistics().getEdgeMaxValue();
 	}
 
 	/**
-	 * Searches the edges for the min count.
+	 * Gets the min count of the edges.
 	 * 
 	 * @return the min count.
+	 * @see #getStatistics()
 	 */
 	public int findEdgeMinCount() {
-		int minValue = Integer.MAX_VALUE;
-		for (Edge e : getEdges()) {
-			minValue = Math.min(e.getCount(), minValue);
-		}
-		return minValue;
+		return getStatistics().getEdgeMinCount();
 	}
 
 	/**
-	 * Searches the edges for the max count.
+	 * Gets the max count of the edges.
 	 * 
 	 * @return the max count.
+	 * @see #getStatistics()
 	 */
 	public int findEdgeMaxCount() {
-		int maxValue = 0;
-		for (Edge e : getEdges()) {
-			maxValue = Math.max(e.getCount(), maxValue);
-		}
-		return maxValue;
-	}
-
-	private void buildModel() {
-		for (IItemIterable iterable : items) {
-			IMemberAccessor<IQuantity, IItem> accessor = null;
-			if (attribute != null) {
-				iterable.getType().getAccessor(attribute.getKey());
-			}
-			iterable.forEach((item) -> addItem(item, accessor));
-		}
+		return getStatistics().getEdgeMaxCount();
 	}
 
-	private void addItem(IItem item, IMemberAccessor<IQuantity, IItem> accessor) {
-		List<? extends IMCFrame> frames = getStackTrace(item).getFrames();
-		if (frames.isEmpty()) {
-			return;
-		}
-
-		double value = 0;
-		if (accessor != null) {
-			value = accessor.getMember(item).doubleValue();
-		}
-
-		// First frame is the frame where things are actually happening, i.e. the method
-		// actually responsible for whatever is being tracked (e.g. the method being on
-		// CPU, the method triggering the allocation etc) - it is for this node we
-		// increment the count...
-		IMCFrame firstFrame = frames.get(0);
-		Node n = getOrCreateNode(firstFrame);
-		totalTraceCount++;
-		n.count++;
-		n.weight += value;
-
-		// Next go through all frames from the thread root, and up the cumulative counts
-		for (int i = frames.size() - 1; i > 0; i--) {
-			// Process two frames sliding window, from and to
-			IMCFrame currentFrame = frames.get(i);
-			IMCFrame nextFrame = frames.get(i - 1);
-
-			Node currentNode = getOrCreateNode(currentFrame);
-			Node nextNode = getOrCreateNode(nextFrame);
-
-			currentNode.cumulativeCount++;
-			nextNode.cumulativeCount++;
-			currentNode.cumulativeWeight += value;
-			nextNode.cumulativeWeight += value;
-			Edge e = getOrCreateLink(currentNode, nextNode);
-			e.count++;
-			totalEdgeCount++;
+	/**
+	 * Builds one model per attribute, in a single pass over the items, e.g. to get both the
+	 * allocation size and the allocation count graphs for allocation events. The models share the
+	 * nodes, edges and counts, and only differ in the weights and edge values.
+	 * 
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param items
+	 *            the items to graph.
+	 * @param attributes
+	 *            the attributes to use for calculating the values, at least one. A null attribute
+	 *            yields a model with only counts.
+	 * @param pool
+	 *            the (optional) pool to build the models in. If null, the models are built
+	 *            serially in the calling thread.
+	 * @return the models, in the order of the attributes.
+	 */
+	public static List<StacktraceGraphModel> build(
+		FrameSeparator frameSeparator, IItemCollection items, List<IAttribute<IQuantity>> attributes,
+		ForkJoinPool pool) {
+		if (attributes.isEmpty()) {
+			throw new IllegalArgumentException("At least one attribute is needed");
 		}
-	}
-
-	private Node getOrCreateNode(IMCFrame frame) {
-		AggregatableFrame aframe = new AggregatableFrame(frameSeparator, frame);
-		Node n = nodes.get(aframe);
-		if (n == null) {
-			n = new Node(Integer.valueOf(nodeCounter++), aframe);
-			nodes.put(aframe, n);
+		GraphBuilder builder = buildModel(frameSeparator, items, attributes, pool, CumulativeCounting.PER_FRAME,
+				false);
+		List<StacktraceGraphModel> models = new ArrayList<>(attributes.size());
+		for (int a = 0; a < attributes.size(); a++) {
+			NodeTable nodes = builder.nodes.forAttribute(a);
+			EdgeTable edges = builder.edges.forAttribute(nodes, a);
+			models.add(new StacktraceGraphModel(frameSeparator, items, attributes.get(a), null, nodes, edges,
+					builder.totalTraceCount, builder.totalEdgeCount));
 		}
-		return n;
+		return models;
 	}
 
-	private Edge getOrCreateLink(Node fromNode, Node toNode) {
-		if (!edges.containsKey(fromNode.getNodeId())) {
-			Edge edge = new Edge(fromNode, toNode);
-			Set<Edge> newEdgeSet = new HashSet<>();
-			newEdgeSet.add(edge);
-			edges.put(fromNode.getNodeId(), newEdgeSet);
-			return edge;
-		}
-		Set<Edge> toSet = edges.get(fromNode.getNodeId());
-		// We assume that we have a reasonable amount of edges from a node - so linear
-		// search is ok
-		for (Edge edge : toSet) {
-			if (edge.getTo().equals(toNode)) {
-				return edge;
+	/**
+	 * Builds the tables of a model, and optionally its {@link CallTree}, in one pass over the items.
+	 */
+	static GraphBuilder buildModel(
+		FrameSeparator frameSeparator, IItemCollection items, List<IAttribute<IQuantity>> attributes,
+		ForkJoinPool pool, CumulativeCounting cumulativeCounting, boolean buildCallTree) {
+		GraphBuilder builder;
+		if (pool == null) {
+			builder = new GraphBuilder(frameSeparator, attributes.size(), cumulativeCounting, buildCallTree);
+			for (IItemIterable iterable : items) {
+				builder.addItems(iterable, attributes);
 			}
+		} else {
+			List<IItemIterable> iterables = new ArrayList<>();
+			items.forEach(iterables::add);
+			builder = pool.invoke(new GraphBuildTask(frameSeparator, attributes, cumulativeCounting, buildCallTree,
+					iterables, 0, iterables.size()));
 		}
-		Edge edge = new Edge(fromNode, toNode);
-		toSet.add(edge);
-		return edge;
-	}
-
-	private IMCStackTrace getStackTrace(IItem item) {
-		return ACCESSOR_STACKTRACE.getMember(item);
+		builder.flush();
+		builder.edges.freeze();
+		return builder;
 	}
 
 	public static void main(String[] args) throws IOException, CouldNotLoadRecordingException {
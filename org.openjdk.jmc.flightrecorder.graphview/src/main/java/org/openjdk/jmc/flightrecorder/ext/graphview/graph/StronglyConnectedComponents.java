@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+
+/**
+ * Finds the strongly connected components of a graph, e.g. the recursion cycles to collapse, or the
+ * cycles of removed nodes to reconnect through when pruning.
+ */
+final class StronglyConnectedComponents {
+	private static final int UNVISITED = -1;
+
+	private StronglyConnectedComponents() {
+	}
+
+	/**
+	 * Finds the strongly connected components with Tarjan's algorithm, using explicit stacks so that
+	 * deep graphs cannot overflow the call stack. A component is only completed after all the
+	 * components reachable from it, so the component ids are in reverse topological order.
+	 * 
+	 * @param skip
+	 *            the (optional) nodes to leave out of the graph, together with their edges.
+	 * @return node id -> component id, or -1 for the skipped nodes.
+	 */
+	static int[] find(int nodeCount, EdgeTable edges, boolean[] skip) {
+		int[] index = new int[nodeCount];
+		int[] lowLink = new int[nodeCount];
+		int[] components = new int[nodeCount];
+		Arrays.fill(index, UNVISITED);
+		Arrays.fill(components, UNVISITED);
+
+		// The nodes of the components not yet completed
+		int[] stack = new int[nodeCount];
+		int stackSize = 0;
+		// The nodes being visited, and the index of the next out edge to follow from each
+		int[] callNodes = new int[nodeCount];
+		int[] callNextEdges = new int[nodeCount];
+		int callSize = 0;
+
+		int nextIndex = 0;
+		int componentCount = 0;
+		for (int root = 0; root < nodeCount; root++) {
+			if (index[root] != UNVISITED || (skip != null && skip[root])) {
+				continue;
+			}
+			index[root] = lowLink[root] = nextIndex++;
+			stack[stackSize++] = root;
+			callNodes[callSize] = root;
+			callNextEdges[callSize++] = 0;
+			while (callSize > 0) {
+				int v = callNodes[callSize - 1];
+				int i = callNextEdges[callSize - 1];
+				if (i < edges.getOutDegree(v)) {
+					callNextEdges[callSize - 1] = i + 1;
+					int w = edges.to[edges.getOutEdge(v, i)];
+					if (skip != null && skip[w]) {
+						continue;
+					}
+					if (index[w] == UNVISITED) {
+						index[w] = lowLink[w] = nextIndex++;
+						stack[stackSize++] = w;
+						callNodes[callSize] = w;
+						callNextEdges[callSize++] = 0;
+					} else if (components[w] == UNVISITED) {
+						// Still on the stack, so part of the component being built
+						lowLink[v] = Math.min(lowLink[v], index[w]);
+					}
+					continue;
+				}
+				callSize--;
+				if (lowLink[v] == index[v]) {
+					int w;
+					do {
+						w = stack[--stackSize];
+						components[w] = componentCount;
+					} while (w != v);
+					componentCount++;
+				}
+				if (callSize > 0) {
+					int u = callNodes[callSize - 1];
+					lowLink[u] = Math.min(lowLink[u], lowLink[v]);
+				}
+			}
+		}
+		return components;
+	}
+}
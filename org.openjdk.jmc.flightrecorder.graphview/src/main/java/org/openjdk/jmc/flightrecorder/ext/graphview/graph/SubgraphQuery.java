@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+
+/**
+ * Extracts the subgraph around a node of a {@link StacktraceGraphModel}: its callers up to a given
+ * depth, and its callees down to a given depth, with a budget on the number of nodes.
+ * <p>
+ * The traversal is breadth first over the adjacency index, alternating between a level of callers
+ * and a level of callees. Within a level, the nodes reached through the edges with the highest
+ * counts are taken first, so that the most important nodes are kept when the budget runs out. The
+ * cost is proportional to the number of edges of the visited nodes, not to the size of the graph.
+ * <p>
+ * The subgraph has all the edges of the graph between the kept nodes. The nodes keep their counts
+ * and weights, and the model keeps the total trace count of the graph, so that percentages are the
+ * same as in the full graph.
+ */
+final class SubgraphQuery {
+	private final NodeTable nodes;
+	private final EdgeTable edges;
+	private final int maxNodes;
+
+	/**
+	 * Old node id -> new node id, for the kept nodes. The new ids are assigned at the end.
+	 */
+	private final IntIntMap kept = new IntIntMap();
+	private int[] keptNodes = new int[16];
+	private int keptCount;
+
+	/**
+	 * The nodes reached as callers and as callees, as keys. A node can be both, e.g. with
+	 * recursion, and must then be expanded in both directions.
+	 */
+	private final IntIntMap callersReached = new IntIntMap();
+	private final IntIntMap calleesReached = new IntIntMap();
+
+	private SubgraphQuery(NodeTable nodes, EdgeTable edges, int maxNodes) {
+		this.nodes = nodes;
+		this.edges = edges;
+		this.maxNodes = maxNodes;
+	}
+
+	/**
+	 * @see StacktraceGraphModel#getSubgraph(Node, int, int, int)
+	 */
+	static StacktraceGraphModel extract(
+		StacktraceGraphModel model, int nodeId, int callerDepth, int calleeDepth, int maxNodes) {
+		if (callerDepth < 0 || calleeDepth < 0) {
+			throw new IllegalArgumentException("Depths cannot be negative");
+		}
+		if (maxNodes < 1) {
+			throw new IllegalArgumentException("At least one node must be allowed");
+		}
+		NodeTable nodes = model.getNodeTable();
+		if (nodeId >= nodes.size) {
+			throw new IllegalArgumentException("Node " + nodeId + " is not in the model");
+		}
+		SubgraphQuery query = new SubgraphQuery(nodes, model.getEdgeTable(), maxNodes);
+		query.keep(nodeId);
+		query.callersReached.put(nodeId, 0);
+		query.calleesReached.put(nodeId, 0);
+		int[] callers = {nodeId};
+		int[] callees = {nodeId};
+		for (int depth = 1; depth <= Math.max(callerDepth, calleeDepth); depth++) {
+			if (depth <= callerDepth) {
+				callers = query.expand(callers, false);
+			}
+			if (depth <= calleeDepth) {
+				callees = query.expand(callees, true);
+			}
+		}
+		return query.createModel(model);
+	}
+
+	/**
+	 * Reaches the nodes one level further out from a frontier, keeping them while the budget lasts.
+	 * 
+	 * @return the new frontier.
+	 */
+	private int[] expand(int[] frontier, boolean outgoing) {
+		int candidateCount = 0;
+		for (int x : frontier) {
+			candidateCount += outgoing ? edges.getOutDegree(x) : edges.getInDegree(x);
+		}
+		if (candidateCount == 0) {
+			return new int[0];
+		}
+		// Sort the edges by count, highest first, and by id for equal counts
+		long[] candidates = new long[candidateCount];
+		int c = 0;
+		for (int x : frontier) {
+			int degree = outgoing ? edges.getOutDegree(x) : edges.getInDegree(x);
+			for (int i = 0; i < degree; i++) {
+				int e = outgoing ? edges.getOutEdge(x, i) : edges.getInEdge(x, i);
+				candidates[c++] = ((long) edges.count[e] << 32) | (Integer.MAX_VALUE - e);
+			}
+		}
+		Arrays.sort(candidates);
+		IntIntMap reached = outgoing ? calleesReached : callersReached;
+		int[] next = new int[candidateCount];
+		int nextCount = 0;
+		for (int i = candidates.length - 1; i >= 0; i--) {
+			int e = Integer.MAX_VALUE - (int) candidates[i];
+			int y = outgoing ? edges.to[e] : edges.from[e];
+			if (reached.get(y) == IntIntMap.NO_VALUE && (kept.get(y) != IntIntMap.NO_VALUE || keep(y))) {
+				reached.put(y, 0);
+				next[nextCount++] = y;
+			}
+		}
+		return Arrays.copyOf(next, nextCount);
+	}
+
+	/**
+	 * @return true if the node could be kept within the budget.
+	 */
+	private boolean keep(int nodeId) {
+		if (keptCount == maxNodes) {
+			return false;
+		}
+		kept.put(nodeId, keptCount);
+		if (keptCount == keptNodes.length) {
+			keptNodes = Arrays.copyOf(keptNodes, keptCount * 2);
+		}
+		keptNodes[keptCount++] = nodeId;
+		return true;
+	}
+
+	/**
+	 * Creates the model, with the nodes and edges in the same relative order as in the graph.
+	 */
+	private StacktraceGraphModel createModel(StacktraceGraphModel model) {
+		int[] oldIds = Arrays.copyOf(keptNodes, keptCount);
+		Arrays.sort(oldIds);
+		NodeTable subNodes = new NodeTable();
+		int edgeCount = 0;
+		for (int i : oldIds) {
+			int nodeId = subNodes.add(nodes.frames[i]);
+			kept.put(i, nodeId);
+			subNodes.count[nodeId] = nodes.count[i];
+			subNodes.cumulativeCount[nodeId] = nodes.cumulativeCount[i];
+			subNodes.weight[nodeId] = nodes.weight[i];
+			subNodes.cumulativeWeight[nodeId] = nodes.cumulativeWeight[i];
+			subNodes.setLabel(nodeId, nodes.getLabel(i));
+			edgeCount += edges.getOutDegree(i);
+		}
+		int[] oldEdges = new int[edgeCount];
+		edgeCount = 0;
+		for (int i : oldIds) {
+			int degree = edges.getOutDegree(i);
+			for (int j = 0; j < degree; j++) {
+				int e = edges.getOutEdge(i, j);
+				if (kept.get(edges.to[e]) != IntIntMap.NO_VALUE) {
+					oldEdges[edgeCount++] = e;
+				}
+			}
+		}
+		Arrays.sort(oldEdges, 0, edgeCount);
+		EdgeTable subEdges = new EdgeTable(subNodes, edgeCount);
+		int totalEdgeCount = 0;
+		for (int k = 0; k < edgeCount; k++) {
+			int e = oldEdges[k];
+			int edgeId = subEdges.getOrCreate(kept.get(edges.from[e]), kept.get(edges.to[e]));
+			subEdges.count[edgeId] = edges.count[e];
+			subEdges.value[edgeId] = edges.value[e];
+			totalEdgeCount += edges.count[e];
+		}
+		subEdges.freeze();
+		return new StacktraceGraphModel(model.getFrameSeparator(), model.getItems(), model.getAttribute(),
+				model.getTypeNames(), subNodes, subEdges, model.getTotalTraceCount(), totalEdgeCount);
+	}
+}
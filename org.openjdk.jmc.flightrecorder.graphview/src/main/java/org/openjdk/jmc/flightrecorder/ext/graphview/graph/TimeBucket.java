@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.StacktraceGraphModel.CumulativeCounting;
+
+/**
+ * The contribution of the items in one time bucket to a graph, i.e. the per node and per edge
+ * deltas of the bucket, stored sparsely in ascending id order.
+ * <p>
+ * While a graph is being built, the bucket aggregates the items per unique trace. When all items
+ * have been added, the bucket is frozen into node and edge deltas, and the per trace data is
+ * released.
+ */
+final class TimeBucket {
+	/**
+	 * The bucket index, i.e. the start time of the bucket divided by the bucket width.
+	 */
+	final long index;
+
+	/**
+	 * Trace index -> slot
+	 */
+	private IntIntMap traceSlots = new IntIntMap();
+	private int[] traces = new int[16];
+	private int[] traceCounts = new int[16];
+	private double[] traceWeights = new double[16];
+	private int traceSlotCount;
+
+	int[] nodeIds;
+	int[] nodeCount;
+	int[] nodeCumulativeCount;
+	double[] nodeWeight;
+	double[] nodeCumulativeWeight;
+
+	int[] edgeIds;
+	int[] edgeCount;
+	double[] edgeValue;
+
+	int totalTraceCount;
+	int totalEdgeCount;
+
+	TimeBucket(long index) {
+		this.index = index;
+	}
+
+	void add(int traceIndex, double value) {
+		int slot = traceSlots.get(traceIndex);
+		if (slot == IntIntMap.NO_VALUE) {
+			if (traceSlotCount == traces.length) {
+				int capacity = traces.length * 2;
+				traces = Arrays.copyOf(traces, capacity);
+				traceCounts = Arrays.copyOf(traceCounts, capacity);
+				traceWeights = Arrays.copyOf(traceWeights, capacity);
+			}
+			slot = traceSlotCount++;
+			traces[slot] = traceIndex;
+			traceSlots.put(traceIndex, slot);
+		}
+		traceCounts[slot]++;
+		traceWeights[slot] += value;
+	}
+
+	/**
+	 * Converts the per trace data to node and edge deltas. The traces are applied the same way as by
+	 * {@link GraphBuilder}, so a window counts like a graph built directly from its items.
+	 * 
+	 * @param traceTable
+	 *            the unique traces, with their node and edge paths.
+	 * @param scratch
+	 *            dense scratch columns, large enough for all nodes and edges of the graph. Left
+	 *            cleared on return.
+	 * @param cumulativeCounting
+	 *            how to count recursive traces.
+	 */
+	void freeze(TraceTable traceTable, Scratch scratch, CumulativeCounting cumulativeCounting) {
+		for (int slot = 0; slot < traceSlotCount; slot++) {
+			int[] nodePath = traceTable.nodePaths[traces[slot]];
+			int[] edgePath = traceTable.edgePaths[traces[slot]];
+			int count = traceCounts[slot];
+			if (nodePath.length == 0) {
+				continue;
+			}
+			for (int nodeId : nodePath) {
+				scratch.touchNode(nodeId);
+			}
+			for (int edgeId : edgePath) {
+				scratch.touchEdge(edgeId);
+			}
+			totalTraceCount += count;
+			totalEdgeCount += GraphBuilder.applyCounts(nodePath, edgePath, count, cumulativeCounting,
+					scratch.stamps, scratch.count, scratch.cumulativeCount, scratch.edgeCount);
+			GraphBuilder.applyWeights(nodePath, edgePath, traceWeights[slot], cumulativeCounting, scratch.stamps,
+					scratch.weight, scratch.cumulativeWeight, scratch.edgeValue);
+		}
+
+		nodeIds = Arrays.copyOf(scratch.touchedNodes, scratch.touchedNodeCount);
+		Arrays.sort(nodeIds);
+		nodeCount = new int[nodeIds.length];
+		nodeCumulativeCount = new int[nodeIds.length];
+		nodeWeight = new double[nodeIds.length];
+		nodeCumulativeWeight = new double[nodeIds.length];
+		for (int i = 0; i < nodeIds.length; i++) {
+			int nodeId = nodeIds[i];
+			nodeCount[i] = scratch.count[nodeId];
+			nodeCumulativeCount[i] = scratch.cumulativeCount[nodeId];
+			nodeWeight[i] = scratch.weight[nodeId];
+			nodeCumulativeWeight[i] = scratch.cumulativeWeight[nodeId];
+		}
+		edgeIds = Arrays.copyOf(scratch.touchedEdges, scratch.touchedEdgeCount);
+		Arrays.sort(edgeIds);
+		edgeCount = new int[edgeIds.length];
+		edgeValue = new double[edgeIds.length];
+		for (int i = 0; i < edgeIds.length; i++) {
+			edgeCount[i] = scratch.edgeCount[edgeIds[i]];
+			edgeValue[i] = scratch.edgeValue[edgeIds[i]];
+		}
+		scratch.clear();
+
+		traceSlots = null;
+		traces = null;
+		traceCounts = null;
+		traceWeights = null;
+	}
+
+	/**
+	 * Dense columns used while freezing buckets, together with the ids touched so that only those
+	 * need to be cleared between buckets.
+	 */
+	static final class Scratch {
+		final int[] count;
+		final int[] cumulativeCount;
+		final double[] weight;
+		final double[] cumulativeWeight;
+		final int[] edgeCount;
+		final double[] edgeValue;
+		final GraphBuilder.TraceStamps stamps = new GraphBuilder.TraceStamps();
+
+		private final boolean[] nodeTouched;
+		private final boolean[] edgeTouched;
+		private final int[] touchedNodes;
+		private final int[] touchedEdges;
+		private int touchedNodeCount;
+		private int touchedEdgeCount;
+
+		Scratch(int nodeCount, int edgeCount) {
+			count = new int[nodeCount];
+			cumulativeCount = new int[nodeCount];
+			weight = new double[nodeCount];
+			cumulativeWeight = new double[nodeCount];
+			this.edgeCount = new int[edgeCount];
+			edgeValue = new double[edgeCount];
+			nodeTouched = new boolean[nodeCount];
+			edgeTouched = new boolean[edgeCount];
+			touchedNodes = new int[nodeCount];
+			touchedEdges = new int[edgeCount];
+			stamps.ensureCapacity(nodeCount, edgeCount);
+		}
+
+		void touchNode(int nodeId) {
+			if (!nodeTouched[nodeId]) {
+				nodeTouched[nodeId] = true;
+				touchedNodes[touchedNodeCount++] = nodeId;
+			}
+		}
+
+		void touchEdge(int edgeId) {
+			if (!edgeTouched[edgeId]) {
+				edgeTouched[edgeId] = true;
+				touchedEdges[touchedEdgeCount++] = edgeId;
+			}
+		}
+
+		void clear() {
+			for (int i = 0; i < touchedNodeCount; i++) {
+				int nodeId = touchedNodes[i];
+				nodeTouched[nodeId] = false;
+				count[nodeId] = 0;
+				cumulativeCount[nodeId] = 0;
+				weight[nodeId] = 0;
+				cumulativeWeight[nodeId] = 0;
+			}
+			for (int i = 0; i < touchedEdgeCount; i++) {
+				int edgeId = touchedEdges[i];
+				edgeTouched[edgeId] = false;
+				edgeCount[edgeId] = 0;
+				edgeValue[edgeId] = 0;
+			}
+			touchedNodeCount = 0;
+			touchedEdgeCount = 0;
+		}
+	}
+}
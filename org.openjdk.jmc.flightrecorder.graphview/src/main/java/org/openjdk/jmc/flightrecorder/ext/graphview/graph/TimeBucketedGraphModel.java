@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmc.common.IMCStackTrace;
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.StacktraceGraphModel.CumulativeCounting;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+
+/**
+ * A stack trace graph that can be sliced in time. The items are scanned once, and the
+ * contribution of each fixed width time bucket to the node and edge counts and weights is kept.
+ * The graph for a time window is then created by summing the buckets in the window, without
+ * looking at the items again.
+ * <p>
+ * Items are placed in buckets by their start time. Items without a start time or without a stack
+ * trace are ignored. Items without a value for the attribute are counted, with a weight of zero.
+ * <p>
+ * The node and edge ids of a window are the ids of the nodes and edges of the full graph with
+ * the nodes and edges not present in the window left out, so the relative order is the same for
+ * all windows.
+ * <p>
+ * Instances of this class are thread safe.
+ */
+public final class TimeBucketedGraphModel {
+	private final FrameSeparator frameSeparator;
+	private final IAttribute<IQuantity> attribute;
+	private final String typeNames;
+	private final long bucketWidth;
+	private final NodeTable nodes;
+	private final EdgeTable edges;
+
+	/**
+	 * The buckets with items, in ascending time order.
+	 */
+	private final TimeBucket[] buckets;
+	private final StacktraceGraphModel fullModel;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param items
+	 *            the items to graph.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 * @param bucketWidth
+	 *            the width of the time buckets. Windows are rounded outwards to whole buckets.
+	 */
+	public TimeBucketedGraphModel(
+		FrameSeparator frameSeparator, IItemCollection items, IAttribute<IQuantity> attribute, IQuantity bucketWidth) {
+		this(frameSeparator, items, attribute, bucketWidth, CumulativeCounting.PER_FRAME);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param frameSeparator
+	 *            how to aggregate frames.
+	 * @param items
+	 *            the items to graph.
+	 * @param attribute
+	 *            the (optional) attribute to use for calculating the values.
+	 * @param bucketWidth
+	 *            the width of the time buckets. Windows are rounded outwards to whole buckets.
+	 * @param cumulativeCounting
+	 *            how to count recursive traces.
+	 */
+	public TimeBucketedGraphModel(
+		FrameSeparator frameSeparator, IItemCollection items, IAttribute<IQuantity> attribute, IQuantity bucketWidth,
+		CumulativeCounting cumulativeCounting) {
+		this.frameSeparator = frameSeparator;
+		this.attribute = attribute;
+		this.bucketWidth = bucketWidth.clampedLongValueIn(UnitLookup.NANOSECOND);
+		if (this.bucketWidth <= 0) {
+			throw new IllegalArgumentException("Bucket width must be positive: " + bucketWidth);
+		}
+		typeNames = GraphModelUtils.getTypeNames(items);
+
+		GraphBuilder builder = new GraphBuilder(frameSeparator);
+		TraceTable traces = new TraceTable();
+		Map<Long, TimeBucket> bucketsByIndex = new HashMap<>();
+		TimeBucket lastBucket = null;
+		for (IItemIterable iterable : items) {
+			IMemberAccessor<IQuantity, IItem> timeAccessor = iterable.getType()
+					.getAccessor(JfrAttributes.START_TIME.getKey());
+			if (timeAccessor == null) {
+				continue;
+			}
+			IMemberAccessor<IQuantity, IItem> valueAccessor = null;
+			if (attribute != null) {
+				valueAccessor = iterable.getType().getAccessor(attribute.getKey());
+			}
+			for (IItem item : iterable) {
+				IQuantity time = timeAccessor.getMember(item);
+				IMCStackTrace trace = GraphBuilder.getStackTrace(item);
+				if (time == null || trace == null) {
+					continue;
+				}
+				long index = Math.floorDiv(time.clampedLongValueIn(UnitLookup.EPOCH_NS), this.bucketWidth);
+				// Items are mostly in time order, so the bucket is usually the same as last time
+				if (lastBucket == null || lastBucket.index != index) {
+					lastBucket = bucketsByIndex.computeIfAbsent(index, TimeBucket::new);
+				}
+				double value = 0;
+				if (valueAccessor != null) {
+					IQuantity quantity = valueAccessor.getMember(item);
+					if (quantity != null) {
+						value = quantity.doubleValue();
+					}
+				}
+				lastBucket.add(getTraceIndex(builder, traces, trace), value);
+			}
+		}
+		builder.edges.freeze();
+		nodes = builder.nodes;
+		edges = builder.edges;
+
+		List<TimeBucket> sortedBuckets = new ArrayList<>(bucketsByIndex.values());
+		sortedBuckets.sort((a, b) -> Long.compare(a.index, b.index));
+		buckets = sortedBuckets.toArray(new TimeBucket[sortedBuckets.size()]);
+		TimeBucket.Scratch scratch = new TimeBucket.Scratch(nodes.size, edges.size);
+		for (TimeBucket bucket : buckets) {
+			bucket.freeze(traces, scratch, cumulativeCounting);
+		}
+		fullModel = createModel(0, buckets.length);
+	}
+
+	private static int getTraceIndex(GraphBuilder builder, TraceTable traces, IMCStackTrace trace) {
+		int index = traces.get(trace);
+		if (index == IdentityIntMap.NO_VALUE) {
+			int[] nodePath = builder.resolveNodePath(trace);
+			index = traces.get(nodePath);
+			if (index == IdentityIntMap.NO_VALUE) {
+				index = traces.add(trace, nodePath, builder.resolveEdgePath(nodePath));
+			} else {
+				traces.put(trace, index);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @return an unmodifiable view of the edges of the full graph.
+	 */
+	public Collection<Edge> getEdges() {
+		return fullModel.getEdges();
+	}
+
+	/**
+	 * @return an unmodifiable view of the nodes of the full graph.
+	 */
+	public Collection<Node> getNodes() {
+		return fullModel.getNodes();
+	}
+
+	/**
+	 * @return the graph for all the items.
+	 */
+	public StacktraceGraphModel getModel() {
+		return fullModel;
+	}
+
+	/**
+	 * Creates the graph for the items in a time window, by summing the buckets overlapping the
+	 * window. The cost is proportional to the number of node and edge deltas in those buckets, not
+	 * to the number of items or to the size of the full graph.
+	 * 
+	 * @param start
+	 *            the start of the window, inclusive.
+	 * @param end
+	 *            the end of the window, exclusive.
+	 * @return the graph for the window. {@link StacktraceGraphModel#getItems()} returns null for
+	 *         it.
+	 */
+	public StacktraceGraphModel getWindow(IQuantity start, IQuantity end) {
+		long startIndex = Math.floorDiv(start.clampedLongValueIn(UnitLookup.EPOCH_NS), bucketWidth);
+		long endIndex = Math.floorDiv(end.clampedLongValueIn(UnitLookup.EPOCH_NS) - 1, bucketWidth);
+		return createModel(findBucket(startIndex), findBucket(endIndex + 1));
+	}
+
+	/**
+	 * @return the start of the first bucket with items, or null if there are no items.
+	 */
+	public IQuantity getStartTime() {
+		return buckets.length == 0 ? null : UnitLookup.EPOCH_NS.quantity(buckets[0].index * bucketWidth);
+	}
+
+	/**
+	 * @return the end of the last bucket with items, or null if there are no items.
+	 */
+	public IQuantity getEndTime() {
+		return buckets.length == 0 ? null
+				: UnitLookup.EPOCH_NS.quantity((buckets[buckets.length - 1].index + 1) * bucketWidth);
+	}
+
+	public IQuantity getBucketWidth() {
+		return UnitLookup.NANOSECOND.quantity(bucketWidth);
+	}
+
+	/**
+	 * @return the number of buckets with items.
+	 */
+	public int getBucketCount() {
+		return buckets.length;
+	}
+
+	public FrameSeparator getFrameSeparator() {
+		return frameSeparator;
+	}
+
+	/**
+	 * @return the position of the first bucket with an index of at least the given index.
+	 */
+	private int findBucket(long index) {
+		int low = 0;
+		int high = buckets.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (buckets[mid].index < index) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private StacktraceGraphModel createModel(int fromBucket, int toBucket) {
+		// Only the nodes and edges of the buckets are visited, so the cost does not depend on the
+		// size of the full graph. The window keeps the relative order of the ids of the full graph.
+		IntIntMap nodeMap = new IntIntMap();
+		int[] nodeIds = collectIds(fromBucket, toBucket, nodeMap, true);
+		NodeTable windowNodes = new NodeTable(nodeIds.length);
+		for (int i = 0; i < nodeIds.length; i++) {
+			nodeMap.put(nodeIds[i], windowNodes.add(nodes.frames[nodeIds[i]]));
+		}
+		IntIntMap edgeMap = new IntIntMap();
+		int[] edgeIds = collectIds(fromBucket, toBucket, edgeMap, false);
+		EdgeTable windowEdges = new EdgeTable(windowNodes, edgeIds.length);
+		for (int i = 0; i < edgeIds.length; i++) {
+			int edgeId = edgeIds[i];
+			edgeMap.put(edgeId, windowEdges.getOrCreate(nodeMap.get(edges.from[edgeId]), nodeMap.get(edges.to[edgeId])));
+		}
+
+		int totalTraceCount = 0;
+		int totalEdgeCount = 0;
+		for (int b = fromBucket; b < toBucket; b++) {
+			TimeBucket bucket = buckets[b];
+			for (int i = 0; i < bucket.nodeIds.length; i++) {
+				int nodeId = nodeMap.get(bucket.nodeIds[i]);
+				windowNodes.count[nodeId] += bucket.nodeCount[i];
+				windowNodes.cumulativeCount[nodeId] += bucket.nodeCumulativeCount[i];
+				windowNodes.weight[nodeId] += bucket.nodeWeight[i];
+				windowNodes.cumulativeWeight[nodeId] += bucket.nodeCumulativeWeight[i];
+			}
+			for (int i = 0; i < bucket.edgeIds.length; i++) {
+				int edgeId = edgeMap.get(bucket.edgeIds[i]);
+				windowEdges.count[edgeId] += bucket.edgeCount[i];
+				windowEdges.value[edgeId] += bucket.edgeValue[i];
+			}
+			totalTraceCount += bucket.totalTraceCount;
+			totalEdgeCount += bucket.totalEdgeCount;
+		}
+		windowEdges.freeze();
+		return new StacktraceGraphModel(frameSeparator, null, attribute, typeNames, windowNodes, windowEdges,
+				totalTraceCount, totalEdgeCount);
+	}
+
+	/**
+	 * Collects the distinct node or edge ids of a range of buckets.
+	 * 
+	 * @param seen
+	 *            an empty map, used for finding the ids already collected.
+	 * @return the ids, in ascending order.
+	 */
+	private int[] collectIds(int fromBucket, int toBucket, IntIntMap seen, boolean nodeIds) {
+		int[] ids = new int[16];
+		int size = 0;
+		for (int b = fromBucket; b < toBucket; b++) {
+			int[] bucketIds = nodeIds ? buckets[b].nodeIds : buckets[b].edgeIds;
+			for (int id : bucketIds) {
+				if (seen.get(id) == IntIntMap.NO_VALUE) {
+					seen.put(id, size);
+					if (size == ids.length) {
+						ids = Arrays.copyOf(ids, size * 2);
+					}
+					ids[size++] = id;
+				}
+			}
+		}
+		ids = Arrays.copyOf(ids, size);
+		Arrays.sort(ids);
+		return ids;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openjdk.jmc.common.IMCStackTrace;
+
+/**
+ * Pre-aggregation table of the unique stack traces seen while building a graph. Identical stack
+ * traces are counted, and their weights summed, so that each unique trace only has to be applied
+ * to the node and edge tables once.
+ * <p>
+ * Stack traces are first looked up by identity, since the parser shares stack trace instances
+ * between events. Different instances are then matched by their node path, i.e. the ids of the
+ * nodes of their frames, which makes traces that only differ in ways the frame separator ignores
+ * the same trace.
+ * <p>
+ * Instances of this class are not thread safe.
+ */
+final class TraceTable {
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Stack trace instance -> trace index
+	 */
+	private final IdentityIntMap identityIndexes = new IdentityIntMap();
+
+	/**
+	 * Node path -> trace index
+	 */
+	private final Map<NodePath, Integer> pathIndexes = new HashMap<>(DEFAULT_CAPACITY);
+
+	/**
+	 * The number of attributes there are weights for.
+	 */
+	final int attributeCount;
+
+	int size;
+
+	/**
+	 * The node ids of the frames, top frame first.
+	 */
+	int[][] nodePaths = new int[DEFAULT_CAPACITY][];
+
+	/**
+	 * The edge ids between the frames, from the thread root towards the top frame.
+	 */
+	int[][] edgePaths = new int[DEFAULT_CAPACITY][];
+	int[] count = new int[DEFAULT_CAPACITY];
+
+	/**
+	 * The summed weights, trace index * attribute count + attribute index.
+	 */
+	double[] weight;
+
+	TraceTable() {
+		this(1);
+	}
+
+	TraceTable(int attributeCount) {
+		this.attributeCount = attributeCount;
+		weight = new double[DEFAULT_CAPACITY * attributeCount];
+	}
+
+	/**
+	 * @return the index of the trace instance, or {@link IdentityIntMap#NO_VALUE} if this instance
+	 *         has not been seen before.
+	 */
+	int get(IMCStackTrace trace) {
+		return identityIndexes.get(trace);
+	}
+
+	/**
+	 * @return the index of the trace with the node path, or {@link IdentityIntMap#NO_VALUE} if
+	 *         there is no such trace.
+	 */
+	int get(int[] nodePath) {
+		Integer index = pathIndexes.get(new NodePath(nodePath));
+		return index == null ? IdentityIntMap.NO_VALUE : index.intValue();
+	}
+
+	/**
+	 * Makes a trace instance an alias of an existing trace.
+	 */
+	void put(IMCStackTrace trace, int index) {
+		identityIndexes.put(trace, index);
+	}
+
+	/**
+	 * Adds a new unique trace.
+	 * 
+	 * @return the index of the trace.
+	 */
+	int add(IMCStackTrace trace, int[] nodePath, int[] edgePath) {
+		if (size == count.length) {
+			grow();
+		}
+		int index = size++;
+		nodePaths[index] = nodePath;
+		edgePaths[index] = edgePath;
+		identityIndexes.put(trace, index);
+		pathIndexes.put(new NodePath(nodePath), Integer.valueOf(index));
+		return index;
+	}
+
+	private void grow() {
+		int capacity = count.length * 2;
+		nodePaths = Arrays.copyOf(nodePaths, capacity);
+		edgePaths = Arrays.copyOf(edgePaths, capacity);
+		count = Arrays.copyOf(count, capacity);
+		weight = Arrays.copyOf(weight, capacity * attributeCount);
+	}
+
+	private static final class NodePath {
+		private final int[] nodeIds;
+		private final int hash;
+
+		NodePath(int[] nodeIds) {
+			this.nodeIds = nodeIds;
+			this.hash = Arrays.hashCode(nodeIds);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof NodePath && Arrays.equals(nodeIds, ((NodePath) obj).nodeIds);
+		}
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.graphview.views;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.Adapters;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.action.IMenuManager;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.browser.Browser;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IMemento;
+import org.eclipse.ui.ISelectionListener;
+import org.eclipse.ui.IViewSite;
+import org.eclipse.ui.IWorkbenchPart;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.part.ViewPart;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.ConcurrentGraphBuilder;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.DotGenerator;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.DotGenerator.ConfigurationKey;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.GraphModelCache;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.GraphModelUtils;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.StacktraceGraphModel;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator.FrameCategorization;
+
+/**
+ * Shows the stack trace graph of the items selected in the workbench.
+ * <p>
+ * The model is built, and rendered to DOT, in a background job, so the UI thread is never blocked.
+ * The job adds the item iterables to a {@link ConcurrentGraphBuilder} in parallel, with a parallel
+ * stream in the common fork/join pool. It reports progress per item iterable, and checks for
+ * cancellation before each of them, so a cancelled job only finishes the iterables already being
+ * added. Selection changes are debounced by scheduling the job with a delay, and cancelling any
+ * job not yet done, so quickly moving through a table only builds the graph for the last
+ * selection. The models are cached per items and frame separator, so switching back to a
+ * categorization already viewed is instant, and the DOT of the last model is reused as long as the
+ * items and the frame separator are the same.
+ * <p>
+ * The graph is pruned to the nodes and edges that matter before it is rendered, so that the DOT
+ * sent to the browser, and laid out there, stays small even for large recordings.
+ */
+public class GraphView extends ViewPart implements ISelectionListener {
+	private static final long DEBOUNCE_DELAY_MS = 300;
+	private static final String HTML_TEMPLATE = loadTemplate("graph.html");
+	private static final String DOT_PLACEHOLDER = "%DOT%";
+	private static final long MODEL_CACHE_BUDGET = Runtime.getRuntime().maxMemory() / 8;
+	private static final String MAX_NODES = "200";
+	private static final String NODE_FRACTION = "0.005";
+	private static final String EDGE_FRACTION = "0.001";
+	private static final Map<ConfigurationKey, String> DOT_CONFIGURATION = createDotConfiguration();
+
+	private final GraphModelCache modelCache = new GraphModelCache(MODEL_CACHE_BUDGET);
+
+	private Browser browser;
+
+	/**
+	 * The items and frame separator to show, only accessed from the UI thread.
+	 */
+	private IItemCollection items;
+	private FrameSeparator frameSeparator = GraphModelUtils.DEFAULT_FRAME_SEPARATOR;
+
+	/**
+	 * The job for the latest selection, only accessed from the UI thread.
+	 */
+	private GraphJob currentJob;
+
+	/**
+	 * The last graph rendered, set by the jobs.
+	 */
+	private volatile RenderedGraph lastGraph;
+
+	/**
+	 * The rendering of a model, together with what the model was built from.
+	 */
+	private static final class RenderedGraph {
+		final IItemCollection items;
+		final FrameSeparator frameSeparator;
+		final String dot;
+
+		RenderedGraph(IItemCollection items, FrameSeparator frameSeparator, String dot) {
+			this.items = items;
+			this.frameSeparator = frameSeparator;
+			this.dot = dot;
+		}
+
+		boolean isBuiltFrom(IItemCollection items, FrameSeparator frameSeparator) {
+			return this.items == items
+					&& this.frameSeparator.getCategorization() == frameSeparator.getCategorization()
+					&& this.frameSeparator.isDistinguishFramesByOptimization() == frameSeparator
+							.isDistinguishFramesByOptimization();
+		}
+	}
+
+	private final class GraphJob extends Job {
+		private final IItemCollection items;
+		private final FrameSeparator frameSeparator;
+
+		GraphJob(IItemCollection items, FrameSeparator frameSeparator) {
+			super("Building stack trace graph");
+			this.items = items;
+			this.frameSeparator = frameSeparator;
+			setSystem(false);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				RenderedGraph graph = lastGraph;
+				if (graph == null || !graph.isBuiltFrom(items, frameSeparator)) {
+					StacktraceGraphModel model = modelCache.getIfPresent(items, frameSeparator, null);
+					if (model == null) {
+						model = buildModel(monitor);
+						if (model == null) {
+							return Status.CANCEL_STATUS;
+						}
+						modelCache.put(items, frameSeparator, null, model);
+					}
+					if (monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					monitor.subTask("Rendering graph");
+					graph = new RenderedGraph(items, frameSeparator, DotGenerator.toDot(model, DOT_CONFIGURATION));
+					lastGraph = graph;
+					monitor.worked(1);
+				}
+				if (monitor.isCanceled()) {
+					return Status.CANCEL_STATUS;
+				}
+				String page = HTML_TEMPLATE.replace(DOT_PLACEHOLDER, toJavaScriptString(graph.dot));
+				Display.getDefault().asyncExec(() -> show(this, page));
+				return Status.OK_STATUS;
+			} finally {
+				monitor.done();
+			}
+		}
+
+		/**
+		 * @return the model, or null if the job was cancelled.
+		 */
+		private StacktraceGraphModel buildModel(IProgressMonitor monitor) {
+			List<IItemIterable> iterables = new ArrayList<>();
+			items.forEach(iterables::add);
+			monitor.beginTask(getName(), iterables.size() + 1);
+			ConcurrentGraphBuilder builder = new ConcurrentGraphBuilder(frameSeparator, null);
+			iterables.parallelStream().forEach(iterable -> {
+				if (!monitor.isCanceled()) {
+					builder.addItems(iterable);
+					// The monitors are not generally thread safe
+					synchronized (monitor) {
+						monitor.worked(1);
+					}
+				}
+			});
+			if (monitor.isCanceled()) {
+				return null;
+			}
+			return builder.freeze();
+		}
+	}
+
+	private final class CategorizationAction extends Action {
+		private final FrameCategorization categorization;
+
+		CategorizationAction(FrameCategorization categorization) {
+			super(categorization.name(), IAction.AS_RADIO_BUTTON);
+			this.categorization = categorization;
+			setChecked(frameSeparator.getCategorization() == categorization);
+		}
+
+		@Override
+		public void run() {
+			if (isChecked() && frameSeparator.getCategorization() != categorization) {
+				frameSeparator = new FrameSeparator(categorization,
+						frameSeparator.isDistinguishFramesByOptimization());
+				rebuild();
+			}
+		}
+	}
+
+	@Override
+	public void init(IViewSite site, IMemento memento) throws PartInitException {
+		super.init(site, memento);
+		IMenuManager menu = site.getActionBars().getMenuManager();
+		for (FrameCategorization categorization : FrameCategorization.values()) {
+			menu.add(new CategorizationAction(categorization));
+		}
+		site.getPage().addSelectionListener(this);
+	}
+
+	@Override
+	public void dispose() {
+		getSite().getPage().removeSelectionListener(this);
+		if (currentJob != null) {
+			currentJob.cancel();
+		}
+		modelCache.clear();
+		super.dispose();
+	}
+
+	@Override
+	public void createPartControl(Composite parent) {
+		browser = new Browser(parent, SWT.NONE);
+	}
+
+	@Override
+	public void setFocus() {
+		browser.setFocus();
+	}
+
+	@Override
+	public void selectionChanged(IWorkbenchPart part, ISelection selection) {
+		if (selection instanceof IStructuredSelection) {
+			Object first = ((IStructuredSelection) selection).getFirstElement();
+			IItemCollection selectedItems = Adapters.adapt(first, IItemCollection.class);
+			if (selectedItems != null && selectedItems != items) {
+				items = selectedItems;
+				rebuild();
+			}
+		}
+	}
+
+	/**
+	 * Schedules a job for the current items and frame separator, replacing any job not yet done.
+	 */
+	private void rebuild() {
+		if (currentJob != null) {
+			currentJob.cancel();
+		}
+		if (items == null) {
+			currentJob = null;
+			return;
+		}
+		currentJob = new GraphJob(items, frameSeparator);
+		currentJob.schedule(DEBOUNCE_DELAY_MS);
+	}
+
+	/**
+	 * Shows the page of a job, unless a later job has replaced it, or the view has been closed.
+	 */
+	private void show(GraphJob job, String page) {
+		if (job == currentJob && browser != null && !browser.isDisposed()) {
+			browser.setText(page);
+		}
+	}
+
+	private static Map<ConfigurationKey, String> createDotConfiguration() {
+		Map<ConfigurationKey, String> configuration = DotGenerator.getDefaultConfiguration();
+		configuration.put(ConfigurationKey.MaxNodes, MAX_NODES);
+		configuration.put(ConfigurationKey.NodeFraction, NODE_FRACTION);
+		configuration.put(ConfigurationKey.EdgeFraction, EDGE_FRACTION);
+		return configuration;
+	}
+
+	private static String toJavaScriptString(String text) {
+		StringBuilder builder = new StringBuilder(text.length() + 16);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"':
+				builder.append("\\\"");
+				break;
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			case '<':
+				// Keeps a label from closing the script element
+				builder.append("\\u003c");
+				break;
+			default:
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	private static String loadTemplate(String name) {
+		try (InputStream in = GraphView.class.getResourceAsStream(name)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not load " + name, e);
+		}
+	}
+}
@@ -2,33 +2,863 @@ package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.openjdk.jmc.common.IMCStackTrace;
 import org.openjdk.jmc.common.item.Aggregators;
+import org.openjdk.jmc.common.item.IAttribute;
 import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.ItemFilters;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
 import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
 import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+import org.openjdk.jmc.flightrecorder.ext.graphview.graph.StacktraceGraphModel.CumulativeCounting;
 import org.openjdk.jmc.flightrecorder.jdk.JdkFilters;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
+import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator.FrameCategorization;
 
 class GraphModelTest {
+	private static IItemCollection executionSamples;
+	private static StacktraceGraphModel model;
 
-	@Test
-	void testBuildGraph() throws IOException, CouldNotLoadRecordingException {
+	@BeforeAll
+	static void loadRecording() throws IOException, CouldNotLoadRecordingException {
 		IItemCollection events = JfrLoaderToolkit.loadEvents(GraphModelTest.class.getResourceAsStream("hotmethods.jfr"));
 		assertTrue(events.hasItems());
-		IItemCollection executionSamples = events.apply(JdkFilters.EXECUTION_SAMPLE);
+		executionSamples = events.apply(JdkFilters.EXECUTION_SAMPLE);
+		model = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples, null);
+	}
+
+	@Test
+	void testBuildGraph() {
 		assertTrue(executionSamples.hasItems());
 		assertEquals(executionSamples.getAggregate(Aggregators.count()).longValue(), 24526);
-		StacktraceGraphModel model = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples, null);
 		assertFalse("No nodes!", model.getNodes().isEmpty());
 		assertFalse("No edges!", model.getEdges().isEmpty());
 	}
 
-	
+	@Test
+	void testParallelBuildGraph() {
+		StacktraceGraphModel parallelModel = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples, null, new ForkJoinPool(4));
+		assertEquals(model.getTotalTraceCount(), parallelModel.getTotalTraceCount());
+		assertEquals(model.getTotalEdgeCount(), parallelModel.getTotalEdgeCount());
+		assertEquals(model.getNodes().size(), parallelModel.getNodes().size());
+		assertEquals(model.getEdges().size(), parallelModel.getEdges().size());
+
+		// Node ids must be stable across build modes
+		Iterator<Node> parallelNodes = parallelModel.getNodes().iterator();
+		for (Node serialNode : model.getNodes()) {
+			Node parallelNode = parallelNodes.next();
+			assertEquals(serialNode.getNodeId(), parallelNode.getNodeId());
+			assertEquals(serialNode.getFrame(), parallelNode.getFrame());
+			assertEquals(serialNode.getCount(), parallelNode.getCount());
+			assertEquals(serialNode.getCumulativeCount(), parallelNode.getCumulativeCount());
+		}
+		Iterator<Edge> parallelEdges = parallelModel.getEdges().iterator();
+		for (Edge serialEdge : model.getEdges()) {
+			Edge parallelEdge = parallelEdges.next();
+			assertEquals(serialEdge, parallelEdge);
+			assertEquals(serialEdge.getCount(), parallelEdge.getCount());
+		}
+	}
+
+	@Test
+	void testStatistics() {
+		int nodeMinCount = Integer.MAX_VALUE;
+		int nodeMaxCount = 0;
+		long nodeSumCount = 0;
+		for (Node node : model.getNodes()) {
+			nodeMinCount = Math.min(nodeMinCount, node.getCount());
+			nodeMaxCount = Math.max(nodeMaxCount, node.getCount());
+			nodeSumCount += node.getCount();
+		}
+		int edgeMinCount = Integer.MAX_VALUE;
+		int edgeMaxCount = 0;
+		long edgeSumCount = 0;
+		for (Edge edge : model.getEdges()) {
+			edgeMinCount = Math.min(edgeMinCount, edge.getCount());
+			edgeMaxCount = Math.max(edgeMaxCount, edge.getCount());
+			edgeSumCount += edge.getCount();
+		}
+		GraphStatistics statistics = model.getStatistics();
+		assertSame(statistics, model.getStatistics());
+		assertEquals(nodeMinCount, statistics.getNodeMinCount());
+		assertEquals(nodeMaxCount, statistics.getNodeMaxCount());
+		assertEquals(model.getTotalTraceCount(), nodeSumCount);
+		assertEquals(nodeSumCount, statistics.getNodeSumCount());
+		assertEquals(edgeMinCount, statistics.getEdgeMinCount());
+		assertEquals(edgeMaxCount, statistics.getEdgeMaxCount());
+		assertEquals(model.getTotalEdgeCount(), edgeSumCount);
+		assertEquals(edgeSumCount, statistics.getEdgeSumCount());
+		assertEquals(edgeMaxCount, model.findEdgeMaxCount());
+	}
+
+	@Test
+	void testCytoscapePages() throws IOException {
+		int elementCount = model.getNodes().size() + model.getEdges().size();
+		assertEquals(elementCount, countElements(CytoscapeGenerator.toCytoScapeJSon(model)));
+
+		int pageSize = 100;
+		int pageCount = CytoscapeGenerator.getPageCount(model, pageSize);
+		assertEquals((elementCount + pageSize - 1) / pageSize, pageCount);
+		int pagedElementCount = 0;
+		for (int page = 0; page < pageCount; page++) {
+			StringBuilder builder = new StringBuilder();
+			CytoscapeGenerator.writeCytoscapeJsonPage(model, pageSize, page, builder);
+			pagedElementCount += countElements(builder.toString());
+		}
+		assertEquals(elementCount, pagedElementCount);
+	}
+
+	@Test
+	void testIncrementalModel() {
+		IncrementalStacktraceGraphModel incrementalModel = new IncrementalStacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, null);
+		assertTrue("Initial snapshot not empty!", incrementalModel.getSnapshot().getNodes().isEmpty());
+
+		StacktraceGraphModel firstSnapshot = incrementalModel.addItems(executionSamples);
+		assertSame(firstSnapshot, incrementalModel.getSnapshot());
+		assertEquals(model.getTotalTraceCount(), firstSnapshot.getTotalTraceCount());
+		assertEquals(model.getTotalEdgeCount(), firstSnapshot.getTotalEdgeCount());
+		assertEquals(model.getNodes().size(), firstSnapshot.getNodes().size());
+		assertEquals(model.getEdges().size(), firstSnapshot.getEdges().size());
+
+		// Adding more items must not change the snapshots already handed out
+		StacktraceGraphModel secondSnapshot = incrementalModel.addItems(executionSamples);
+		assertEquals(model.getTotalTraceCount(), firstSnapshot.getTotalTraceCount());
+		assertEquals(2 * model.getTotalTraceCount(), secondSnapshot.getTotalTraceCount());
+		assertEquals(model.getNodes().size(), secondSnapshot.getNodes().size());
+		Iterator<Node> secondNodes = secondSnapshot.getNodes().iterator();
+		for (Node node : model.getNodes()) {
+			Node secondNode = secondNodes.next();
+			assertEquals(node.getFrame(), secondNode.getFrame());
+			assertEquals(2 * node.getCount(), secondNode.getCount());
+		}
+	}
+
+	@Test
+	void testTimeBucketedModel() {
+		TimeBucketedGraphModel timeBucketedModel = new TimeBucketedGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples, null, UnitLookup.MILLISECOND.quantity(100));
+		assertEquals(model.getTotalTraceCount(), timeBucketedModel.getModel().getTotalTraceCount());
+		assertEquals(model.getNodes().size(), timeBucketedModel.getNodes().size());
+		assertEquals(model.getEdges().size(), timeBucketedModel.getEdges().size());
+
+		// Two adjacent windows on a bucket boundary must add up to the full graph
+		long start = timeBucketedModel.getStartTime().clampedLongValueIn(UnitLookup.EPOCH_NS);
+		long end = timeBucketedModel.getEndTime().clampedLongValueIn(UnitLookup.EPOCH_NS);
+		long width = timeBucketedModel.getBucketWidth().clampedLongValueIn(UnitLookup.NANOSECOND);
+		IQuantity middle = UnitLookup.EPOCH_NS.quantity(start + (end - start) / width / 2 * width);
+		StacktraceGraphModel first = timeBucketedModel.getWindow(timeBucketedModel.getStartTime(), middle);
+		StacktraceGraphModel second = timeBucketedModel.getWindow(middle, timeBucketedModel.getEndTime());
+		assertEquals(model.getTotalTraceCount(), first.getTotalTraceCount() + second.getTotalTraceCount());
+		assertEquals(model.getTotalEdgeCount(), first.getTotalEdgeCount() + second.getTotalEdgeCount());
+		assertTrue(first.getNodes().size() <= model.getNodes().size());
+	}
+
+	@Test
+	void testTimeBucketedWindow() {
+		for (CumulativeCounting cumulativeCounting : CumulativeCounting.values()) {
+			TimeBucketedGraphModel timeBucketedModel = new TimeBucketedGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR,
+					executionSamples, JfrAttributes.START_TIME, UnitLookup.MILLISECOND.quantity(100), cumulativeCounting);
+			long start = timeBucketedModel.getStartTime().clampedLongValueIn(UnitLookup.EPOCH_NS);
+			long end = timeBucketedModel.getEndTime().clampedLongValueIn(UnitLookup.EPOCH_NS);
+			long width = timeBucketedModel.getBucketWidth().clampedLongValueIn(UnitLookup.NANOSECOND);
+			IQuantity windowStart = UnitLookup.EPOCH_NS.quantity(start + 2 * width);
+			IQuantity windowEnd = UnitLookup.EPOCH_NS.quantity(start + (end - start) / width / 2 * width);
+			StacktraceGraphModel window = timeBucketedModel.getWindow(windowStart, windowEnd);
+			IItemCollection windowItems = executionSamples
+					.apply(ItemFilters.interval(JfrAttributes.START_TIME, windowStart, true, windowEnd, false));
+			StacktraceGraphModel expected = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR,
+					windowItems, JfrAttributes.START_TIME, null, cumulativeCounting);
+			assertModelsEqual(expected, window);
+		}
+	}
+
+	@Test
+	void testDiffModel() {
+		DiffGraphModel diff = new DiffGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples, executionSamples, null);
+		assertEquals(model.getNodes().size(), diff.getModel().getNodes().size());
+		assertEquals(model.getEdges().size(), diff.getModel().getEdges().size());
+		assertEquals(model.getTotalTraceCount(), diff.getBaseline().getTotalTraceCount());
+		for (Node node : diff.getModel().getNodes()) {
+			assertEquals(0, diff.getCountDelta(node));
+			assertEquals(0, diff.getCumulativeCountDelta(node));
+			assertEquals(0, diff.getRelativeCountDelta(node), 0);
+		}
+		for (Edge edge : diff.getModel().getEdges()) {
+			assertEquals(0, diff.getCountDelta(edge));
+		}
+		assertFalse(DotGenerator.toDot(diff, DotGenerator.getDefaultConfiguration()).isEmpty());
+	}
+
+	@Test
+	void testPrunedDiffModel() {
+		DiffGraphModel diff = new DiffGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples,
+				executionSamples, null);
+		DiffGraphModel prunedDiff = diff.prune(0.005, 0.001, 0);
+		StacktraceGraphModel pruned = GraphPruner.prune(model, 0.005, 0.001, 0);
+		assertEquals(pruned.getNodes().size(), prunedDiff.getModel().getNodes().size());
+		assertEquals(pruned.getEdges().size(), prunedDiff.getModel().getEdges().size());
+		assertEquals(pruned.getNodes().size(), prunedDiff.getBaseline().getNodes().size());
+		for (Node node : prunedDiff.getModel().getNodes()) {
+			assertEquals(0, prunedDiff.getRelativeCountDelta(node), 0);
+		}
+		for (Edge edge : prunedDiff.getModel().getEdges()) {
+			assertEquals(0, prunedDiff.getCountDelta(edge));
+		}
+		assertEquals(10, diff.prune(0, 0, 10).getModel().getNodes().size());
+		Map<DotGenerator.ConfigurationKey, String> configuration = DotGenerator.getDefaultConfiguration();
+		configuration.put(DotGenerator.ConfigurationKey.MaxNodes, "10");
+		int nodeLines = 0;
+		for (String line : DotGenerator.toDot(diff, configuration).split("\n")) {
+			if (line.startsWith("N") && !line.contains(" -> ")) {
+				nodeLines++;
+			}
+		}
+		assertEquals(10, nodeLines);
+	}
+
+	@Test
+	void testDiffModelWithEmptyComparison() {
+		IItemCollection noItems = executionSamples.apply(ItemFilters.type("no.such.type"));
+		DiffGraphModel diff = new DiffGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples, noItems,
+				null);
+		assertEquals(0, diff.getModel().getTotalTraceCount());
+		for (Node node : diff.getModel().getNodes()) {
+			double delta = diff.getRelativeCountDelta(node);
+			if (diff.getCountDelta(node) < 0) {
+				assertEquals(Double.NEGATIVE_INFINITY, delta, 0);
+			} else {
+				assertEquals(0, delta, 0);
+			}
+		}
+		assertFalse(DotGenerator.toDot(diff, DotGenerator.getDefaultConfiguration()).contains("NaN"));
+	}
+
+	@Test
+	void testPruning() {
+		StacktraceGraphModel unpruned = GraphPruner.prune(model, 0, 0, 0);
+		assertEquals(model.getNodes().size(), unpruned.getNodes().size());
+		assertEquals(model.getEdges().size(), unpruned.getEdges().size());
+		assertEquals(model.getTotalEdgeCount(), unpruned.getTotalEdgeCount());
+
+		StacktraceGraphModel pruned = GraphPruner.prune(model, 0.01, 0.001, 10);
+		assertTrue("Too many nodes!", pruned.getNodes().size() <= 10);
+		double minCount = 0.01 * model.getTotalTraceCount();
+		for (Node node : pruned.getNodes()) {
+			assertTrue(Math.max(node.getCount(), node.getCumulativeCount()) >= minCount);
+		}
+		for (Edge edge : pruned.getEdges()) {
+			assertTrue(edge.getCount() >= 0.001 * model.getTotalTraceCount());
+		}
+	}
+
+	@Test
+	void testPruningRecursion() {
+		TestRecording recording = new TestRecording();
+		IMCStackTrace recursive = recording.trace("c", "b", "a", "b", "a", "main");
+		IMCStackTrace direct = recording.trace("c", "main");
+		IMCStackTrace root = recording.trace("main");
+		recording.add(recursive, 0, 1L).add(recursive, 0, 1L);
+		for (int i = 0; i < 100; i++) {
+			recording.add(direct, 0, 1L).add(root, 0, 1L);
+		}
+
+		for (CumulativeCounting counting : CumulativeCounting.values()) {
+			StacktraceGraphModel recursiveModel = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR,
+					recording, JfrAttributes.DURATION, null, counting);
+			// Removes the recursion between a and b, and reconnects its traces to the direct edge
+			StacktraceGraphModel pruned = GraphPruner.prune(recursiveModel, 0.05, 0, 0);
+			assertEquals(2, pruned.getNodes().size());
+			assertEquals(1, pruned.getEdges().size());
+			Edge edge = pruned.getEdges().iterator().next();
+			assertEquals("main", edge.getFrom().getFrame().getMethod().getMethodName());
+			assertEquals("c", edge.getTo().getFrame().getMethod().getMethodName());
+			assertEquals(102, edge.getCount());
+			assertEquals(102, edge.getValue(), 1e-9);
+		}
+	}
+
+	@Test
+	void testWeightedBuild() {
+		TestRecording recording = new TestRecording();
+		recording.add(recording.trace("b", "a"), 10, 2L).add(recording.trace("b", "a"), 20, 3L)
+				.add(recording.trace("a"), 30, 5L).add(recording.trace("c", "a"), 40, null);
+		List<IAttribute<IQuantity>> attributes = Arrays.asList(null, JfrAttributes.DURATION, JfrAttributes.START_TIME);
+		List<StacktraceGraphModel> models = StacktraceGraphModel.build(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, recording, attributes, null);
+		assertEquals(3, models.size());
+		for (StacktraceGraphModel attributeModel : models) {
+			assertEquals(4, attributeModel.getTotalTraceCount());
+			assertEquals(3, attributeModel.getNodes().size());
+			Map<String, Node> nodes = getNodesByMethod(attributeModel);
+			assertEquals(1, nodes.get("a").getCount());
+			assertEquals(2, nodes.get("b").getCount());
+			assertEquals(1, nodes.get("c").getCount());
+		}
+		assertWeights(models.get(0), 0, 0, 0, 0, 0, 0);
+		assertWeights(models.get(1), 5, 5, 0, 5, 5, 0);
+		assertWeights(models.get(2), 30, 30, 40, 70, 30, 40);
+
+		// The single attribute constructor must give the same weights
+		assertWeights(new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, recording, JfrAttributes.DURATION), 5, 5, 0, 5, 5, 0);
+		assertWeights(new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, recording, JfrAttributes.START_TIME), 30, 30, 40, 70, 30, 40);
+	}
+
+	private static void assertWeights(
+		StacktraceGraphModel weightModel, double aWeight, double bWeight, double cWeight, double aCumulativeWeight,
+		double abValue, double acValue) {
+		Map<String, Node> nodes = getNodesByMethod(weightModel);
+		assertEquals(aWeight, nodes.get("a").getWeight(), 0);
+		assertEquals(bWeight, nodes.get("b").getWeight(), 0);
+		assertEquals(cWeight, nodes.get("c").getWeight(), 0);
+		assertEquals(aCumulativeWeight, nodes.get("a").getCumulativeWeight(), 0);
+		assertEquals(2, weightModel.getEdges().size());
+		for (Edge edge : weightModel.getEdges()) {
+			assertEquals(nodes.get("a"), edge.getFrom());
+			if (edge.getTo().equals(nodes.get("b"))) {
+				assertEquals(2, edge.getCount());
+				assertEquals(abValue, edge.getValue(), 0);
+			} else {
+				assertEquals(nodes.get("c"), edge.getTo());
+				assertEquals(1, edge.getCount());
+				assertEquals(acValue, edge.getValue(), 0);
+			}
+		}
+	}
+
+	@Test
+	void testDotOutput() {
+		Map<DotGenerator.ConfigurationKey, String> configuration = DotGenerator.getDefaultConfiguration();
+		assertEquals(getSortedLines(toBaselineDot(model, configuration)),
+				getSortedLines(DotGenerator.toDot(model, configuration)));
+
+		StacktraceGraphModel weightedModel = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples, JfrAttributes.START_TIME);
+		configuration.put(DotGenerator.ConfigurationKey.NodeSizeAttribute, "weight");
+		assertEquals(getSortedLines(toBaselineDot(weightedModel, configuration)),
+				getSortedLines(DotGenerator.toDot(weightedModel, configuration)));
+	}
+
+	@Test
+	void testMissingStackTraces() {
+		TestRecording recording = new TestRecording();
+		IMCStackTrace trace = recording.trace("a", "b");
+		recording.add(null, 0, 1L).add(trace, 0, 1L).add(null, 0, 1L).add(trace, 0, 1L).add(trace, 0, null);
+		StacktraceGraphModel withoutTraces = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR,
+				recording, JfrAttributes.DURATION);
+		assertMissingStackTracesSkipped(withoutTraces);
+
+		TimeBucketedGraphModel timeBucketedModel = new TimeBucketedGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR,
+				recording, JfrAttributes.DURATION, UnitLookup.MILLISECOND.quantity(100));
+		assertMissingStackTracesSkipped(timeBucketedModel.getModel());
+
+		ConcurrentGraphBuilder builder = new ConcurrentGraphBuilder(GraphModelUtils.DEFAULT_FRAME_SEPARATOR,
+				JfrAttributes.DURATION);
+		builder.addItems(recording);
+		assertMissingStackTracesSkipped(builder.freeze());
+	}
+
+	private static void assertMissingStackTracesSkipped(StacktraceGraphModel withoutTraces) {
+		assertEquals(3, withoutTraces.getTotalTraceCount());
+		assertEquals(2, withoutTraces.getNodes().size());
+		Map<String, Node> nodes = getNodesByMethod(withoutTraces);
+		assertEquals(3, nodes.get("a").getCount());
+		assertEquals(2, nodes.get("a").getWeight(), 0);
+		assertEquals(0, nodes.get("b").getCount());
+		assertEquals(3, nodes.get("b").getCumulativeCount());
+	}
+
+	private static int countElements(String json) {
+		int count = 0;
+		for (int i = json.indexOf("{\"data\":"); i >= 0; i = json.indexOf("{\"data\":", i + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+	@Test
+	void testMappedModel() throws IOException {
+		StacktraceGraphModel weightedModel = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples, JfrAttributes.START_TIME);
+		Path file = Files.createTempFile("graph", ".bin");
+		try {
+			MappedGraphFile.write(weightedModel, file);
+			StacktraceGraphModel mapped = MappedGraphFile.open(file);
+			assertTrue(mapped.isMapped());
+			assertEquals(weightedModel.getTotalTraceCount(), mapped.getTotalTraceCount());
+			assertEquals(weightedModel.getTotalEdgeCount(), mapped.getTotalEdgeCount());
+			assertEquals(weightedModel.getNodes().size(), mapped.getNodes().size());
+			assertEquals(weightedModel.getEdges().size(), mapped.getEdges().size());
+			assertStatisticsEqual(weightedModel.getStatistics(), mapped.getStatistics());
+			assertEquals(weightedModel.getTypeNames(), mapped.getTypeNames());
+			// The edges are in a different order, but the nodes are not
+			assertEquals(getSortedLines(DotGenerator.toDot(weightedModel, DotGenerator.getDefaultConfiguration())),
+					getSortedLines(DotGenerator.toDot(mapped, DotGenerator.getDefaultConfiguration())));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void testSnapshotCache() throws IOException, CouldNotLoadRecordingException {
+		Path recording = Files.createTempFile("hotmethods", ".jfr");
+		Path snapshot = MappedGraphFile.getSnapshotPath(recording, "executionSample");
+		try {
+			try (InputStream in = GraphModelTest.class.getResourceAsStream("hotmethods.jfr")) {
+				Files.copy(in, recording, StandardCopyOption.REPLACE_EXISTING);
+			}
+			StacktraceGraphModel built = MappedGraphFile.openOrBuild(snapshot, recording, JdkFilters.EXECUTION_SAMPLE,
+					GraphModelUtils.DEFAULT_FRAME_SEPARATOR, null);
+			FileTime written = Files.getLastModifiedTime(snapshot);
+			StacktraceGraphModel reopened = MappedGraphFile.openOrBuild(snapshot, recording,
+					JdkFilters.EXECUTION_SAMPLE, GraphModelUtils.DEFAULT_FRAME_SEPARATOR, null);
+			assertEquals(written, Files.getLastModifiedTime(snapshot));
+			assertEquals(built.getNodes().size(), reopened.getNodes().size());
+			assertEquals(GraphModelUtils.DEFAULT_FRAME_SEPARATOR.getCategorization(),
+					reopened.getFrameSeparator().getCategorization());
+		} finally {
+			Files.deleteIfExists(snapshot);
+			Files.delete(recording);
+		}
+	}
+
+	@Test
+	void testSnapshotCacheNotReplaceable() throws IOException, CouldNotLoadRecordingException {
+		Path directory = Files.createTempDirectory("snapshots");
+		Path recording = directory.resolve("hotmethods.jfr");
+		// A non-empty directory in place of the snapshot cannot be replaced, like a mapped file on
+		// Windows
+		Path snapshot = MappedGraphFile.getSnapshotPath(recording, "executionSample");
+		Path blocker = snapshot.resolve("blocker");
+		try {
+			try (InputStream in = GraphModelTest.class.getResourceAsStream("hotmethods.jfr")) {
+				Files.copy(in, recording);
+			}
+			Files.createDirectories(blocker);
+			StacktraceGraphModel built = MappedGraphFile.openOrBuild(snapshot, recording, JdkFilters.EXECUTION_SAMPLE,
+					GraphModelUtils.DEFAULT_FRAME_SEPARATOR, null);
+			assertFalse(built.isMapped());
+			assertEquals(model.getNodes().size(), built.getNodes().size());
+			try (Stream<Path> files = Files.list(directory)) {
+				assertEquals(2, files.count());
+			}
+		} finally {
+			Files.deleteIfExists(blocker);
+			Files.deleteIfExists(snapshot);
+			Files.deleteIfExists(recording);
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	void testAdjacency() {
+		int outgoing = 0;
+		int incoming = 0;
+		for (Node node : model.getNodes()) {
+			for (Edge edge : model.getOutgoingEdges(node)) {
+				assertSame(node, edge.getFrom());
+				outgoing++;
+			}
+			for (Edge edge : model.getIncomingEdges(node)) {
+				assertSame(node, edge.getTo());
+				incoming++;
+			}
+		}
+		assertEquals(model.getEdges().size(), outgoing);
+		assertEquals(model.getEdges().size(), incoming);
+	}
+
+	@Test
+	void testSubgraph() {
+		Node hottest = model.getNodes().iterator().next();
+		for (Node node : model.getNodes()) {
+			if (node.getCount() > hottest.getCount()) {
+				hottest = node;
+			}
+		}
+		StacktraceGraphModel single = model.getSubgraph(hottest, 0, 0, 10);
+		assertEquals(1, single.getNodes().size());
+		assertEquals(hottest.getFrame(), single.getNodes().iterator().next().getFrame());
+
+		StacktraceGraphModel callers = model.getCallers(hottest, 1, 1000);
+		assertEquals(model.getIncomingEdges(hottest).size() + 1, callers.getNodes().size());
+		assertEquals(model.getTotalTraceCount(), callers.getTotalTraceCount());
+
+		StacktraceGraphModel budgeted = model.getSubgraph(hottest, 3, 3, 5);
+		assertTrue("Too many nodes!", budgeted.getNodes().size() <= 5);
+		assertFalse(DotGenerator.toDot(budgeted, DotGenerator.getDefaultConfiguration()).isEmpty());
+	}
+
+	@Test
+	void testPartitionedModel() {
+		PartitionedStacktraceGraphModel partitioned = new PartitionedStacktraceGraphModel(
+				GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples, null, PartitionedStacktraceGraphModel.BY_THREAD);
+		assertFalse(partitioned.getPartitionKeys().isEmpty());
+		int totalTraceCount = 0;
+		for (String key : partitioned.getPartitionKeys()) {
+			totalTraceCount += partitioned.getModel(key).getTotalTraceCount();
+		}
+		assertEquals(model.getTotalTraceCount(), totalTraceCount);
+
+		StacktraceGraphModel merged = partitioned.mergeAll();
+		assertEquals(model.getTotalTraceCount(), merged.getTotalTraceCount());
+		assertEquals(model.getTotalEdgeCount(), merged.getTotalEdgeCount());
+		assertEquals(model.getNodes().size(), merged.getNodes().size());
+		assertEquals(model.getEdges().size(), merged.getEdges().size());
+	}
+
+	@Test
+	void testConcurrentBuilder() throws InterruptedException {
+
+		int threadCount = 8;
+		ConcurrentGraphBuilder builder = new ConcurrentGraphBuilder(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, null);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> producers = new ArrayList<>();
+		for (int i = 0; i < threadCount; i++) {
+			Thread producer = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				builder.addItems(executionSamples);
+			});
+			producer.start();
+			producers.add(producer);
+		}
+		start.countDown();
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		StacktraceGraphModel concurrent = builder.freeze();
+		assertEquals(model.getTotalTraceCount() * threadCount, concurrent.getTotalTraceCount());
+		assertEquals(model.getTotalEdgeCount() * threadCount, concurrent.getTotalEdgeCount());
+		assertEquals(model.getNodes().size(), concurrent.getNodes().size());
+		assertEquals(model.getEdges().size(), concurrent.getEdges().size());
+		Map<AggregatableFrame, Node> concurrentNodes = new HashMap<>();
+		for (Node node : concurrent.getNodes()) {
+			concurrentNodes.put(node.getFrame(), node);
+		}
+		for (Node node : model.getNodes()) {
+			Node other = concurrentNodes.get(node.getFrame());
+			assertEquals(node.getCount() * threadCount, other.getCount());
+			assertEquals(node.getCumulativeCount() * threadCount, other.getCumulativeCount());
+		}
+	}
+
+	@Test
+	void testRecursion() {
+		StacktraceGraphModel perTraceModel = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples,
+				null, null, CumulativeCounting.PER_TRACE);
+		for (Node node : perTraceModel.getNodes()) {
+			assertTrue(node.getCumulativeCount() >= node.getCount());
+			assertTrue(node.getCumulativeCount() <= perTraceModel.getTotalTraceCount());
+		}
+		for (Edge edge : perTraceModel.getEdges()) {
+			assertTrue(edge.getCount() <= Math.min(edge.getFrom().getCumulativeCount(), edge.getTo().getCumulativeCount()));
+		}
+
+		StacktraceGraphModel collapsed = perTraceModel.collapseRecursion();
+		assertEquals(perTraceModel.getTotalTraceCount(), collapsed.getTotalTraceCount());
+		assertTrue(collapsed.getNodes().size() <= perTraceModel.getNodes().size());
+		for (Edge edge : collapsed.getEdges()) {
+			assertFalse(edge.getFrom() == edge.getTo());
+		}
+		for (Node node : collapsed.getNodes()) {
+			assertTrue(node.getCumulativeCount() <= collapsed.getTotalTraceCount());
+		}
+	}
+
+	@Test
+	void testRecursiveTrace() {
+		TestRecording recording = new TestRecording();
+		IMCStackTrace recursive = recording.trace("b", "a", "b", "a", "main");
+		recording.add(recursive, 0, 1L).add(recursive, 0, 1L).add(recording.trace("c", "a", "main"), 0, 1L)
+				.add(recording.trace("main"), 0, 1L);
+
+		StacktraceGraphModel perTraceModel = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR,
+				recording, JfrAttributes.DURATION, null, CumulativeCounting.PER_TRACE);
+		Map<String, Node> nodes = getNodesByMethod(perTraceModel);
+		assertEquals(3, nodes.get("a").getCumulativeCount());
+		assertEquals(2, nodes.get("b").getCumulativeCount());
+		assertEquals(4, nodes.get("main").getCumulativeCount());
+		assertCollapsedRecursion(perTraceModel.collapseRecursion());
+
+		StacktraceGraphModel perFrameModel = new StacktraceGraphModel(GraphModelUtils.DEFAULT_FRAME_SEPARATOR,
+				recording, JfrAttributes.DURATION, null, CumulativeCounting.PER_FRAME);
+		assertCollapsedRecursion(perFrameModel.collapseRecursion());
+	}
+
+	private static void assertCollapsedRecursion(StacktraceGraphModel collapsed) {
+		assertEquals(4, collapsed.getTotalTraceCount());
+		assertEquals(3, collapsed.getNodes().size());
+		Map<String, Node> nodes = getNodesByMethod(collapsed);
+		Node recursion = nodes.get("b");
+		assertEquals(recursion.getFrame().getHumanReadableSeparatorSensitiveString() + " (+1 in recursion)",
+				recursion.getLabel());
+		assertEquals(2, recursion.getCount());
+		assertEquals(3, recursion.getCumulativeCount());
+		assertEquals(3, recursion.getCumulativeWeight(), 0);
+		assertEquals(1, nodes.get("c").getCount());
+		assertEquals(1, nodes.get("c").getCumulativeCount());
+		assertEquals(1, nodes.get("main").getCount());
+		assertEquals(4, nodes.get("main").getCumulativeCount());
+		assertEquals(4, nodes.get("main").getCumulativeWeight(), 0);
+
+		assertEquals(2, collapsed.getEdges().size());
+		for (Edge edge : collapsed.getEdges()) {
+			if (edge.getFrom().equals(nodes.get("main"))) {
+				assertEquals(recursion, edge.getTo());
+				assertEquals(3, edge.getCount());
+			} else {
+				assertEquals(recursion, edge.getFrom());
+				assertEquals(nodes.get("c"), edge.getTo());
+				assertEquals(1, edge.getCount());
+			}
+		}
+	}
+
+	@Test
+	void testCallTree() {
+		CallTree tree = CallTree.build(GraphModelUtils.DEFAULT_FRAME_SEPARATOR, executionSamples, null, null);
+		assertEquals(model.getTotalTraceCount(), tree.getModel().getTotalTraceCount());
+		assertEquals(model.getNodes().size(), tree.getModel().getNodes().size());
+		assertEquals(model.getTotalTraceCount(), tree.getCount(0));
+		for (int i = 0; i < tree.size(); i++) {
+			int childSum = 0;
+			for (int c = 0; c < tree.getChildCount(i); c++) {
+				int child = tree.getChild(i, c);
+				assertEquals(i, tree.getParent(child));
+				childSum += tree.getCount(child);
+			}
+			assertTrue(childSum <= tree.getCount(i));
+		}
+		String json = FlameGraphGenerator.toFlameGraphJson(tree);
+		assertTrue(json.startsWith("{\"name\":\"root\",\"value\":" + tree.getCount(0) + ",\"children\":[{"));
+		assertTrue(json.endsWith("]}"));
+	}
+
+	@Test
+	void testModelCache() {
+		GraphModelCache cache = new GraphModelCache(Long.MAX_VALUE);
+		FrameSeparator byMethod = new FrameSeparator(FrameCategorization.METHOD, false);
+		FrameSeparator byPackage = new FrameSeparator(FrameCategorization.PACKAGE, false);
+		StacktraceGraphModel methodModel = cache.getModel(executionSamples, byMethod, null);
+		StacktraceGraphModel packageModel = cache.getModel(executionSamples, byPackage, null);
+		assertTrue(methodModel != packageModel);
+		assertSame(methodModel, cache.getModel(executionSamples, new FrameSeparator(FrameCategorization.METHOD, false), null));
+		assertSame(packageModel, cache.getModel(executionSamples, byPackage, null));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(2, cache.size());
+
+		GraphModelCache small = new GraphModelCache(cache.getEstimatedMemory() - 1);
+		small.put(executionSamples, byMethod, null, methodModel);
+		small.put(executionSamples, byPackage, null, packageModel);
+		assertEquals(1, small.size());
+		assertEquals(1, small.getEvictionCount());
+		assertSame(packageModel, small.getIfPresent(executionSamples, byPackage, null));
+
+		cache.invalidate(executionSamples);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	void testRollUp() {
+		FrameSeparator byClass = new FrameSeparator(FrameCategorization.CLASS, false);
+		StacktraceGraphModel classModel = new StacktraceGraphModel(byClass, executionSamples, null);
+		StacktraceGraphModel rolledUp = model.rollUp(byClass);
+		assertSame(byClass, rolledUp.getFrameSeparator());
+		assertEquals(classModel.getTotalTraceCount(), rolledUp.getTotalTraceCount());
+		assertEquals(classModel.getTotalEdgeCount(), rolledUp.getTotalEdgeCount());
+		assertEquals(classModel.getNodes().size(), rolledUp.getNodes().size());
+		assertEquals(classModel.getEdges().size(), rolledUp.getEdges().size());
+		Iterator<Node> rolledUpNodes = rolledUp.getNodes().iterator();
+		for (Node expected : classModel.getNodes()) {
+			Node actual = rolledUpNodes.next();
+			assertEquals(expected.getFrame(), actual.getFrame());
+			assertEquals(expected.getCount(), actual.getCount());
+			assertEquals(expected.getCumulativeCount(), actual.getCumulativeCount());
+		}
+		Iterator<Edge> rolledUpEdges = rolledUp.getEdges().iterator();
+		for (Edge expected : classModel.getEdges()) {
+			Edge actual = rolledUpEdges.next();
+			assertEquals(expected.getFrom().getFrame(), actual.getFrom().getFrame());
+			assertEquals(expected.getTo().getFrame(), actual.getTo().getFrame());
+			assertEquals(expected.getCount(), actual.getCount());
+		}
+
+		boolean rejected = false;
+		try {
+			classModel.rollUp(GraphModelUtils.DEFAULT_FRAME_SEPARATOR);
+		} catch (IllegalArgumentException e) {
+			rejected = true;
+		}
+		assertTrue(rejected);
+	}
+
+	/**
+	 * Renders a model the way the original, String.format based, DotGenerator did, to check that
+	 * the output of the streaming generator is unchanged. Formats with the root locale, since the
+	 * streaming generator always uses '.' as decimal separator.
+	 */
+	private static String toBaselineDot(StacktraceGraphModel model, Map<DotGenerator.ConfigurationKey, String> configuration) {
+		String graphName = configuration.get(DotGenerator.ConfigurationKey.Name);
+		boolean useCount = "count".equals(configuration.get(DotGenerator.ConfigurationKey.NodeSizeAttribute));
+		int maxFontSize = Integer.parseInt(configuration.get(DotGenerator.ConfigurationKey.MaxNodeFontSize));
+		int minFontSize = Integer.parseInt(configuration.get(DotGenerator.ConfigurationKey.MinNodeFontSize));
+		int maxWeight = Integer.parseInt(configuration.get(DotGenerator.ConfigurationKey.MaxEdgeWeight));
+		int minWeight = Integer.parseInt(configuration.get(DotGenerator.ConfigurationKey.MinEdgeWeight));
+		double nodeMinRange = useCount ? model.findNodeMinCount() : model.findNodeMinWeight();
+		double nodeMaxRange = useCount ? model.findNodeMaxCount() : model.findNodeMaxWeight();
+		int edgeMaxCount = model.findEdgeMaxCount();
+		double edgeMinRange = useCount ? model.findEdgeMinCount() : model.findEdgeMinValue();
+		double edgeMaxRange = useCount ? edgeMaxCount : model.findEdgeMaxValue();
+
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("digraph \"%s\" {\n", graphName));
+		builder.append("node [style=").append(configuration.get(DotGenerator.ConfigurationKey.Style))
+				.append(" fillcolor=\"").append(configuration.get(DotGenerator.ConfigurationKey.Fillcolor))
+				.append("\" fontname=\"").append(configuration.get(DotGenerator.ConfigurationKey.Fontname))
+				.append("\"]\n");
+		builder.append("subgraph cluster_L { \"").append(graphName).append("\" [shape=")
+				.append(configuration.get(DotGenerator.ConfigurationKey.TitleShape)).append(" fontsize=")
+				.append(configuration.get(DotGenerator.ConfigurationKey.TitleFontSize)).append(" label=\"")
+				.append(graphName).append("\\nTypes: ").append(GraphModelUtils.getTypeNames(model.getItems()))
+				.append("\\lTotal samples = ").append(model.getTotalTraceCount())
+				.append("\\lTotal edge count = ").append(model.getTotalEdgeCount()).append("\\l\" tooltip=\"")
+				.append(graphName).append("\"] }\n");
+		for (Node node : model.getNodes()) {
+			String label = node.getFrame().getHumanReadableSeparatorSensitiveString();
+			String percentOfSamples = String.format(Locale.ROOT, "%.3f %%", node.getCount() * 100.0 / model.getTotalTraceCount());
+			double fraction = ((useCount ? node.getCount() : node.getWeight()) - nodeMinRange) / (nodeMaxRange - nodeMinRange);
+			builder.append("N").append(node.getNodeId()).append(" [label=\"").append(label).append("\\nSamples: ")
+					.append(node.getCount()).append(" (").append(percentOfSamples).append(")\" id=\"node")
+					.append(node.getNodeId()).append("\" fontsize=")
+					.append((int) Math.round((maxFontSize - minFontSize) * fraction + minFontSize)).append(" shape=")
+					.append(configuration.get(DotGenerator.ConfigurationKey.NodeShape)).append(" tooltip=\"")
+					.append(label).append(" (").append(percentOfSamples).append(" %)\" color=\"#b22b00\" fillcolor=\"")
+					.append(configuration.get(DotGenerator.ConfigurationKey.NodeFillColor)).append("\"]\n");
+		}
+		for (Edge edge : model.getEdges()) {
+			double value = useCount ? edge.getCount() : edge.getValue();
+			double fraction = (value - edgeMinRange) / (edgeMaxRange - edgeMinRange);
+			int weight = (int) Math.round((maxWeight - minWeight) * fraction + minWeight);
+			int colorValue = (int) ((1 - fraction) * 0xb2);
+			// Unlike the original, the streaming generator gives zero percentages for all zero edges
+			double maxValue = useCount ? edgeMaxCount : edgeMaxRange;
+			double percentage = maxValue == 0 ? 0 : value / maxValue;
+			String tooltip = edge.getFrom().getFrame().getHumanReadableSeparatorSensitiveString() + " -> "
+					+ edge.getTo().getFrame().getHumanReadableSeparatorSensitiveString() + " ("
+					+ String.format(Locale.ROOT, "%.3f", percentage)
+					+ " %)";
+			builder.append("N").append(edge.getFrom().getNodeId()).append(" -> N").append(edge.getTo().getNodeId())
+					.append(" [label=\"");
+			if (useCount) {
+				builder.append(edge.getCount());
+			} else {
+				builder.append(edge.getValue());
+			}
+			builder.append("\"");
+			if (weight >= 2) {
+				builder.append(" weight=").append(weight);
+			}
+			builder.append(value == edgeMaxRange ? " penwidth=2 " : " ").append("color=\"")
+					.append("#" + Integer.toHexString((0xb2 << 16) | (colorValue << 8) | colorValue))
+					.append("\" tooltip=\"").append(tooltip).append("\" labeltooltip=\"").append(tooltip)
+					.append("\" style=\"").append(configuration.get(DotGenerator.ConfigurationKey.EdgeStyle))
+					.append("\"]\n");
+		}
+		builder.append("}");
+		return builder.toString();
+	}
+
+	private static void assertModelsEqual(StacktraceGraphModel expected, StacktraceGraphModel actual) {
+		assertEquals(expected.getTotalTraceCount(), actual.getTotalTraceCount());
+		assertEquals(expected.getTotalEdgeCount(), actual.getTotalEdgeCount());
+		assertEquals(expected.getNodes().size(), actual.getNodes().size());
+		assertEquals(expected.getEdges().size(), actual.getEdges().size());
+		Map<AggregatableFrame, Node> actualNodes = new HashMap<>();
+		for (Node node : actual.getNodes()) {
+			actualNodes.put(node.getFrame(), node);
+		}
+		for (Node node : expected.getNodes()) {
+			Node other = actualNodes.get(node.getFrame());
+			assertEquals(node.getCount(), other.getCount());
+			assertEquals(node.getCumulativeCount(), other.getCumulativeCount());
+			assertEquals(node.getWeight(), other.getWeight(), Math.abs(node.getWeight()) * 1e-12);
+			assertEquals(node.getCumulativeWeight(), other.getCumulativeWeight(),
+					Math.abs(node.getCumulativeWeight()) * 1e-12);
+		}
+		Map<Edge, Edge> actualEdges = new HashMap<>();
+		for (Edge edge : actual.getEdges()) {
+			actualEdges.put(edge, edge);
+		}
+		for (Edge edge : expected.getEdges()) {
+			Edge other = actualEdges.get(edge);
+			assertEquals(edge.getCount(), other.getCount());
+			assertEquals(edge.getValue(), other.getValue(), Math.abs(edge.getValue()) * 1e-12);
+		}
+	}
+
+	/**
+	 * Compares statistics, allowing for rounding differences in the weight sums, which depend on
+	 * the order the nodes and edges are visited in.
+	 */
+	private static void assertStatisticsEqual(GraphStatistics expected, GraphStatistics actual) {
+		assertEquals(expected.getNodeMinCount(), actual.getNodeMinCount());
+		assertEquals(expected.getNodeMaxCount(), actual.getNodeMaxCount());
+		assertEquals(expected.getNodeSumCount(), actual.getNodeSumCount());
+		assertEquals(expected.getNodeMinWeight(), actual.getNodeMinWeight(), 0);
+		assertEquals(expected.getNodeMaxWeight(), actual.getNodeMaxWeight(), 0);
+		assertEquals(expected.getNodeSumWeight(), actual.getNodeSumWeight(), Math.ulp(expected.getNodeSumWeight()) * 1024);
+		assertEquals(expected.getEdgeMinCount(), actual.getEdgeMinCount());
+		assertEquals(expected.getEdgeMaxCount(), actual.getEdgeMaxCount());
+		assertEquals(expected.getEdgeSumCount(), actual.getEdgeSumCount());
+		assertEquals(expected.getEdgeMinValue(), actual.getEdgeMinValue(), 0);
+		assertEquals(expected.getEdgeMaxValue(), actual.getEdgeMaxValue(), 0);
+		assertEquals(expected.getEdgeSumValue(), actual.getEdgeSumValue(), Math.ulp(expected.getEdgeSumValue()) * 1024);
+	}
+
+	/**
+	 * @return the nodes of a model by the names of their methods.
+	 */
+	private static Map<String, Node> getNodesByMethod(StacktraceGraphModel model) {
+		Map<String, Node> nodes = new HashMap<>();
+		for (Node node : model.getNodes()) {
+			nodes.put(node.getFrame().getMethod().getMethodName(), node);
+		}
+		return nodes;
+	}
+
+	private static List<String> getSortedLines(String text) {
+		List<String> lines = Arrays.asList(text.split("\n"));
+		Collections.sort(lines);
+		return lines;
+	}
+
 	public static void main(String [] args) throws IOException, CouldNotLoadRecordingException {
+		loadRecording();
 		new GraphModelTest().testBuildGraph();
 	}
 }
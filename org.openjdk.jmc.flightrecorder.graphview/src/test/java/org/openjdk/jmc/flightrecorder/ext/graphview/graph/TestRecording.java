@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2019, Datadog, Inc. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The contents of this file are subject to the terms of either the Universal Permissive License
+ * v 1.0 as shown at http://oss.oracle.com/licenses/upl
+ *
+ * or the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other materials provided with
+ * the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to
+ * endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openjdk.jmc.flightrecorder.ext.graphview.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openjdk.jmc.common.IDescribable;
+import org.openjdk.jmc.common.IMCFrame;
+import org.openjdk.jmc.common.IMCMethod;
+import org.openjdk.jmc.common.IMCStackTrace;
+import org.openjdk.jmc.common.IMCStackTrace.TruncationState;
+import org.openjdk.jmc.common.IMCType;
+import org.openjdk.jmc.common.IPredicate;
+import org.openjdk.jmc.common.item.IAccessorKey;
+import org.openjdk.jmc.common.item.IAggregator;
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.ICanonicalAccessorFactory;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemConsumer;
+import org.openjdk.jmc.common.item.IItemFilter;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.IType;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.common.util.MCFrame;
+import org.openjdk.jmc.common.util.MCMethod;
+import org.openjdk.jmc.common.util.MCPackage;
+import org.openjdk.jmc.common.util.MCStackTrace;
+import org.openjdk.jmc.common.util.MCType;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+
+/**
+ * A small, hand written, in memory recording, for tests that need exact control over the stack
+ * traces, e.g. recursive traces or items without a stack trace. The items have a start time and
+ * an (optional) duration, which can be used as weight attribute.
+ */
+final class TestRecording implements IItemCollection {
+	private static final IMCType TYPE = new MCType("Test", new MCPackage("org.example.test", null, Boolean.TRUE));
+	private final Map<String, IMCMethod> methods = new HashMap<>();
+	private final List<IItem> items;
+
+	TestRecording() {
+		this(new ArrayList<>());
+	}
+
+	private TestRecording(List<IItem> items) {
+		this.items = items;
+	}
+
+	/**
+	 * @param methodNames
+	 *            the names of the methods of the frames, top frame first.
+	 * @return a stack trace with one frame per method name, all in the same class.
+	 */
+	IMCStackTrace trace(String... methodNames) {
+		List<IMCFrame> frames = new ArrayList<>(methodNames.length);
+		for (String methodName : methodNames) {
+			IMCMethod method = methods.computeIfAbsent(methodName,
+					name -> new MCMethod(TYPE, name, "()V", Integer.valueOf(1), Boolean.FALSE));
+			frames.add(new MCFrame(method, 0, 1, IMCFrame.Type.JIT_COMPILED));
+		}
+		return new MCStackTrace(frames, TruncationState.NOT_TRUNCATED);
+	}
+
+	/**
+	 * Adds an item.
+	 *
+	 * @param stackTrace
+	 *            the stack trace, or null for an item without a stack trace.
+	 * @param startTime
+	 *            the start time, in epoch milliseconds.
+	 * @param duration
+	 *            the duration, in milliseconds, or null for an item without a duration.
+	 */
+	TestRecording add(IMCStackTrace stackTrace, long startTime, Long duration) {
+		items.add(new TestItem(stackTrace, UnitLookup.EPOCH_MS.quantity(startTime),
+				duration == null ? null : UnitLookup.MILLISECOND.quantity(duration.longValue())));
+		return this;
+	}
+
+	@Override
+	public Iterator<IItemIterable> iterator() {
+		return Collections.<IItemIterable> singletonList(new TestIterable(items)).iterator();
+	}
+
+	@Override
+	public IItemCollection apply(IItemFilter filter) {
+		IPredicate<IItem> predicate = filter.getPredicate(TestType.INSTANCE);
+		return new TestRecording(items.stream().filter(predicate::evaluate).collect(Collectors.toList()));
+	}
+
+	@Override
+	public <V, C extends IItemConsumer<C>> V getAggregate(IAggregator<V, C> aggregator) {
+		throw new UnsupportedOperationException("Aggregation is not supported on test recordings");
+	}
+
+	@Override
+	public boolean hasItems() {
+		return !items.isEmpty();
+	}
+
+	private static final class TestIterable implements IItemIterable {
+		private final List<IItem> items;
+
+		TestIterable(List<IItem> items) {
+			this.items = items;
+		}
+
+		@Override
+		public Iterator<IItem> iterator() {
+			return items.iterator();
+		}
+
+		@Override
+		public IType<IItem> getType() {
+			return TestType.INSTANCE;
+		}
+
+		@Override
+		public boolean hasItems() {
+			return !items.isEmpty();
+		}
+
+		@Override
+		public long getItemCount() {
+			return items.size();
+		}
+
+		@Override
+		public IItemIterable apply(Predicate<IItem> predicate) {
+			return new TestIterable(items.stream().filter(predicate).collect(Collectors.toList()));
+		}
+
+		@Override
+		public Stream<IItem> stream() {
+			return items.stream();
+		}
+	}
+
+	private static final class TestItem implements IItem {
+		private final IMCStackTrace stackTrace;
+		private final IQuantity startTime;
+		private final IQuantity duration;
+
+		TestItem(IMCStackTrace stackTrace, IQuantity startTime, IQuantity duration) {
+			this.stackTrace = stackTrace;
+			this.startTime = startTime;
+			this.duration = duration;
+		}
+
+		@Override
+		public IType<?> getType() {
+			return TestType.INSTANCE;
+		}
+	}
+
+	private static final class TestType implements IType<IItem> {
+		private static final TestType INSTANCE = new TestType();
+		private static final List<IAttribute<?>> ATTRIBUTES = Arrays.<IAttribute<?>> asList(
+				JfrAttributes.EVENT_STACKTRACE, JfrAttributes.START_TIME, JfrAttributes.DURATION);
+		private static final IMemberAccessor<IMCStackTrace, IItem> STACKTRACE_ACCESSOR = (item) -> ((TestItem) item).stackTrace;
+		private static final IMemberAccessor<IQuantity, IItem> START_TIME_ACCESSOR = (item) -> ((TestItem) item).startTime;
+		private static final IMemberAccessor<IQuantity, IItem> DURATION_ACCESSOR = (item) -> ((TestItem) item).duration;
+
+		@Override
+		public String getIdentifier() {
+			return "test.Sample";
+		}
+
+		@Override
+		public String getName() {
+			return "Test Sample";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Hand written sample";
+		}
+
+		@Override
+		public List<IAttribute<?>> getAttributes() {
+			return ATTRIBUTES;
+		}
+
+		@Override
+		public Map<IAccessorKey<?>, ? extends IDescribable> getAccessorKeys() {
+			Map<IAccessorKey<?>, IDescribable> keys = new HashMap<>();
+			for (IAttribute<?> attribute : ATTRIBUTES) {
+				keys.put(attribute.getKey(), attribute);
+			}
+			return keys;
+		}
+
+		@Override
+		public boolean hasAttribute(ICanonicalAccessorFactory<?> attribute) {
+			return ATTRIBUTES.contains(attribute);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <M> IMemberAccessor<M, IItem> getAccessor(IAccessorKey<M> attribute) {
+			if (JfrAttributes.EVENT_STACKTRACE.getKey().equals(attribute)) {
+				return (IMemberAccessor<M, IItem>) STACKTRACE_ACCESSOR;
+			} else if (JfrAttributes.START_TIME.getKey().equals(attribute)) {
+				return (IMemberAccessor<M, IItem>) START_TIME_ACCESSOR;
+			} else if (JfrAttributes.DURATION.getKey().equals(attribute)) {
+				return (IMemberAccessor<M, IItem>) DURATION_ACCESSOR;
+			}
+			return null;
+		}
+	}
+}